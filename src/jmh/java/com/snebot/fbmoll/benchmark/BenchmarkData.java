@@ -0,0 +1,41 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.Contact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible contacts with valid attributes, cheaper to generate than
+ * {@link com.snebot.fbmoll.util.DummyUtils} at millions of contacts.
+ *
+ * @author Serafi Nebot Ginard
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generates the contact at a position. The same position always gives the same data.
+     *
+     * @param i Contact position.
+     * @return Contact without unique identifier.
+     */
+    static Contact contact(int i) {
+        Random random = new Random(i);
+        Contact contact = new Contact();
+        contact.setName("name" + random.nextInt(1000));
+        contact.setLastName("lastName" + random.nextInt(10000));
+        contact.setEmail(String.format("user%d@mail.com", i));
+        contact.setAddress(String.format("Carrer %d, %d", random.nextInt(500), random.nextInt(100)));
+        contact.setPhone(String.format("6%08d", random.nextInt(100000000)));
+        return contact;
+    }
+
+    static List<Contact> contacts(int size) {
+        List<Contact> contacts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) contacts.add(contact(i));
+        return contacts;
+    }
+}
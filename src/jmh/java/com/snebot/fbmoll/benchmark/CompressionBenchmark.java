@@ -0,0 +1,72 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.persistence.CompressedSnapshotCodec;
+import com.snebot.fbmoll.persistence.SnapshotCodec;
+import com.snebot.fbmoll.persistence.SnapshotFormat;
+import com.snebot.fbmoll.util.Compression;
+import com.snebot.fbmoll.util.ContactGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save and load times of compressed snapshots at several deflate levels,
+ * on realistic generated contacts. The file size of every combination is
+ * printed once the trial ends, to weigh it against the time spent.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"STAX", "BINARY"})
+    public SnapshotFormat format;
+
+    /**
+     * Compression and deflate level.
+     */
+    @Param({"NONE", "GZIP-1", "GZIP-6", "GZIP-9", "DEFLATE-1", "DEFLATE-6", "DEFLATE-9"})
+    public String compression;
+
+    @Param({"100000"})
+    public int size;
+
+    private SnapshotCodec codec;
+    private ContactBook book;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.book = new ContactBook("benchmark", new ContactGenerator(this.size).generate(this.size));
+        String[] setting = this.compression.split("-");
+        Compression compression = Compression.valueOf(setting[0]);
+        this.codec = compression == Compression.NONE ? this.format.getCodec()
+                : new CompressedSnapshotCodec(this.format.getCodec(), compression, Integer.parseInt(setting[1]));
+        this.file = File.createTempFile("contacts", this.format.getExtension());
+        this.file.deleteOnExit();
+        this.codec.save(this.book, this.file.getAbsolutePath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%n%s %s: %d bytes%n", this.format, this.compression, this.file.length());
+        this.file.delete();
+    }
+
+    @Benchmark
+    public boolean save() {
+        return this.codec.save(this.book, this.file.getAbsolutePath());
+    }
+
+    @Benchmark
+    public ContactBook load() throws IOException {
+        return this.codec.load(this.file.getAbsolutePath());
+    }
+}
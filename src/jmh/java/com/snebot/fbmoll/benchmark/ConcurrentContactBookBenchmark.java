@@ -0,0 +1,84 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.ConcurrentContactBook;
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.data.ContactIdGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writers and readers sharing a single {@link ConcurrentContactBook}. Every write
+ * publishes a snapshot, so its cost has to stay flat as the book grows, and
+ * readers have to keep their pace while writes go on.
+ * The mixed group runs one writer next to three readers; the write and read
+ * benchmarks measure each side alone.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ConcurrentContactBookBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private List<Contact> contacts;
+    private ConcurrentContactBook book;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.contacts = BenchmarkData.contacts(this.size);
+        this.contacts.forEach(contact -> contact.setUUID(ContactIdGenerator.next()));
+        ContactBook book = new ContactBook();
+        this.contacts.forEach(book::restoreContact);
+        this.book = new ConcurrentContactBook(book);
+    }
+
+    private Contact existing() {
+        return this.contacts.get(ThreadLocalRandom.current().nextInt(this.size));
+    }
+
+    private Contact update() {
+        Contact contact = existing();
+        Contact data = new Contact();
+        data.setLastName("lastName" + ThreadLocalRandom.current().nextInt(10000));
+        return this.book.updateContact(contact.getUUID(), data);
+    }
+
+    private int read() {
+        Contact contact = existing();
+        Contact found = this.book.findByUUID(contact.getUUID());
+        return this.book.getContacts(null, contact.getName(), null, null, null, null).size() + (found != null ? 1 : 0);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Contact mixedWrite() {
+        return update();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public int mixedRead() {
+        return read();
+    }
+
+    @Benchmark
+    public Contact write() {
+        return update();
+    }
+
+    @Benchmark
+    public int readOnly() {
+        return read();
+    }
+}
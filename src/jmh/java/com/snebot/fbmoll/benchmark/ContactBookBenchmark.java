@@ -0,0 +1,90 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contact book operations at growing sizes. The book is rebuilt before every
+ * iteration so additions of one iteration do not slow down the next one.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ContactBookBenchmark {
+    private static final int TEMPLATES = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private List<Contact> contacts;
+    private Contact[] templates;
+    private ContactBook book;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.contacts = BenchmarkData.contacts(this.size);
+        ContactBook book = new ContactBook();
+        this.contacts.forEach(book::addContact);
+        this.templates = new Contact[TEMPLATES];
+        for (int i = 0; i < TEMPLATES; i++) this.templates[i] = BenchmarkData.contact(this.size + i);
+    }
+
+    @Setup(Level.Iteration)
+    public void buildBook() {
+        this.book = new ContactBook();
+        this.book.setName("benchmark");
+        this.contacts.forEach(this.book::restoreContact);
+        this.book.findByUUID("");
+        this.next = 0;
+    }
+
+    private Contact existing() {
+        this.next = (this.next + 7919) % this.size;
+        return this.contacts.get(this.next);
+    }
+
+    @Benchmark
+    public Contact addContact() {
+        Contact template = this.templates[this.next++ & (TEMPLATES - 1)];
+        Contact contact = new Contact();
+        contact.copy(template);
+        this.book.addContact(contact);
+        return contact;
+    }
+
+    @Benchmark
+    public Contact findByUUID() {
+        return this.book.findByUUID(existing().getUUID());
+    }
+
+    @Benchmark
+    public List<Contact> getContactsIndexed() {
+        return this.book.getContacts(null, null, null, existing().getEmail(), null, null);
+    }
+
+    @Benchmark
+    public List<Contact> getContactsScan() {
+        return this.book.getContacts(null, null, null, null, existing().getAddress(), null);
+    }
+
+    /**
+     * Removes a contact by unique identifier and puts it back to keep the book size.
+     */
+    @Benchmark
+    public List<Contact> removeContact() {
+        Contact contact = existing();
+        List<Contact> removed = this.book.removeContact(contact.getUUID(), null, null, null, null, null);
+        this.book.putContact(contact);
+        return removed;
+    }
+}
@@ -0,0 +1,71 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactDeduplicator;
+import com.snebot.fbmoll.data.DuplicateGroup;
+import com.snebot.fbmoll.data.DuplicateKey;
+import com.snebot.fbmoll.util.ContactGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duplicate detection with fingerprints against pairwise {@link Contact#similar(Contact)}
+ * comparisons. Pairwise comparisons only run on a sample, they grow with the square
+ * of the contacts; the fingerprint pass runs on the same sample and on the whole book.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ContactDeduplicatorBenchmark {
+    private static final int SAMPLE_SIZE = 5000;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"CONTACT", "NAME"})
+    public DuplicateKey key;
+
+    private List<Contact> contacts;
+    private List<Contact> sample;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.contacts = new ContactGenerator(this.size).generate(this.size);
+        this.sample = this.contacts.subList(0, SAMPLE_SIZE);
+    }
+
+    private List<DuplicateGroup> fingerprint(List<Contact> contacts) {
+        ContactDeduplicator deduplicator = new ContactDeduplicator(this.key, contacts.size());
+        contacts.forEach(deduplicator::add);
+        return deduplicator.getGroups();
+    }
+
+    @Benchmark
+    public List<DuplicateGroup> fingerprint() {
+        return fingerprint(this.contacts);
+    }
+
+    @Benchmark
+    public List<DuplicateGroup> fingerprintSample() {
+        return fingerprint(this.sample);
+    }
+
+    @Benchmark
+    public int pairwiseSample() {
+        int duplicates = 0;
+        for (int i = 0; i < this.sample.size(); i++) {
+            Contact contact = this.sample.get(i);
+            for (int j = i + 1; j < this.sample.size(); j++) {
+                if (contact.similar(this.sample.get(j))) duplicates++;
+            }
+        }
+        return duplicates;
+    }
+}
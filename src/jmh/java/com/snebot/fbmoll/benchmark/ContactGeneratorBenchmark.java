@@ -0,0 +1,43 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.util.ContactGenerator;
+import com.snebot.fbmoll.util.DummyUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic contact generation: reflective random objects (the previous
+ * /generate implementation) against the seeded contact generator, collected
+ * in a list or streamed one contact at a time.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContactGeneratorBenchmark {
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Benchmark
+    public List<Contact> dummyUtils() {
+        return new DummyUtils().generateObjects(Contact.class, this.size);
+    }
+
+    @Benchmark
+    public List<Contact> generateList() {
+        return new ContactGenerator(42).generate(this.size);
+    }
+
+    @Benchmark
+    public void generateStream(Blackhole blackhole) {
+        new ContactGenerator(42).generate((long) this.size, blackhole::consume);
+    }
+}
@@ -0,0 +1,106 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.ColumnarContactStore;
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap footprint and search times of the heap contact book against the columnar store.
+ * The footprint benchmark reports the retained heap and direct memory of a freshly
+ * built book as the {@code heapBytes} and {@code offHeapBytes} secondary results.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+public class ContactStoreBenchmark {
+    public enum Storage {HEAP, COLUMNAR}
+
+    @Param({"HEAP", "COLUMNAR"})
+    public Storage storage;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private ContactBook book;
+    private ColumnarContactStore store;
+    private String uuid;
+    private String email;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long heapBytes;
+        public long offHeapBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Object built = build();
+        if (built instanceof ContactBook) {
+            this.book = (ContactBook) built;
+            this.book.findByUUID("");
+        } else {
+            this.store = (ColumnarContactStore) built;
+        }
+        Contact contact = BenchmarkData.contact(this.size / 2);
+        this.uuid = find(null, contact.getEmail()).get(0).getUUID();
+        this.email = contact.getEmail();
+    }
+
+    @Benchmark
+    public Contact findByUUID() {
+        return this.book != null ? this.book.findByUUID(this.uuid) : this.store.findByUUID(this.uuid);
+    }
+
+    @Benchmark
+    public List<Contact> findByEmail() {
+        return find(null, this.email);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 3)
+    @Warmup(iterations = 1)
+    public Object footprint(Footprint footprint) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        Object built = build();
+        System.gc();
+        footprint.heapBytes = memory.getHeapMemoryUsage().getUsed() - before;
+        footprint.offHeapBytes = built instanceof ColumnarContactStore ? ((ColumnarContactStore) built).getOffHeapBytes() : 0;
+        return built;
+    }
+
+    private List<Contact> find(String uuid, String email) {
+        return this.book != null ? this.book.getContacts(uuid, null, null, email, null, null)
+                : this.store.getContacts(uuid, null, null, email, null, null);
+    }
+
+    /**
+     * Builds the book from generated data so the heap variant owns every contact it holds.
+     */
+    private Object build() {
+        if (this.storage == Storage.HEAP) {
+            ContactBook book = new ContactBook();
+            book.setName("benchmark");
+            for (int i = 0; i < this.size; i++) book.addContact(BenchmarkData.contact(i));
+            return book;
+        }
+        ColumnarContactStore store = new ColumnarContactStore();
+        store.setName("benchmark");
+        for (int i = 0; i < this.size; i++) store.addContact(BenchmarkData.contact(i));
+        return store;
+    }
+}
@@ -0,0 +1,73 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.util.DummyUtils;
+import com.snebot.fbmoll.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cached JAXB contexts and marshallers against creating them on every call.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileUtilsBenchmark {
+    private final FileUtils fileUtils = FileUtils.getInstance();
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private ContactBook book;
+    private String path;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        List<Contact> contacts = new DummyUtils().generateObjects(Contact.class, this.size);
+        this.book = new ContactBook("benchmark", contacts);
+        File file = File.createTempFile("contacts", ".xml");
+        file.deleteOnExit();
+        this.path = file.getAbsolutePath();
+        this.fileUtils.marshalContent(this.book, this.path);
+    }
+
+    @Benchmark
+    public File marshalCached() {
+        return this.fileUtils.marshalContent(this.book, this.path);
+    }
+
+    @Benchmark
+    public File marshalUncached() throws Exception {
+        JAXBContext context = JAXBContext.newInstance(ContactBook.class);
+        Marshaller marshaller = context.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        File file = new File(this.path);
+        marshaller.marshal(this.book, file);
+        return file;
+    }
+
+    @Benchmark
+    public ContactBook unmarshalCached() {
+        return this.fileUtils.unmarshalContent(this.path, ContactBook.class);
+    }
+
+    @Benchmark
+    public Object unmarshalUncached() throws Exception {
+        JAXBContext context = JAXBContext.newInstance(ContactBook.class);
+        Unmarshaller unmarshaller = context.createUnmarshaller();
+        return unmarshaller.unmarshal(new File(this.path));
+    }
+}
@@ -0,0 +1,87 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.data.ContactIdGenerator;
+import com.snebot.fbmoll.data.QueryCache;
+import com.snebot.fbmoll.data.ShardedContactBook;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent writers and scans on a contact book with growing amounts of shards.
+ * One shard is the unsharded {@link com.snebot.fbmoll.data.ConcurrentContactBook}.
+ * Searches go through the query cache: random scans mostly miss it, while a
+ * few repeated queries, like dashboards send, are served from it.
+ * Run with {@code -t} to change the amount of writer threads.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Threads(4)
+public class ShardedContactBookBenchmark {
+    private static final int REPEATED_QUERIES = 16;
+
+    @Param({"1", "4", "16"})
+    public int shards;
+
+    @Param({"100000"})
+    public int size;
+
+    private List<Contact> contacts;
+    private ForkJoinPool pool;
+    private ShardedContactBook book;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.contacts = BenchmarkData.contacts(this.size);
+        this.contacts.forEach(contact -> contact.setUUID(ContactIdGenerator.next()));
+        this.pool = new ForkJoinPool(Math.min(this.shards, Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Setup(Level.Iteration)
+    public void buildBook() {
+        ContactBook book = new ContactBook();
+        this.contacts.forEach(book::restoreContact);
+        this.book = new ShardedContactBook("benchmark", this.shards, Collections.singletonList(book), this.pool);
+        this.book.setQueryCache(new QueryCache(1024, 100000));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.pool.shutdown();
+    }
+
+    private Contact existing() {
+        return this.contacts.get(ThreadLocalRandom.current().nextInt(this.size));
+    }
+
+    @Benchmark
+    public Contact updateContact() {
+        Contact contact = existing();
+        Contact data = new Contact();
+        data.setName(contact.getName());
+        return this.book.updateContact(contact.getUUID(), data);
+    }
+
+    @Benchmark
+    public List<Contact> getContactsScan() {
+        return this.book.getContacts(null, null, null, null, existing().getAddress(), null);
+    }
+
+    @Benchmark
+    public List<Contact> getContactsRepeated() {
+        Contact contact = this.contacts.get(ThreadLocalRandom.current().nextInt(REPEATED_QUERIES));
+        return this.book.getContacts(null, null, null, null, contact.getAddress(), null);
+    }
+}
@@ -0,0 +1,57 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.persistence.SnapshotCodec;
+import com.snebot.fbmoll.persistence.SnapshotFormat;
+import com.snebot.fbmoll.util.DummyUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full save and startup load times of every snapshot format.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotCodecBenchmark {
+    @Param({"JAXB", "STAX", "BINARY"})
+    public SnapshotFormat format;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private SnapshotCodec codec;
+    private ContactBook book;
+    private String path;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        List<Contact> contacts = new DummyUtils().generateObjects(Contact.class, this.size);
+        this.book = new ContactBook("benchmark", contacts);
+        this.codec = this.format.getCodec();
+        File file = File.createTempFile("contacts", this.format.getExtension());
+        file.deleteOnExit();
+        this.path = file.getAbsolutePath();
+        this.codec.save(this.book, this.path);
+    }
+
+    @Benchmark
+    public boolean save() {
+        return this.codec.save(this.book, this.path);
+    }
+
+    @Benchmark
+    public ContactBook load() throws IOException {
+        return this.codec.load(this.path);
+    }
+}
@@ -0,0 +1,70 @@
+package com.snebot.fbmoll.benchmark;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.helper.ContactRuleSet;
+import com.snebot.fbmoll.helper.ContactValidator;
+import com.snebot.fbmoll.helper.ValidationError;
+import com.snebot.fbmoll.util.DummyUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Email and phone validation: pattern compiled per call (the previous
+ * implementation), precompiled pattern and the hand-written scanners.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidatorBenchmark {
+    private static final String EMAIL_REGEX = "^[\\w-.]+@([\\w-]+\\.)+[\\w-]{2,4}$";
+    private static final String PHONE_REGEX = "^\\d{9}$";
+    private static final Pattern EMAIL_PATTERN = Pattern.compile(EMAIL_REGEX, Pattern.CASE_INSENSITIVE);
+    private static final Pattern PHONE_PATTERN = Pattern.compile(PHONE_REGEX, Pattern.CASE_INSENSITIVE);
+
+    private final String email = "serafi.nebot@cifpfbmoll.eu";
+    private final String phone = "971123456";
+    private final ContactRuleSet rules = ContactRuleSet.defaults();
+    private List<Contact> contacts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.contacts = new DummyUtils().generateObjects(Contact.class, 1000);
+        for (int i = 0; i < this.contacts.size(); i++) {
+            this.contacts.get(i).setEmail(String.format("user%d@mail.com", i));
+            this.contacts.get(i).setPhone(String.format("6%08d", i));
+        }
+    }
+
+    @Benchmark
+    public void compiledPerCall(Blackhole blackhole) {
+        blackhole.consume(Pattern.compile(EMAIL_REGEX, Pattern.CASE_INSENSITIVE).matcher(this.email).matches());
+        blackhole.consume(Pattern.compile(PHONE_REGEX, Pattern.CASE_INSENSITIVE).matcher(this.phone).matches());
+    }
+
+    @Benchmark
+    public void precompiled(Blackhole blackhole) {
+        blackhole.consume(EMAIL_PATTERN.matcher(this.email).matches());
+        blackhole.consume(PHONE_PATTERN.matcher(this.phone).matches());
+    }
+
+    @Benchmark
+    public void scanner(Blackhole blackhole) {
+        blackhole.consume(ContactValidator.validateEmail(this.email));
+        blackhole.consume(ContactValidator.validatePhone(this.phone));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    public List<ValidationError> ruleSetBatch() {
+        return this.rules.validateAll(this.contacts);
+    }
+}
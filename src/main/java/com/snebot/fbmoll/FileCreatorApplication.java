@@ -1,9 +1,12 @@
 package com.snebot.fbmoll;
 
+import com.snebot.fbmoll.service.ContactBookProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
 @SpringBootApplication
+@EnableConfigurationProperties(ContactBookProperties.class)
 public class FileCreatorApplication {
     public static void main(String[] args) {
         SpringApplication.run(FileCreatorApplication.class, args);
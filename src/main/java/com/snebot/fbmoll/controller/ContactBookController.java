@@ -1,52 +1,133 @@
 package com.snebot.fbmoll.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 import com.snebot.fbmoll.data.Contact;
-import com.snebot.fbmoll.data.ContactBook;
-import com.snebot.fbmoll.util.DummyUtils;
-import com.snebot.fbmoll.util.FileUtils;
+import com.snebot.fbmoll.data.ContactSource;
+import com.snebot.fbmoll.data.DuplicateGroup;
+import com.snebot.fbmoll.data.DuplicateKey;
+import com.snebot.fbmoll.service.ChangeEvent;
+import com.snebot.fbmoll.service.ChangePage;
+import com.snebot.fbmoll.service.ContactBookService;
+import com.snebot.fbmoll.service.ContactBookUnavailableException;
+import com.snebot.fbmoll.service.ContactChangeFeed;
+import com.snebot.fbmoll.service.MergeResult;
+import com.snebot.fbmoll.util.ContactGenerator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
 
 @RestController
 public class ContactBookController {
     private final Logger log = LoggerFactory.getLogger(getClass());
-    private static final String FILE_NAME = "contacts.xml";
-    private static final FileUtils fileUtils = FileUtils.getInstance();
-    private static final String FILE_PATH = fileUtils.getUserFile(FILE_NAME);
-    private final ContactBook book = fileUtils.unmarshalContent(FILE_PATH, ContactBook.class);
+    private static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int DEFAULT_SEARCH_SIZE = 10;
+    private static final int MAX_SEARCH_SIZE = 100;
+    private static final String RETRY_AFTER_SECONDS = "5";
+    private static final String SEED_HEADER = "X-Generator-Seed";
+    private static final int DEFAULT_CHANGES_SIZE = 100;
+    private static final int MAX_CHANGES_SIZE = 1000;
+    private static final long MAX_CHANGES_WAIT_MS = 25000;
+    private static final long STREAM_TIMEOUT_MS = 30 * 60 * 1000;
+    private static final int DEFAULT_DUPLICATES_SIZE = 100;
+    private static final int MAX_DUPLICATES_SIZE = 10000;
+    private final ContactBookService service;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry registry;
 
-    /**
-     * Save contact book data to XML file.
-     */
-    private void saveContactBook() {
-        fileUtils.marshalContent(this.book, FILE_PATH);
+    public ContactBookController(ContactBookService service, ObjectMapper objectMapper, MeterRegistry registry) {
+        this.service = service;
+        this.objectMapper = objectMapper;
+        this.registry = registry;
     }
 
     /**
-     * Generate contact book with a name and n amount of contacts.
+     * Generate contact book with a name and n amount of contacts, written as they are generated.
      * For testing purposes only.
      *
      * @param name  Contact book name.
      * @param count Amount of contacts.
-     * @return Generated contact book.
+     * @param seed  Generator seed, the same seed generates the same contacts. Random if missing.
+     * @return Streamed contact book, with the seed in the {@value #SEED_HEADER} header.
      */
     @RequestMapping(value = "/generate/{name}/{q}", method = {RequestMethod.GET}, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> test(@PathVariable(name = "name") String name,
-                                       @PathVariable(name = "q") Integer count) {
-        try {
-            DummyUtils dummyUtils = new DummyUtils();
-            List<Contact> contactList = dummyUtils.generateObjects(Contact.class, count);
-            return new ResponseEntity<>(new ContactBook(name, contactList), HttpStatus.OK);
-        } catch (Exception e) {
-            return new ResponseEntity<>(null, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+    public ResponseEntity<StreamingResponseBody> test(@PathVariable(name = "name") String name,
+                                                      @PathVariable(name = "q") Long count,
+                                                      @RequestParam(value = "seed", required = false) Long seed) {
+        if (count < 0) return ResponseEntity.badRequest().build();
+        ContactGenerator generator = new ContactGenerator(seed != null ? seed : ThreadLocalRandom.current().nextLong());
+        StreamingResponseBody body = out -> {
+            JsonGenerator json = this.objectMapper.getFactory().createGenerator(out);
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            json.writeStartObject();
+            json.writeStringField("name", name);
+            json.writeArrayFieldStart("contacts");
+            try {
+                generator.generate(count, contact -> write(json, contact));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            json.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(SEED_HEADER, String.valueOf(generator.getSeed()))
+                .body(body);
+    }
+
+    /**
+     * Generate n amount of contacts as newline delimited JSON, accepted by the bulk import.
+     * For testing purposes only.
+     *
+     * @param count Amount of contacts.
+     * @param seed  Generator seed, the same seed generates the same contacts. Random if missing.
+     * @return Streamed contacts, with the seed in the {@value #SEED_HEADER} header.
+     */
+    @RequestMapping(value = "/generate/{name}/{q}", params = "stream=true", method = {RequestMethod.GET})
+    public ResponseEntity<StreamingResponseBody> generateStream(@PathVariable(name = "q") Long count,
+                                                                @RequestParam(value = "seed", required = false) Long seed) {
+        if (count < 0) return ResponseEntity.badRequest().build();
+        ContactGenerator generator = new ContactGenerator(seed != null ? seed : ThreadLocalRandom.current().nextLong());
+        StreamingResponseBody body = out -> {
+            JsonGenerator json = this.objectMapper.getFactory().createGenerator(out);
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            json.setRootValueSeparator(null);
+            try {
+                generator.generate(count, contact -> writeLine(json, contact));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            json.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(APPLICATION_NDJSON)
+                .header(SEED_HEADER, String.valueOf(generator.getSeed()))
+                .body(body);
     }
 
     /**
@@ -55,6 +136,10 @@ public class ContactBookController {
      * - POST: Create a new contact.
      * - PUT: Update contact data.
      * - DELETE: Remove contacts matching parameters.
+     * Reads are served from the published snapshot, with an entity tag: reads with
+     * a matching If-None-Match header get 304 Not Modified without any search.
+     * Changes are queued for the contact book writer and answered once applied,
+     * without holding the request thread.
      *
      * @param uuid      Unique identifier.
      * @param name     Contact name.
@@ -62,63 +147,412 @@ public class ContactBookController {
      * @param email    Contact email.
      * @param address  Contact address.
      * @param phone    Contact phone.
+     * @param limit    Page size, enables pagination.
+     * @param cursor   Cursor of the next page, enables pagination.
+     * @param durable  Wait until the change is on disk before responding.
      * @param contact  Contact data.
      * @param request  Request method.
-     * @return ResponseEntity
+     * @return ResponseEntity, completed once the change is applied.
      */
     @RequestMapping(value = "/contacts",
             method = {RequestMethod.GET, RequestMethod.POST, RequestMethod.PUT, RequestMethod.DELETE},
             produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> contacts(@RequestParam(value = "uuid", required = false) String uuid,
-                                           @RequestParam(value = "name", required = false) String name,
-                                           @RequestParam(value = "lastName", required = false) String lastName,
-                                           @RequestParam(value = "email", required = false) String email,
-                                           @RequestParam(value = "address", required = false) String address,
-                                           @RequestParam(value = "phone", required = false) String phone,
-                                           @RequestBody(required = false) Contact contact,
-                                           HttpServletRequest request) {
+    public CompletableFuture<ResponseEntity<Object>> contacts(@RequestParam(value = "uuid", required = false) String uuid,
+                                                              @RequestParam(value = "name", required = false) String name,
+                                                              @RequestParam(value = "lastName", required = false) String lastName,
+                                                              @RequestParam(value = "email", required = false) String email,
+                                                              @RequestParam(value = "address", required = false) String address,
+                                                              @RequestParam(value = "phone", required = false) String phone,
+                                                              @RequestParam(value = "limit", required = false) Integer limit,
+                                                              @RequestParam(value = "cursor", required = false) String cursor,
+                                                              @RequestParam(value = "durable", defaultValue = "false") boolean durable,
+                                                              @RequestBody(required = false) Contact contact,
+                                                              HttpServletRequest request) {
+        Timer.Sample sample = Timer.start(this.registry);
+        String method = request.getMethod();
+        HttpHeaders headers = new HttpHeaders();
+        CompletableFuture<?> result;
         try {
-            Object result = null;
-            HttpStatus status = HttpStatus.OK;
-
-            switch (RequestMethod.valueOf(request.getMethod())) {
+            switch (RequestMethod.valueOf(method)) {
                 case GET:
-                    result = this.book.getContacts(uuid, name, lastName, email, address, phone);
-                    break;
-                case POST:
-                    if (contact != null) {
-                        this.book.addContact(contact);
-                        saveContactBook();
-                        result = contact;
+                    String etag = this.service.getETag();
+                    if (etag != null) {
+                        headers.setETag(etag);
+                        if (notModified(request, etag)) {
+                            stopTimer(sample, method, HttpStatus.NOT_MODIFIED);
+                            return completed(new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED));
+                        }
+                    }
+                    if (limit != null || cursor != null) {
+                        int size = limit != null ? limit : DEFAULT_PAGE_SIZE;
+                        result = completed(this.service.getPage(uuid, name, lastName, email, address, phone, cursor, size));
                     } else {
-                        log.warn("missing request body");
-                        status = HttpStatus.BAD_REQUEST;
+                        result = completed(this.service.getContacts(uuid, name, lastName, email, address, phone));
                     }
                     break;
+                case POST:
+                    if (contact == null) return missingBody(sample, method);
+                    result = this.service.addContactAsync(contact, durable);
+                    break;
                 case PUT:
-                    if (contact != null && uuid != null) {
-                        Contact updatedContact = this.book.updateContact(uuid, contact);
-                        saveContactBook();
-                        result = updatedContact;
-                    } else {
-                        log.warn("missing request body");
-                        status = HttpStatus.BAD_REQUEST;
-                    }
+                    if (contact == null || uuid == null) return missingBody(sample, method);
+                    result = this.service.updateContactAsync(uuid, contact, durable);
                     break;
                 case DELETE:
-                    List<Contact> removed = this.book.removeContact(uuid, name, lastName, email, address, phone);
-                    saveContactBook();
-                    result = removed;
+                    result = this.service.removeContactAsync(uuid, name, lastName, email, address, phone, durable);
                     break;
                 default:
                     log.warn("received unexpected request method");
+                    result = completed(null);
                     break;
             }
+        } catch (Exception e) {
+            result = failed(e);
+        }
+
+        return result.handle((value, error) -> {
+            ResponseEntity<Object> response = error == null ? new ResponseEntity<>(value, headers, HttpStatus.OK) : failure(error);
+            stopTimer(sample, method, response.getStatusCode());
+            return response;
+        });
+    }
+
+    /**
+     * Returns true if an If-None-Match header of the request matches the entity tag, weakly.
+     */
+    private static boolean notModified(HttpServletRequest request, String etag) {
+        Enumeration<String> values = request.getHeaders(HttpHeaders.IF_NONE_MATCH);
+        while (values != null && values.hasMoreElements()) {
+            for (String candidate : values.nextElement().split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(etag)) return true;
+            }
+        }
+        return false;
+    }
+
+    private CompletableFuture<ResponseEntity<Object>> missingBody(Timer.Sample sample, String method) {
+        log.warn("missing request body");
+        stopTimer(sample, method, HttpStatus.BAD_REQUEST);
+        return completed(new ResponseEntity<>(null, HttpStatus.BAD_REQUEST));
+    }
 
-            return new ResponseEntity<>(result, status);
+    private ResponseEntity<Object> failure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof ContactBookUnavailableException) return unavailable((ContactBookUnavailableException) cause);
+        log.error("failed to handle request ", cause);
+        return new ResponseEntity<>(null, HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    private void stopTimer(Timer.Sample sample, String method, HttpStatus status) {
+        sample.stop(Timer.builder("contacts.requests")
+                .description("Latency of /contacts requests")
+                .tag("method", method)
+                .tag("status", String.valueOf(status.value()))
+                .publishPercentileHistogram()
+                .register(this.registry));
+    }
+
+    private static <T> CompletableFuture<T> completed(T value) {
+        return CompletableFuture.completedFuture(value);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Contacts changed and removed since the previous sync, to keep a copy of the book.
+     * The first sync, and syncs that cannot be answered incrementally, return every contact.
+     *
+     * @param token Token returned by the previous sync, missing for the first sync.
+     * @return Changes with the token of the next sync.
+     */
+    @RequestMapping(value = "/contacts/sync", method = {RequestMethod.GET}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> sync(@RequestParam(value = "token", required = false) String token) {
+        try {
+            return new ResponseEntity<>(this.service.sync(token), HttpStatus.OK);
+        } catch (ContactBookUnavailableException e) {
+            return unavailable(e);
+        } catch (Exception e) {
+            log.error("failed to sync contacts ", e);
+            return new ResponseEntity<>(null, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Type-ahead search by name, last name and email, e.g. "/contacts/search?q=sm".
+     *
+     * @param query Search text, every word has to match a word prefix, a substring or a similar word.
+     * @param limit Maximum amount of results.
+     * @return Best matching contacts, best first.
+     */
+    @RequestMapping(value = "/contacts/search", method = {RequestMethod.GET}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> searchContacts(@RequestParam(value = "q") String query,
+                                                 @RequestParam(value = "limit", required = false) Integer limit) {
+        try {
+            int size = limit != null ? Math.max(1, Math.min(limit, MAX_SEARCH_SIZE)) : DEFAULT_SEARCH_SIZE;
+            return new ResponseEntity<>(this.service.search(query, size), HttpStatus.OK);
+        } catch (ContactBookUnavailableException e) {
+            return unavailable(e);
         } catch (Exception e) {
-            log.error("failed to get contact by name ", e);
+            log.error("failed to search contacts ", e);
             return new ResponseEntity<>(null, HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
+
+    /**
+     * Groups of duplicate contacts, found in a single pass over the contact book.
+     * Attributes are compared ignoring case, repeated whitespace and phone formatting.
+     *
+     * @param key   Attributes compared: CONTACT (all of them), EMAIL, PHONE or NAME (name and last name).
+     * @param limit Maximum amount of groups.
+     * @return Groups of duplicates, each with its lowest unique identifier first,
+     * which is the oldest contact when identifiers are time ordered.
+     */
+    @RequestMapping(value = "/contacts/duplicates", method = {RequestMethod.GET}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> duplicates(@RequestParam(value = "by", defaultValue = "CONTACT") DuplicateKey key,
+                                             @RequestParam(value = "limit", required = false) Integer limit) {
+        try {
+            int size = limit != null ? Math.max(1, Math.min(limit, MAX_DUPLICATES_SIZE)) : DEFAULT_DUPLICATES_SIZE;
+            List<DuplicateGroup> groups = this.service.findDuplicates(key);
+            return new ResponseEntity<>(groups.size() > size ? groups.subList(0, size) : groups, HttpStatus.OK);
+        } catch (ContactBookUnavailableException e) {
+            return unavailable(e);
+        } catch (Exception e) {
+            log.error("failed to find duplicate contacts ", e);
+            return new ResponseEntity<>(null, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Merge every group of duplicates into its first contact, which takes the
+     * attributes it lacks from the others, and remove the others.
+     *
+     * @param key     Attributes compared, see {@link #duplicates(DuplicateKey, Integer)}.
+     * @param durable Wait until the change is on disk before responding.
+     * @return Merged contacts and removed unique identifiers.
+     */
+    @RequestMapping(value = "/contacts/duplicates/merge", method = {RequestMethod.POST}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<Object>> mergeDuplicates(@RequestParam(value = "by", defaultValue = "CONTACT") DuplicateKey key,
+                                                                     @RequestParam(value = "durable", defaultValue = "false") boolean durable) {
+        CompletableFuture<?> result;
+        try {
+            result = this.service.mergeDuplicatesAsync(key, durable);
+        } catch (Exception e) {
+            result = failed(e);
+        }
+        return result.handle((value, error) -> error == null ? new ResponseEntity<>(value, HttpStatus.OK) : failure(error));
+    }
+
+    /**
+     * Merge contacts into the first one, which takes the attributes it lacks from the others, and remove the others.
+     *
+     * @param uuids   Unique identifiers as a JSON array, the first contact is kept.
+     * @param durable Wait until the change is on disk before responding.
+     * @return Merge result, 404 if fewer than two of the contacts exist.
+     */
+    @RequestMapping(value = "/contacts/merge", method = {RequestMethod.POST}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<Object>> mergeContacts(@RequestBody(required = false) List<String> uuids,
+                                                                   @RequestParam(value = "durable", defaultValue = "false") boolean durable) {
+        if (uuids == null || uuids.size() < 2) {
+            log.warn("merge needs at least two contacts");
+            return completed(new ResponseEntity<>(null, HttpStatus.BAD_REQUEST));
+        }
+        CompletableFuture<MergeResult> result;
+        try {
+            result = this.service.mergeContactsAsync(uuids, durable);
+        } catch (Exception e) {
+            result = failed(e);
+        }
+        return result.handle((value, error) -> {
+            if (error != null) return failure(error);
+            return new ResponseEntity<>(value, value.getMerged().isEmpty() ? HttpStatus.NOT_FOUND : HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Stream contacts that match with specified data as newline delimited JSON.
+     * Contacts are written one at a time as they are found, from a single snapshot.
+     *
+     * @param uuid     Unique identifier.
+     * @param name     Contact name.
+     * @param lastName Contact last name.
+     * @param email    Contact email.
+     * @param address  Contact address.
+     * @param phone    Contact phone.
+     * @return Streamed response.
+     */
+    @RequestMapping(value = "/contacts", params = "stream=true", method = {RequestMethod.GET})
+    public ResponseEntity<StreamingResponseBody> streamContacts(@RequestParam(value = "uuid", required = false) String uuid,
+                                                                @RequestParam(value = "name", required = false) String name,
+                                                                @RequestParam(value = "lastName", required = false) String lastName,
+                                                                @RequestParam(value = "email", required = false) String email,
+                                                                @RequestParam(value = "address", required = false) String address,
+                                                                @RequestParam(value = "phone", required = false) String phone) {
+        return ndjson(this.service.contacts(), uuid, name, lastName, email, address, phone);
+    }
+
+    /**
+     * Export every contact as newline delimited JSON, accepted back by the bulk import.
+     *
+     * @return Streamed response.
+     */
+    @RequestMapping(value = "/contacts/bulk", method = {RequestMethod.GET})
+    public ResponseEntity<StreamingResponseBody> exportContacts() {
+        return ndjson(this.service.contacts(), null, null, null, null, null, null);
+    }
+
+    /**
+     * Import contacts from a JSON array or newline delimited JSON, validating every item.
+     * The whole batch is added under a single lock and persisted with a single write.
+     * The body is read and validated on the request thread, the batch is then queued for the writer.
+     *
+     * @param durable Wait until the change is on disk before responding.
+     * @param request Request with the contacts as body.
+     * @return Import result with the errors of every rejected item.
+     */
+    @RequestMapping(value = "/contacts/bulk", method = {RequestMethod.POST}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<Object>> importContacts(@RequestParam(value = "durable", defaultValue = "false") boolean durable,
+                                                                    HttpServletRequest request) {
+        CompletableFuture<?> result;
+        try (MappingIterator<Map<String, Object>> items = this.objectMapper
+                .readerFor(new TypeReference<Map<String, Object>>() {
+                })
+                .readValues(request.getInputStream())) {
+            result = this.service.importContactsAsync(items, durable);
+        } catch (Exception e) {
+            if (e instanceof JsonProcessingException || e instanceof RuntimeJsonMappingException ||
+                    e.getCause() instanceof JsonProcessingException) {
+                log.warn("malformed bulk import body ", e);
+                return completed(new ResponseEntity<>(null, HttpStatus.BAD_REQUEST));
+            }
+            result = failed(e);
+        }
+        return result.handle((value, error) -> error == null ? new ResponseEntity<>(value, HttpStatus.OK) : failure(error));
+    }
+
+    /**
+     * Contact changes after a cursor, waiting for new ones if there are none yet.
+     * Clients poll again from the returned next cursor. If the changes after the
+     * cursor are no longer retained, or the cursor comes from a previous run, the
+     * response is 410 Gone: read every contact again and resume from the latest cursor.
+     *
+     * @param since Cursor of the last change read, 0 for every retained change.
+     * @param limit Maximum amount of changes.
+     * @param wait  Milliseconds to wait for new changes, capped to {@value #MAX_CHANGES_WAIT_MS}.
+     * @return Page of changes.
+     */
+    @RequestMapping(value = "/contacts/changes", method = {RequestMethod.GET}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<Object>> changes(@RequestParam(value = "since", defaultValue = "0") String cursor,
+                                                             @RequestParam(value = "limit", required = false) Integer limit,
+                                                             @RequestParam(value = "wait", defaultValue = "0") long wait) {
+        ContactChangeFeed feed = this.service.getChangeFeed();
+        long since = feed.sequenceOf(cursor);
+        int size = limit != null ? Math.max(1, Math.min(limit, MAX_CHANGES_SIZE)) : DEFAULT_CHANGES_SIZE;
+        return feed.await(since, Math.max(0, Math.min(wait, MAX_CHANGES_WAIT_MS))).thenApply(ignored -> {
+            ChangePage page = feed.since(since, size);
+            return new ResponseEntity<>(page, page.isReset() ? HttpStatus.GONE : HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Server-sent events with every contact change after a cursor, as they happen.
+     * Events are named after the change type, with their cursor as identifier, so
+     * reconnecting clients resume with the Last-Event-ID header. Clients that fall
+     * behind the retained changes, or resume from a previous run, get a "reset" event
+     * with the latest cursor and are disconnected.
+     *
+     * @param since       Cursor of the last change read, only new changes if missing.
+     * @param lastEventId Cursor of the last event read before reconnecting, takes precedence over since.
+     * @return Event stream.
+     */
+    @RequestMapping(value = "/contacts/changes", params = "stream=true", method = {RequestMethod.GET})
+    public SseEmitter streamChanges(@RequestParam(value = "since", required = false) String since,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        ContactChangeFeed feed = this.service.getChangeFeed();
+        long sequence = lastEventId != null ? feed.sequenceOf(lastEventId) : since != null ? feed.sequenceOf(since) : feed.getLatest();
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        ContactChangeFeed.Subscription subscription = feed.subscribe(sequence, new ContactChangeFeed.Subscriber() {
+            @Override
+            public void send(List<ChangeEvent> events) throws IOException {
+                // Serialized up front, events sent through the JSON converter stalled the stream after the first one.
+                for (ChangeEvent event : events) {
+                    emitter.send(SseEmitter.event()
+                            .id(event.getId())
+                            .name(event.getType().name().toLowerCase())
+                            .data(objectMapper.writeValueAsString(event)));
+                }
+            }
+
+            @Override
+            public void heartbeat() throws IOException {
+                emitter.send(SseEmitter.event().comment("heartbeat"));
+            }
+
+            @Override
+            public void reset(long latest) throws IOException {
+                emitter.send(SseEmitter.event().name("reset").data(feed.cursor(latest)));
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+
+    /**
+     * Requests that reach the contact book while it is loading, see {@link com.snebot.fbmoll.service.StartupPolicy}.
+     *
+     * @param e Unavailable contact book error.
+     * @return Service unavailable response, with a hint to retry later.
+     */
+    @ExceptionHandler(ContactBookUnavailableException.class)
+    public ResponseEntity<Object> unavailable(ContactBookUnavailableException e) {
+        log.warn(e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .build();
+    }
+
+    /**
+     * Writes the contacts matching the attributes one per line as they are found.
+     */
+    private ResponseEntity<StreamingResponseBody> ndjson(ContactSource contacts, String uuid, String name,
+                                                         String lastName, String email, String address, String phone) {
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = this.objectMapper.getFactory().createGenerator(out);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            try {
+                contacts.forEachContact(uuid, name, lastName, email, address, phone,
+                        contact -> writeLine(generator, contact));
+            } catch (UncheckedIOException e) {
+                log.warn("failed to stream contacts ", e);
+            }
+            generator.flush();
+        };
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+
+    private static void write(JsonGenerator generator, Contact contact) {
+        try {
+            generator.writeObject(contact);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeLine(JsonGenerator generator, Contact contact) {
+        try {
+            generator.writeObject(contact);
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
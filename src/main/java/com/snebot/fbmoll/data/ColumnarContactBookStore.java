@@ -0,0 +1,167 @@
+package com.snebot.fbmoll.data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Contacts kept off the heap in a {@link ColumnarContactStore}. The store is
+ * not thread safe, readers share a read lock and the writer takes the write lock
+ * for every mutation. Scans read a batch of rows at a time under the read lock,
+ * so writers wait for one batch at most, and pages only materialize the
+ * contacts they return. Snapshots materialize every contact, so they are only
+ * built on demand.
+ * Replaced and removed values are released by compacting the store under the
+ * write lock, once they take half of its direct memory. Compaction moves rows,
+ * so it waits until no scan is in progress.
+ *
+ * @author Serafi Nebot Ginard
+ */
+final class ColumnarContactBookStore implements ContactStore {
+    /**
+     * Garbage below this size is never compacted, so small stores are not rewritten over and over.
+     */
+    private static final long MIN_COMPACTED_GARBAGE = 1 << 20;
+    /**
+     * Rows read per read lock while scanning.
+     */
+    private static final int SCAN_ROWS = 4096;
+
+    private final ColumnarContactStore store;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger scans = new AtomicInteger();
+
+    ColumnarContactBookStore(ContactBook book) {
+        this.store = ColumnarContactStore.from(book);
+    }
+
+    @Override
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.store.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Contact findByUUID(String uid) {
+        this.lock.readLock().lock();
+        try {
+            return this.store.findByUUID(uid);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(Contact contact) {
+        this.lock.writeLock().lock();
+        try {
+            this.store.putContact(contact);
+            compactIfNeeded();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String uid) {
+        this.lock.writeLock().lock();
+        try {
+            this.store.removeContact(uid, null, null, null, null, null);
+            compactIfNeeded();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    long getGarbageBytes() {
+        this.lock.readLock().lock();
+        try {
+            return this.store.getGarbageBytes();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compact the store once garbage takes half of its direct memory, so compaction
+     * costs amortized constant time per mutation. Called under the write lock,
+     * skipped while a scan is in progress and retried on the next mutation.
+     */
+    private void compactIfNeeded() {
+        if (this.scans.get() > 0) return;
+        long garbage = this.store.getGarbageBytes();
+        if (garbage < MIN_COMPACTED_GARBAGE || garbage * 2 < this.store.getOffHeapBytes()) return;
+        this.store.compact();
+    }
+
+    /**
+     * Visit contacts matching the attributes a batch of rows at a time. Mutations
+     * between batches may be seen or not, a contact removed and added again may
+     * be visited twice.
+     */
+    @Override
+    public void forEachContact(String[] values, Consumer<Contact> action, QueryObserver observer) {
+        List<Contact> batch = new ArrayList<>();
+        int scanned = values[ContactField.UUID.ordinal()] != null ? 1 : size();
+        int returned = 0;
+        this.scans.incrementAndGet();
+        try {
+            for (int row = 0; row >= 0; ) {
+                this.lock.readLock().lock();
+                try {
+                    row = this.store.forEachContact(row, SCAN_ROWS, values[0], values[1], values[2], values[3], values[4],
+                            values[5], batch::add);
+                } finally {
+                    this.lock.readLock().unlock();
+                }
+                // The action runs without the lock, it may call back into the book.
+                batch.forEach(action);
+                returned += batch.size();
+                batch.clear();
+            }
+        } finally {
+            this.scans.decrementAndGet();
+        }
+        if (observer != null) observer.queryExecuted(ContactBook.queryShape(values), scanned, returned);
+    }
+
+    @Override
+    public List<Contact> page(String[] values, String after, int limit, QueryObserver observer) {
+        List<Contact> page;
+        int scanned;
+        this.lock.readLock().lock();
+        try {
+            scanned = values[ContactField.UUID.ordinal()] != null ? 1 : this.store.size();
+            page = this.store.getPage(values[0], values[1], values[2], values[3], values[4], values[5], after, limit);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        if (observer != null) observer.queryExecuted(ContactBook.queryShape(values), scanned, page.size());
+        return page;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    /**
+     * Returns a snapshot scanned a batch at a time: it contains every mutation up to
+     * the version and may contain later ones. A contact visited twice keeps its
+     * last row, the most recent one.
+     */
+    @Override
+    public ContactBookSnapshot snapshot(long version, String name, QueryObserver observer) {
+        Map<String, Contact> contacts = new LinkedHashMap<>();
+        forEachContact(new String[ContactField.values().length], contact -> contacts.put(contact.getUUID(), contact), null);
+        return new ContactBookSnapshot(version, name, new ArrayList<>(contacts.values()), observer);
+    }
+}
@@ -0,0 +1,519 @@
+package com.snebot.fbmoll.data;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Columnar contact storage kept outside the Java heap, meant for books with
+ * millions of contacts.
+ * Attribute values are encoded as length-prefixed UTF-8 in direct buffers and
+ * every column only holds the address of its values, so a stored contact costs
+ * a few primitive array slots instead of seven objects. Searches compare the
+ * encoded bytes and only matching contacts are materialized as {@link Contact}
+ * objects. Those objects are detached copies: changing them does not change
+ * the store, use {@link #updateContact(String, Contact)} instead.
+ * Replaced and removed values are left behind until {@link #compact()}.
+ * Like {@link ContactBook} this class is not thread safe.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ColumnarContactStore {
+    private static final ContactField[] FIELDS = ContactField.values();
+    private static final int UUID_COLUMN = ContactField.UUID.ordinal();
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long NULL = -1L;
+
+    private String name = null;
+    private List<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer chunk = null;
+    private final long[][] columns = new long[FIELDS.length][INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private BitSet removed = new BitSet();
+    private int rows = 0;
+    private int size = 0;
+    private long garbageBytes = 0;
+
+    /**
+     * Open addressing table from unique identifier to row, slots hold row + 1.
+     */
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+
+    public ColumnarContactStore() {
+    }
+
+    /**
+     * Copy a contact book into a new store.
+     *
+     * @param book Contact book.
+     * @return Store holding the same contacts in the same order.
+     */
+    public static ColumnarContactStore from(ContactBook book) {
+        ColumnarContactStore store = new ColumnarContactStore();
+        store.setName(book.getName());
+        book.getContacts().forEach(store::putContact);
+        return store;
+    }
+
+    /**
+     * Materialize every contact into a regular contact book, e.g. to persist it.
+     *
+     * @return Contact book.
+     */
+    public ContactBook toContactBook() {
+        ContactBook book = new ContactBook();
+        book.setName(this.name);
+        forEach(book::restoreContact);
+        return book;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the direct memory reserved for attribute values.
+     *
+     * @return Size in bytes.
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer buffer : this.chunks) bytes += buffer.capacity();
+        return bytes;
+    }
+
+    /**
+     * Returns the direct memory taken by replaced and removed values.
+     *
+     * @return Size in bytes.
+     */
+    public long getGarbageBytes() {
+        return this.garbageBytes;
+    }
+
+    /**
+     * Finds contact by its unique identifier.
+     *
+     * @param uid Unique identifier.
+     * @return Unique contact, null if not found.
+     */
+    public Contact findByUUID(String uid) {
+        int row = find(uid);
+        return row < 0 ? null : materialize(row);
+    }
+
+    /**
+     * Generates a unique identifier and makes sure it is not already in use.
+     *
+     * @return Unique identifier.
+     */
+    public String generateUUID() {
+        String uuid;
+        do {
+            uuid = ContactIdGenerator.next();
+        } while (find(uuid) >= 0);
+        return uuid;
+    }
+
+    /**
+     * Add contact with a new unique identifier.
+     *
+     * @param contact Contact to add, gets the new identifier.
+     * @return Added contact.
+     */
+    public Contact addContact(Contact contact) {
+        contact.setUUID(generateUUID());
+        append(contact);
+        return contact;
+    }
+
+    /**
+     * Add contact keeping its unique identifier. If a contact with the same
+     * identifier already exists its data is replaced instead.
+     *
+     * @param contact Contact to add.
+     * @return Added or replaced contact.
+     * @see ContactBook#putContact(Contact)
+     */
+    public Contact putContact(Contact contact) {
+        int row = find(contact.getUUID());
+        if (row < 0) {
+            if (contact.getUUID() == null) contact.setUUID(generateUUID());
+            append(contact);
+            return contact;
+        }
+        for (ContactField field : FIELDS) {
+            if (field != ContactField.UUID) store(field, row, field.get(contact));
+        }
+        return materialize(row);
+    }
+
+    /**
+     * Update contact with new data.
+     *
+     * @param uid     Unique identifier.
+     * @param contact New contact data.
+     * @return Changed contact data, null if not found.
+     * @see Contact#copy(Contact)
+     */
+    public Contact updateContact(String uid, Contact contact) {
+        int row = find(uid);
+        if (row < 0) return null;
+        Contact updated = materialize(row);
+        updated.copy(contact);
+        for (ContactField field : FIELDS) {
+            if (field != ContactField.UUID) store(field, row, field.get(updated));
+        }
+        return updated;
+    }
+
+    /**
+     * Remove contacts matching the attributes.
+     *
+     * @return List of removed contacts.
+     * @see ContactBook#removeContact(String, String, String, String, String, String)
+     */
+    public List<Contact> removeContact(String uid, String name, String lastName, String email, String address, String phone) {
+        List<Contact> contacts = new ArrayList<>();
+        byte[][] query = encodeQuery(uid, name, lastName, email, address, phone);
+        int first = uid != null ? find(uid) : 0;
+        int end = uid != null ? first + 1 : this.rows;
+        for (int row = Math.max(0, first); first >= 0 && row < end; row++) {
+            if (this.removed.get(row) || !matches(row, query)) continue;
+            contacts.add(materialize(row));
+            delete(row);
+        }
+        return contacts;
+    }
+
+    /**
+     * Search contact by attributes.
+     *
+     * @return List of matching contacts.
+     * @see ContactBook#getContacts(String, String, String, String, String, String)
+     */
+    public List<Contact> getContacts(String uid, String name, String lastName, String email, String address, String phone) {
+        List<Contact> contacts = new ArrayList<>();
+        forEachContact(uid, name, lastName, email, address, phone, contacts::add);
+        return contacts;
+    }
+
+    /**
+     * Visit contacts matching the attributes. Only matching contacts are materialized.
+     *
+     * @param action Action run for every matching contact.
+     * @see ContactBook#forEachContact(String, String, String, String, String, String, Consumer)
+     */
+    public void forEachContact(String uid, String name, String lastName, String email, String address, String phone,
+                               Consumer<Contact> action) {
+        forEachContact(0, Integer.MAX_VALUE, uid, name, lastName, email, address, phone, action);
+    }
+
+    /**
+     * Visit the contacts matching the attributes in a range of rows, to scan the store
+     * a part at a time. Rows keep their position until {@link #compact()} and new
+     * contacts are appended after the last row.
+     *
+     * @param from   First row to visit.
+     * @param rows   Amount of rows to visit.
+     * @param action Action run for every matching contact.
+     * @return Row to continue from, -1 once every row was visited.
+     */
+    public int forEachContact(int from, int rows, String uid, String name, String lastName, String email, String address,
+                              String phone, Consumer<Contact> action) {
+        byte[][] query = encodeQuery(uid, name, lastName, email, address, phone);
+        if (uid != null) {
+            int row = find(uid);
+            if (from == 0 && row >= 0 && matches(row, query)) action.accept(materialize(row));
+            return -1;
+        }
+        int end = rows >= this.rows - from ? this.rows : from + rows;
+        for (int row = from; row < end; row++) {
+            if (!this.removed.get(row) && matches(row, query)) action.accept(materialize(row));
+        }
+        return end < this.rows ? end : -1;
+    }
+
+    /**
+     * Returns contacts matching the attributes in unique identifier order, starting
+     * after a unique identifier. Every row is scanned but only the rows of the page
+     * are kept, compared by their encoded identifiers, so only the returned contacts
+     * are materialized.
+     *
+     * @param after Exclusive lower bound, null to start with the first contact.
+     * @param limit Maximum amount of contacts.
+     * @return Matching contacts.
+     * @see ContactTable#page(String[], String, int, QueryObserver)
+     */
+    public List<Contact> getPage(String uid, String name, String lastName, String email, String address, String phone,
+                                 String after, int limit) {
+        byte[][] query = encodeQuery(uid, name, lastName, email, address, phone);
+        byte[] bound = after != null ? after.getBytes(StandardCharsets.UTF_8) : null;
+        // Greatest identifier first, so the head is the row to drop once the page is full.
+        PriorityQueue<Integer> page = new PriorityQueue<>(Math.max(1, Math.min(limit, this.size)),
+                (left, right) -> compareIdentifiers(right, left));
+        int first = uid != null ? find(uid) : 0;
+        int end = uid != null ? first + 1 : this.rows;
+        for (int row = Math.max(0, first); first >= 0 && row < end && limit > 0; row++) {
+            if (this.removed.get(row) || !matches(row, query)) continue;
+            if (bound != null && compare(this.columns[UUID_COLUMN][row], bound) <= 0) continue;
+            if (page.size() < limit) {
+                page.add(row);
+            } else if (compareIdentifiers(row, page.peek()) < 0) {
+                page.poll();
+                page.add(row);
+            }
+        }
+        List<Integer> rows = new ArrayList<>(page);
+        rows.sort(this::compareIdentifiers);
+        List<Contact> contacts = new ArrayList<>(rows.size());
+        for (int row : rows) contacts.add(materialize(row));
+        return contacts;
+    }
+
+    /**
+     * Visit every contact in insertion order.
+     *
+     * @param action Action run for every contact.
+     */
+    public void forEach(Consumer<Contact> action) {
+        for (int row = 0; row < this.rows; row++) {
+            if (!this.removed.get(row)) action.accept(materialize(row));
+        }
+    }
+
+    /**
+     * Rewrite live contacts into fresh buffers, releasing the space taken by
+     * replaced and removed values.
+     */
+    public void compact() {
+        List<ByteBuffer> previous = this.chunks;
+        long[][] columns = new long[FIELDS.length][];
+        for (int i = 0; i < FIELDS.length; i++) columns[i] = this.columns[i];
+        int[] hashes = this.hashes;
+        BitSet removed = this.removed;
+        int rows = this.rows;
+
+        this.chunks = new ArrayList<>();
+        this.chunk = null;
+        this.removed = new BitSet();
+        this.rows = 0;
+        this.size = 0;
+        this.garbageBytes = 0;
+        int capacity = Math.max(INITIAL_CAPACITY, rows - removed.cardinality());
+        for (int i = 0; i < FIELDS.length; i++) this.columns[i] = new long[capacity];
+        this.hashes = new int[capacity];
+        this.table = new int[tableSize(capacity)];
+
+        for (int row = 0; row < rows; row++) {
+            if (removed.get(row)) continue;
+            int target = this.rows++;
+            for (int i = 0; i < FIELDS.length; i++) this.columns[i][target] = write(read(previous, columns[i][row]));
+            this.hashes[target] = hashes[row];
+            insert(target);
+            this.size++;
+        }
+    }
+
+    private void append(Contact contact) {
+        if (this.rows == this.hashes.length) grow();
+        int row = this.rows++;
+        for (ContactField field : FIELDS) this.columns[field.ordinal()][row] = write(field.get(contact));
+        this.hashes[row] = contact.getUUID().hashCode();
+        this.size++;
+        if (this.size * 2 > this.table.length) rehash();
+        else insert(row);
+    }
+
+    private void store(ContactField field, int row, String value) {
+        long[] column = this.columns[field.ordinal()];
+        String current = read(this.chunks, column[row]);
+        if (current == null ? value == null : current.equals(value)) return;
+        this.garbageBytes += length(column[row]);
+        column[row] = write(value);
+    }
+
+    private void delete(int row) {
+        unlink(row);
+        this.removed.set(row);
+        this.size--;
+        for (long[] column : this.columns) {
+            this.garbageBytes += length(column[row]);
+            column[row] = NULL;
+        }
+    }
+
+    private Contact materialize(int row) {
+        Contact contact = new Contact();
+        for (ContactField field : FIELDS) field.restore(contact, read(this.chunks, this.columns[field.ordinal()][row]));
+        return contact;
+    }
+
+    private static byte[][] encodeQuery(String... values) {
+        byte[][] query = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) query[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return query;
+    }
+
+    private boolean matches(int row, byte[][] query) {
+        for (int i = 0; i < query.length; i++) {
+            if (query[i] != null && !equals(this.columns[i][row], query[i])) return false;
+        }
+        return true;
+    }
+
+    // Direct memory
+
+    private long write(String value) {
+        if (value == null) return NULL;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = 4 + bytes.length;
+        if (this.chunk == null || this.chunk.remaining() < length) {
+            this.chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length));
+            this.chunks.add(this.chunk);
+        }
+        long address = ((long) (this.chunks.size() - 1) << 32) | this.chunk.position();
+        this.chunk.putInt(bytes.length);
+        this.chunk.put(bytes);
+        return address;
+    }
+
+    private static String read(List<ByteBuffer> chunks, long address) {
+        if (address == NULL) return null;
+        ByteBuffer view = chunks.get((int) (address >>> 32)).duplicate();
+        int offset = (int) address;
+        byte[] bytes = new byte[view.getInt(offset)];
+        ((Buffer) view).position(offset + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int length(long address) {
+        if (address == NULL) return 0;
+        return 4 + this.chunks.get((int) (address >>> 32)).getInt((int) address);
+    }
+
+    private boolean equals(long address, byte[] bytes) {
+        if (address == NULL) return false;
+        ByteBuffer buffer = this.chunks.get((int) (address >>> 32));
+        int offset = (int) address;
+        if (buffer.getInt(offset) != bytes.length) return false;
+        offset += 4;
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares encoded values byte by byte, unsigned. For UTF-8 this is code point
+     * order, the same as {@link String#compareTo(String)} for identifiers.
+     */
+    private int compare(long address, byte[] bytes) {
+        ByteBuffer buffer = this.chunks.get((int) (address >>> 32));
+        int offset = (int) address;
+        int length = buffer.getInt(offset);
+        offset += 4;
+        for (int i = 0; i < Math.min(length, bytes.length); i++) {
+            int difference = (buffer.get(offset + i) & 0xFF) - (bytes[i] & 0xFF);
+            if (difference != 0) return difference;
+        }
+        return length - bytes.length;
+    }
+
+    private int compareIdentifiers(int left, int right) {
+        long leftAddress = this.columns[UUID_COLUMN][left];
+        long rightAddress = this.columns[UUID_COLUMN][right];
+        ByteBuffer leftBuffer = this.chunks.get((int) (leftAddress >>> 32));
+        ByteBuffer rightBuffer = this.chunks.get((int) (rightAddress >>> 32));
+        int leftOffset = (int) leftAddress;
+        int rightOffset = (int) rightAddress;
+        int leftLength = leftBuffer.getInt(leftOffset);
+        int rightLength = rightBuffer.getInt(rightOffset);
+        for (int i = 0; i < Math.min(leftLength, rightLength); i++) {
+            int difference = (leftBuffer.get(leftOffset + 4 + i) & 0xFF) - (rightBuffer.get(rightOffset + 4 + i) & 0xFF);
+            if (difference != 0) return difference;
+        }
+        return leftLength - rightLength;
+    }
+
+    // Unique identifier table, linear probing with backward shift deletion
+
+    private int find(String uid) {
+        if (uid == null) return -1;
+        int hash = uid.hashCode();
+        byte[] bytes = null;
+        int mask = this.table.length - 1;
+        for (int slot = slot(hash, mask); this.table[slot] != 0; slot = (slot + 1) & mask) {
+            int row = this.table[slot] - 1;
+            if (this.hashes[row] != hash) continue;
+            if (bytes == null) bytes = uid.getBytes(StandardCharsets.UTF_8);
+            if (equals(this.columns[UUID_COLUMN][row], bytes)) return row;
+        }
+        return -1;
+    }
+
+    private void insert(int row) {
+        int mask = this.table.length - 1;
+        int slot = slot(this.hashes[row], mask);
+        while (this.table[slot] != 0) slot = (slot + 1) & mask;
+        this.table[slot] = row + 1;
+    }
+
+    private void unlink(int row) {
+        int mask = this.table.length - 1;
+        int slot = slot(this.hashes[row], mask);
+        while (this.table[slot] != row + 1) slot = (slot + 1) & mask;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (this.table[next] == 0) break;
+            int home = slot(this.hashes[this.table[next] - 1], mask);
+            boolean stays = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+            if (stays) continue;
+            this.table[slot] = this.table[next];
+            slot = next;
+        }
+        this.table[slot] = 0;
+    }
+
+    private void rehash() {
+        this.table = new int[tableSize(this.size)];
+        for (int row = 0; row < this.rows; row++) {
+            if (!this.removed.get(row)) insert(row);
+        }
+    }
+
+    private void grow() {
+        int capacity = this.hashes.length * 2;
+        for (int i = 0; i < FIELDS.length; i++) this.columns[i] = Arrays.copyOf(this.columns[i], capacity);
+        this.hashes = Arrays.copyOf(this.hashes, capacity);
+    }
+
+    private static int tableSize(int entries) {
+        int size = INITIAL_CAPACITY * 2;
+        while (size < entries * 4) size <<= 1;
+        return size;
+    }
+
+    private static int slot(int hash, int mask) {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9 & mask;
+    }
+}
@@ -0,0 +1,476 @@
+package com.snebot.fbmoll.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Thread safe contact book.
+ * Writers are serialized by a lock and publish a new {@link ContactBookSnapshot}
+ * after every mutation. Readers only read the last published snapshot, so they
+ * never block and never see a mutation halfway through.
+ * Published contacts are never modified, updates replace them with a new object.
+ * Snapshots are persistent: a mutation copies O(log n) tree nodes of the previous
+ * version and its indexes instead of the whole contact list, see {@link ContactTable}.
+ * With {@link ContactStorage#COLUMNAR} contacts are kept off the heap instead: reads,
+ * pages included, query the store under its read lock and snapshots are only built
+ * on demand, once per version, without blocking writers.
+ * Mutations are appended to the {@link ContactBookJournal}, if set, before they are
+ * applied, listeners are told about them once published.
+ * The type-ahead search index is guarded by its own read/write lock, so searches
+ * never wait for the writer lock.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ConcurrentContactBook {
+    private static final Logger log = LoggerFactory.getLogger(ConcurrentContactBook.class);
+    private final String name;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantReadWriteLock searchLock = new ReentrantReadWriteLock();
+    private final Object snapshotLock = new Object();
+    private final List<ContactBookListener> listeners = new CopyOnWriteArrayList<>();
+    private final ContactStore store;
+    private final boolean published;
+    private volatile ContactSearchIndex searchIndex = null;
+    private volatile ContactBookSnapshot snapshot;
+    private volatile long version = 0;
+    private QueryObserver queryObserver = null;
+    private ContactBookJournal journal = null;
+
+    /**
+     * @param book Initial contact book, owned by this instance from now on.
+     *             Contacts without unique identifier get a new one.
+     */
+    public ConcurrentContactBook(ContactBook book) {
+        this(book, ContactStorage.HEAP);
+    }
+
+    /**
+     * @param book    Initial contact book, owned by this instance from now on.
+     *                Contacts without unique identifier get a new one.
+     * @param storage Where contacts are kept.
+     */
+    public ConcurrentContactBook(ContactBook book, ContactStorage storage) {
+        this.name = book.getName();
+        book.assignMissingUUIDs();
+        this.store = storage.open(book);
+        this.published = this.store.isPersistent();
+        this.snapshot = this.published ? this.store.snapshot(0, this.name, null) : null;
+    }
+
+    public void addListener(ContactBookListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(ContactBookListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Log every mutation before it is applied.
+     *
+     * @param journal Write-ahead log, null to stop logging.
+     */
+    public void setJournal(ContactBookJournal journal) {
+        this.lock.lock();
+        try {
+            this.journal = journal;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Report the cost of every attribute search on snapshots.
+     *
+     * @param observer Query observer, null to stop reporting.
+     */
+    public void setQueryObserver(QueryObserver observer) {
+        this.lock.lock();
+        try {
+            this.queryObserver = observer;
+            if (this.snapshot != null) this.snapshot = this.snapshot.withQueryObserver(observer);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the last published snapshot. Stores that cannot publish every version
+     * build it here the first time a version is requested, while writers go on:
+     * it contains every mutation up to its version and may contain later ones.
+     *
+     * @return Contact book snapshot.
+     */
+    public ContactBookSnapshot snapshot() {
+        ContactBookSnapshot snapshot = this.snapshot;
+        if (this.published || (snapshot != null && snapshot.getVersion() == this.version)) return snapshot;
+        synchronized (this.snapshotLock) {
+            long version = this.version;
+            if (this.snapshot == null || this.snapshot.getVersion() != version)
+                this.snapshot = this.store.snapshot(version, this.name, this.queryObserver);
+            return this.snapshot;
+        }
+    }
+
+    /**
+     * Returns the version of the last mutation. It is set once the mutation is
+     * visible to readers, so a read started after it sees at least that version.
+     *
+     * @return Contact book version.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    public int size() {
+        return this.published ? this.snapshot.size() : this.store.size();
+    }
+
+    /**
+     * Finds contact by its unique identifier in the last snapshot.
+     *
+     * @param uid Unique identifier.
+     * @return Unique contact.
+     */
+    public Contact findByUUID(String uid) {
+        return this.published ? this.snapshot.findByUUID(uid) : this.store.findByUUID(uid);
+    }
+
+    /**
+     * Search contact by attributes in the last snapshot.
+     *
+     * @return List of matching contacts.
+     * @see ContactBook#getContacts(String, String, String, String, String, String)
+     */
+    public List<Contact> getContacts(String uid, String name, String lastName, String email, String address, String phone) {
+        if (this.published) return this.snapshot.getContacts(uid, name, lastName, email, address, phone);
+        List<Contact> contacts = new ArrayList<>();
+        this.store.forEachContact(new String[]{uid, name, lastName, email, address, phone}, contacts::add, this.queryObserver);
+        return contacts;
+    }
+
+    /**
+     * Visit contacts matching the attributes in the last snapshot, or straight from
+     * the store if it cannot publish every version, without building a snapshot.
+     *
+     * @param action Action run for every matching contact.
+     * @see ContactBookSnapshot#forEachContact(String, String, String, String, String, String, Consumer)
+     */
+    public void forEachContact(String uid, String name, String lastName, String email, String address, String phone,
+                               Consumer<Contact> action) {
+        if (this.published) this.snapshot.forEachContact(uid, name, lastName, email, address, phone, action);
+        else this.store.forEachContact(new String[]{uid, name, lastName, email, address, phone}, action, this.queryObserver);
+    }
+
+    /**
+     * Returns a page of contacts matching the attributes from the last snapshot, or
+     * straight from the store if it cannot publish every version, without building
+     * a snapshot.
+     *
+     * @see ContactBookSnapshot#getPage(String, String, String, String, String, String, String, int)
+     */
+    public ContactPage getPage(String uid, String name, String lastName, String email, String address, String phone,
+                               String cursor, int limit) {
+        if (this.published) return this.snapshot.getPage(uid, name, lastName, email, address, phone, cursor, limit);
+        long version = this.version;
+        int size = Math.max(1, Math.min(limit, ContactBookSnapshot.MAX_PAGE_SIZE));
+        String[] values = {uid, name, lastName, email, address, phone};
+        return ContactPage.of(this.store.page(values, cursor, size + 1, this.queryObserver), size, version);
+    }
+
+    /**
+     * Type-ahead search on the live contact book.
+     * The search index is built on the first search and maintained incrementally
+     * by writers. Searches share a read lock, writers only hold the write lock
+     * while they update the index, not during the whole mutation.
+     *
+     * @param query Search text, every word has to match.
+     * @param limit Maximum amount of results.
+     * @return Best matching contacts, best first.
+     * @see ContactBook#search(String, int)
+     */
+    public List<Contact> search(String query, int limit) {
+        ContactSearchIndex index = searchIndex();
+        this.searchLock.readLock().lock();
+        try {
+            return index.search(query, limit);
+        } finally {
+            this.searchLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Type-ahead search on the live contact book keeping the score of every result.
+     *
+     * @see #search(String, int)
+     */
+    List<Map.Entry<Contact, Double>> searchRanked(String query, int limit) {
+        ContactSearchIndex index = searchIndex();
+        this.searchLock.readLock().lock();
+        try {
+            return index.rank(query, limit);
+        } finally {
+            this.searchLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the search index, building it under the writer lock the first time
+     * so no mutation can slip between the build and its publication.
+     */
+    private ContactSearchIndex searchIndex() {
+        ContactSearchIndex index = this.searchIndex;
+        if (index != null) return index;
+        this.lock.lock();
+        try {
+            if (this.searchIndex == null) {
+                index = new ContactSearchIndex();
+                this.store.forEachContact(new String[ContactField.values().length], index::add, null);
+                this.searchIndex = index;
+            }
+            return this.searchIndex;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Add contact with a new unique identifier.
+     *
+     * @param contact Contact to add.
+     * @return Added contact.
+     */
+    public Contact addContact(Contact contact) {
+        this.lock.lock();
+        try {
+            contact.setUUID(generateUUID());
+            log(Collections.singletonList(contact), Collections.emptyList());
+            store(null, contact);
+            publish();
+            notifyListeners(listener -> listener.contactAdded(contact));
+            return contact;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Add contact keeping its unique identifier, replacing an existing contact with the same identifier.
+     *
+     * @param contact Contact to add.
+     * @return Added or replaced contact.
+     * @see ContactBook#putContact(Contact)
+     */
+    public Contact putContact(Contact contact) {
+        this.lock.lock();
+        try {
+            Contact existing = this.store.findByUUID(contact.getUUID());
+            Contact result = prepare(existing, contact);
+            log(Collections.singletonList(result), Collections.emptyList());
+            store(existing, result);
+            publish();
+            if (existing == null) notifyListeners(listener -> listener.contactAdded(result));
+            else notifyListeners(listener -> listener.contactUpdated(existing, result));
+            return result;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Add a batch of contacts under a single lock and publish them in a single snapshot.
+     * Contacts with a unique identifier replace the contact with the same identifier,
+     * the others get a new one.
+     *
+     * @param contacts Contacts to add.
+     * @return Added or replaced contacts, in the same order.
+     */
+    public List<Contact> putContacts(List<Contact> contacts) {
+        List<Contact> result = new ArrayList<>(contacts.size());
+        if (contacts.isEmpty()) return result;
+        List<Contact> previous = new ArrayList<>(contacts.size());
+        Map<String, Contact> batch = new HashMap<>();
+        this.lock.lock();
+        try {
+            for (Contact contact : contacts) {
+                String uid = contact.getUUID();
+                Contact existing = batch.containsKey(uid) ? batch.get(uid) : this.store.findByUUID(uid);
+                Contact prepared = prepare(existing, contact);
+                batch.put(prepared.getUUID(), prepared);
+                result.add(prepared);
+                previous.add(existing);
+            }
+            log(result, Collections.emptyList());
+            for (int i = 0; i < result.size(); i++) store(previous.get(i), result.get(i));
+            publish();
+            for (int i = 0; i < result.size(); i++) {
+                Contact existing = previous.get(i);
+                Contact contact = result.get(i);
+                if (existing == null) notifyListeners(listener -> listener.contactAdded(contact));
+                else notifyListeners(listener -> listener.contactUpdated(existing, contact));
+            }
+            return result;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Update contact with new data.
+     *
+     * @param uid     Unique identifier.
+     * @param contact New contact data.
+     * @return New contact object, null if not found.
+     */
+    public Contact updateContact(String uid, Contact contact) {
+        this.lock.lock();
+        try {
+            Contact existing = this.store.findByUUID(uid);
+            if (existing == null) return null;
+            Contact replacement = duplicate(existing);
+            replacement.copy(contact);
+            log(Collections.singletonList(replacement), Collections.emptyList());
+            store(existing, replacement);
+            publish();
+            notifyListeners(listener -> listener.contactUpdated(existing, replacement));
+            return replacement;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove contacts matching the attributes.
+     *
+     * @return List of removed contacts.
+     * @see ContactBook#removeContact(String, String, String, String, String, String)
+     */
+    public List<Contact> removeContact(String uid, String name, String lastName, String email, String address, String phone) {
+        this.lock.lock();
+        try {
+            List<Contact> removed = new ArrayList<>();
+            this.store.forEachContact(new String[]{uid, name, lastName, email, address, phone}, removed::add, null);
+            if (removed.isEmpty()) return removed;
+            log(Collections.emptyList(), removed);
+            for (Contact contact : removed) {
+                this.store.remove(contact.getUUID());
+                index(contact, null);
+            }
+            publish();
+            for (Contact contact : removed) notifyListeners(listener -> listener.contactRemoved(contact));
+            return removed;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Run an action while no mutation can happen, e.g. to persist the book
+     * and discard the log of changes it contains.
+     *
+     * @param action Action to run.
+     * @param <T>    Action result.
+     * @return Action result.
+     * @throws Exception If the action fails.
+     */
+    public <T> T exclusive(Callable<T> action) throws Exception {
+        this.lock.lock();
+        try {
+            return action.call();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the contact to store: the contact itself if new, keeping its unique
+     * identifier, or a copy of it replacing the existing one.
+     */
+    private Contact prepare(Contact existing, Contact contact) {
+        if (existing == null) {
+            if (contact.getUUID() == null) contact.setUUID(generateUUID());
+            return contact;
+        }
+        return duplicate(contact);
+    }
+
+    /**
+     * Append changes to the journal, if set, before applying them.
+     *
+     * @throws UncheckedIOException If the journal fails, the mutation must not be applied.
+     */
+    private void log(List<Contact> changed, List<Contact> removed) {
+        if (this.journal == null) return;
+        try {
+            this.journal.append(changed, removed);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Tell every listener about a published mutation. A failing listener is
+     * logged and the remaining ones still run.
+     */
+    private void notifyListeners(Consumer<ContactBookListener> event) {
+        for (ContactBookListener listener : this.listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                log.error(String.format("%s failed to handle a contact book change ", listener.getClass().getSimpleName()), e);
+            }
+        }
+    }
+
+    private void store(Contact existing, Contact contact) {
+        this.store.put(contact);
+        index(existing, contact);
+    }
+
+    /**
+     * Replace a contact in the search index, if it was built already.
+     *
+     * @param removed Contact to remove, may be null.
+     * @param added   Contact to add, may be null.
+     */
+    private void index(Contact removed, Contact added) {
+        ContactSearchIndex index = this.searchIndex;
+        if (index == null) return;
+        this.searchLock.writeLock().lock();
+        try {
+            if (removed != null) index.remove(removed);
+            if (added != null) index.add(added);
+        } finally {
+            this.searchLock.writeLock().unlock();
+        }
+    }
+
+    private String generateUUID() {
+        String uuid;
+        do {
+            uuid = ContactIdGenerator.next();
+        } while (this.store.findByUUID(uuid) != null);
+        return uuid;
+    }
+
+    private void publish() {
+        long version = this.version + 1;
+        if (this.published) this.snapshot = this.store.snapshot(version, this.name, this.queryObserver);
+        this.version = version;
+    }
+
+    private static Contact duplicate(Contact contact) {
+        Contact copy = new Contact();
+        for (ContactField field : ContactField.values()) field.restore(copy, field.get(contact));
+        return copy;
+    }
+}
@@ -81,6 +81,35 @@ public class Contact implements Serializable {
     public Contact() {
     }
 
+    /**
+     * Sets an attribute without validation, used to restore persisted data as is.
+     *
+     * @param field Attribute.
+     * @param value Attribute value.
+     */
+    void restore(ContactField field, String value) {
+        switch (field) {
+            case UUID:
+                this.uuid = value;
+                break;
+            case NAME:
+                this.name = value;
+                break;
+            case LAST_NAME:
+                this.lastName = value;
+                break;
+            case EMAIL:
+                this.email = value;
+                break;
+            case ADDRESS:
+                this.address = value;
+                break;
+            case PHONE:
+                this.phone = value;
+                break;
+        }
+    }
+
     /**
      * Copies the contact data.
      *
@@ -2,11 +2,15 @@ package com.snebot.fbmoll.data;
 
 import org.apache.commons.lang3.StringUtils;
 
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.annotation.*;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.function.Consumer;
 
 @XmlRootElement(name = "contactBook")
 @XmlAccessorType(XmlAccessType.FIELD)
@@ -18,6 +22,19 @@ public class ContactBook implements Serializable {
     @XmlElement(name = "contact")
     private List<Contact> contacts = new ArrayList<>();
 
+    private static final EnumSet<ContactField> DEFAULT_INDEXED_FIELDS =
+            EnumSet.of(ContactField.NAME, ContactField.LAST_NAME, ContactField.EMAIL, ContactField.PHONE);
+
+    private transient Map<String, Contact> uuidIndex = new HashMap<>();
+    private transient Map<ContactField, ContactIndex> fieldIndexes = createIndexes(DEFAULT_INDEXED_FIELDS);
+    private transient ContactSearchIndex searchIndex = null;
+    private transient QueryObserver queryObserver = null;
+    private transient boolean indexed = true;
+    /**
+     * Removed contacts still in the list, dropped in a single pass before the list is read.
+     */
+    private transient Set<Contact> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
     public String getName() {
         return this.name;
     }
@@ -27,12 +44,54 @@ public class ContactBook implements Serializable {
     }
 
     public List<Contact> getContacts() {
-        return this.contacts;
+        return contacts();
     }
 
+    /**
+     * Replace every contact. Unique identifiers are kept, contacts without one
+     * get a new identifier and contacts repeating an identifier replace the
+     * data of the first one.
+     *
+     * @param contacts Contacts.
+     */
     public void setContacts(List<Contact> contacts) {
-        this.contacts = new ArrayList<>();
-        contacts.forEach(this::addContact);
+        this.contacts = new ArrayList<>(contacts.size());
+        this.removed.clear();
+        clearIndexes();
+        this.indexed = true;
+        contacts.forEach(this::putContact);
+    }
+
+    /**
+     * Returns the attributes that have a secondary index.
+     *
+     * @return Indexed attributes.
+     */
+    public Set<ContactField> getIndexedFields() {
+        return Collections.unmodifiableSet(this.fieldIndexes.keySet());
+    }
+
+    /**
+     * Select which attributes have a secondary index and rebuild them.
+     * The unique identifier is always indexed.
+     *
+     * @param fields Attributes to index.
+     */
+    public void setIndexedFields(Collection<ContactField> fields) {
+        EnumSet<ContactField> indexed = EnumSet.noneOf(ContactField.class);
+        indexed.addAll(fields);
+        indexed.remove(ContactField.UUID);
+        this.fieldIndexes = createIndexes(indexed);
+        reindex();
+    }
+
+    /**
+     * Report the cost of every attribute search.
+     *
+     * @param observer Query observer, null to stop reporting.
+     */
+    public void setQueryObserver(QueryObserver observer) {
+        this.queryObserver = observer;
     }
 
     public ContactBook() {
@@ -43,6 +102,22 @@ public class ContactBook implements Serializable {
         setContacts(contacts);
     }
 
+    /**
+     * Wraps a contact list without copying it or changing its contacts.
+     * Indexes are built on the first search.
+     *
+     * @param name     Contact book name.
+     * @param contacts Contact list.
+     * @return Contact book backed by the list.
+     */
+    static ContactBook wrap(String name, List<Contact> contacts) {
+        ContactBook book = new ContactBook();
+        book.name = name;
+        book.contacts = contacts;
+        book.indexed = false;
+        return book;
+    }
+
     /**
      * Finds contact by its unique identifier.
      *
@@ -50,26 +125,22 @@ public class ContactBook implements Serializable {
      * @return Unique contact.
      */
     public Contact findByUUID(String uid) {
-        for (Contact contact : this.contacts)
-            if (StringUtils.equals(contact.getUUID(), uid)) return contact;
-        return null;
+        if (uid == null) return null;
+        ensureIndexed();
+        return this.uuidIndex.get(uid);
     }
 
     /**
-     * Generates a unique identifier and makes sure it is not already in use.
+     * Generates a time-ordered unique identifier and makes sure it is not already in use.
      *
      * @return Unique identifier.
      */
     public String generateUUID() {
-        boolean repeated = false;
+        ensureIndexed();
         String uuid = null;
         do {
-            uuid = UUID.randomUUID().toString();
-            for (Contact c : this.contacts) {
-                repeated = StringUtils.equals(c.getUUID(), uuid);
-                if (repeated) break;
-            }
-        } while (repeated);
+            uuid = ContactIdGenerator.next();
+        } while (this.uuidIndex.containsKey(uuid));
         return uuid;
     }
 
@@ -79,12 +150,73 @@ public class ContactBook implements Serializable {
      * @param contact Contact to add.
      */
     public void addContact(Contact contact) {
+        ensureIndexed();
         contact.setUUID(generateUUID());
-        this.contacts.add(contact);
+        append(contact);
+        index(contact);
+    }
+
+    /**
+     * Add contact keeping its unique identifier. If a contact with the same
+     * identifier already exists its data is replaced instead.
+     * Used to restore persisted contacts, data is not validated again.
+     *
+     * @param contact Contact to add.
+     * @return Added or replaced contact.
+     */
+    public Contact putContact(Contact contact) {
+        ensureIndexed();
+        Contact existing = findByUUID(contact.getUUID());
+        if (existing != null) {
+            unindex(existing);
+            for (ContactField field : ContactField.values()) field.restore(existing, field.get(contact));
+            index(existing);
+            return existing;
+        }
+        if (contact.getUUID() == null) contact.setUUID(generateUUID());
+        append(contact);
+        index(contact);
+        return contact;
+    }
+
+    /**
+     * Append a persisted contact as is, used by snapshot loaders.
+     * Unique identifiers are trusted to be unique and indexes are rebuilt on the
+     * next search, so loading a book stays linear and does not pay for indexing.
+     *
+     * @param contact Persisted contact.
+     */
+    public void restoreContact(Contact contact) {
+        append(contact);
+        this.indexed = false;
+    }
+
+    /**
+     * Give a new unique identifier to every restored contact without one, e.g. from
+     * a file written by hand. Books loaded with identifiers are not indexed by this call.
+     */
+    public void assignMissingUUIDs() {
+        Set<String> used = null;
+        for (Contact contact : contacts()) {
+            if (contact.getUUID() != null) continue;
+            if (used == null) {
+                used = new HashSet<>();
+                for (Contact other : this.contacts) if (other.getUUID() != null) used.add(other.getUUID());
+            }
+            String uuid;
+            do {
+                uuid = ContactIdGenerator.next();
+            } while (!used.add(uuid));
+            contact.setUUID(uuid);
+            this.indexed = false;
+        }
     }
 
     /**
      * Remove contact from contact list.
+     * Removed contacts leave the indexes at once and the list on its next full
+     * read, so removing contacts one at a time, e.g. replaying a journal, does
+     * not shift the list on every call.
      *
      * @param uid Unique identifier.
      * @param name Contact name.
@@ -96,9 +228,8 @@ public class ContactBook implements Serializable {
      */
     public List<Contact> removeContact(String uid, String name, String lastName, String email, String address, String phone) {
         List<Contact> contacts = getContacts(uid, name, lastName, email, address, phone);
-        contacts.forEach(contact -> {
-            this.contacts.remove(contact);
-        });
+        this.removed.addAll(contacts);
+        contacts.forEach(this::unindex);
         return contacts;
     }
 
@@ -121,7 +252,11 @@ public class ContactBook implements Serializable {
      */
     public Contact updateContact(String uid, Contact contact) {
         Contact c = findByUUID(uid);
-        if (c != null) c.copy(contact);
+        if (c != null) {
+            unindex(c);
+            c.copy(contact);
+            index(c);
+        }
         return c;
     }
 
@@ -138,15 +273,205 @@ public class ContactBook implements Serializable {
      */
     public List<Contact> getContacts(String uid, String name, String lastName, String email, String address, String phone) {
         List<Contact> contactList = new ArrayList<>();
-        for (Contact c : this.contacts) {
+        forEachContact(uid, name, lastName, email, address, phone, contactList::add);
+        return contactList;
+    }
+
+    /**
+     * Visit contacts matching the attributes as they are found, without collecting them.
+     *
+     * @param uid Unique identifier.
+     * @param name Contact name.
+     * @param lastName Contact last name.
+     * @param email Contact email.
+     * @param address Contact address.
+     * @param phone Contact phone.
+     * @param action Action run for every matching contact.
+     */
+    public void forEachContact(String uid, String name, String lastName, String email, String address, String phone,
+                               Consumer<Contact> action) {
+        Collection<Contact> candidates = candidates(uid, name, lastName, email, address, phone);
+        int returned = 0;
+        for (Contact c : candidates) {
             if ((uid == null || StringUtils.equals(c.getUUID(), uid)) &&
                     (name == null || StringUtils.equals(c.getName(), name)) &&
                     (lastName == null || StringUtils.equals(c.getLastName(), lastName)) &&
                     (email == null || StringUtils.equals(c.getEmail(), email)) &&
                     (address == null || StringUtils.equals(c.getAddress(), address)) &&
-                    (phone == null || StringUtils.equals(c.getPhone(), phone))) contactList.add(c);
+                    (phone == null || StringUtils.equals(c.getPhone(), phone))) {
+                action.accept(c);
+                returned++;
+            }
         }
-        return contactList;
+        QueryObserver observer = this.queryObserver;
+        if (observer != null)
+            observer.queryExecuted(queryShape(uid, name, lastName, email, address, phone), candidates.size(), returned);
+    }
+
+    /**
+     * Names the searched attributes, e.g. "name+email", or "all" when none is given.
+     */
+    static String queryShape(String... values) {
+        StringBuilder shape = new StringBuilder();
+        for (ContactField field : ContactField.values()) {
+            if (values[field.ordinal()] == null) continue;
+            if (shape.length() > 0) shape.append('+');
+            shape.append(field.getKey());
+        }
+        return shape.length() > 0 ? shape.toString() : "all";
+    }
+
+    /**
+     * Type-ahead search by name, last name and email, ranked by relevance.
+     * The search index is built on the first search and kept up to date from then on.
+     *
+     * @param query Search text, every word has to match.
+     * @param limit Maximum amount of results.
+     * @return Best matching contacts, best first.
+     */
+    public List<Contact> search(String query, int limit) {
+        return searchIndex().search(query, limit);
+    }
+
+    /**
+     * Type-ahead search keeping the score of every result.
+     *
+     * @see #search(String, int)
+     */
+    List<Map.Entry<Contact, Double>> searchRanked(String query, int limit) {
+        return searchIndex().rank(query, limit);
+    }
+
+    private ContactSearchIndex searchIndex() {
+        ensureIndexed();
+        if (this.searchIndex == null) {
+            this.searchIndex = new ContactSearchIndex();
+            contacts().forEach(this.searchIndex::add);
+        }
+        return this.searchIndex;
+    }
+
+    /**
+     * Query planner: picks the smallest set of contacts that can satisfy a search.
+     * A unique identifier resolves through the primary index, otherwise the most
+     * selective indexed attribute is used. Falls back to the full contact list when
+     * no supplied attribute is indexed.
+     *
+     * @param uid Unique identifier.
+     * @param name Contact name.
+     * @param lastName Contact last name.
+     * @param email Contact email.
+     * @param address Contact address.
+     * @param phone Contact phone.
+     * @return Contacts that still have to be filtered.
+     */
+    private Collection<Contact> candidates(String uid, String name, String lastName, String email, String address, String phone) {
+        ensureIndexed();
+        if (uid != null) {
+            Contact contact = this.uuidIndex.get(uid);
+            return contact != null ? Collections.singletonList(contact) : Collections.emptyList();
+        }
+
+        Collection<Contact> best = contacts();
+        String[] values = {null, name, lastName, email, address, phone};
+        for (ContactField field : ContactField.values()) {
+            String value = values[field.ordinal()];
+            ContactIndex index = this.fieldIndexes.get(field);
+            if (value == null || index == null) continue;
+            Collection<Contact> match = index.get(value);
+            if (match.size() < best.size()) best = match;
+            if (best.isEmpty()) break;
+        }
+        return best;
+    }
+
+    private static Map<ContactField, ContactIndex> createIndexes(Set<ContactField> fields) {
+        Map<ContactField, ContactIndex> indexes = new EnumMap<>(ContactField.class);
+        fields.forEach(field -> indexes.put(field, new ContactIndex(field)));
+        return indexes;
+    }
+
+    private void index(Contact contact) {
+        if (contact.getUUID() != null) this.uuidIndex.put(contact.getUUID(), contact);
+        this.fieldIndexes.values().forEach(index -> index.add(contact));
+        if (this.searchIndex != null) this.searchIndex.add(contact);
+    }
+
+    private void unindex(Contact contact) {
+        this.uuidIndex.remove(contact.getUUID(), contact);
+        this.fieldIndexes.values().forEach(index -> index.remove(contact));
+        if (this.searchIndex != null) this.searchIndex.remove(contact);
+    }
+
+    private void clearIndexes() {
+        this.uuidIndex.clear();
+        this.fieldIndexes.values().forEach(ContactIndex::clear);
+        if (this.searchIndex != null) this.searchIndex.clear();
+    }
+
+    /**
+     * Rebuild every index from the contact list.
+     */
+    private void reindex() {
+        assignMissingUUIDs();
+        clearIndexes();
+        contacts().forEach(this::index);
+        this.indexed = true;
+    }
+
+    /**
+     * Returns the contact list without removed contacts.
+     */
+    private List<Contact> contacts() {
+        if (!this.removed.isEmpty()) {
+            this.contacts.removeIf(this.removed::contains);
+            this.removed.clear();
+        }
+        return this.contacts;
+    }
+
+    /**
+     * Append a contact to the list. A removed contact added back is dropped
+     * from the list first, so it is neither kept twice nor dropped later.
+     */
+    private void append(Contact contact) {
+        if (this.removed.contains(contact)) contacts();
+        this.contacts.add(contact);
+    }
+
+    /**
+     * Build the indexes if they are not up to date.
+     */
+    private void ensureIndexed() {
+        if (!this.indexed) reindex();
+    }
+
+    /**
+     * JAXB callback, contacts are written directly from the list field.
+     */
+    private void beforeMarshal(Marshaller marshaller) {
+        contacts();
+    }
+
+    /**
+     * JAXB callback, contacts are loaded directly into the list field.
+     */
+    private void afterUnmarshal(Unmarshaller unmarshaller, Object parent) {
+        this.indexed = false;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.uuidIndex = new HashMap<>();
+        this.fieldIndexes = createIndexes(DEFAULT_INDEXED_FIELDS);
+        this.searchIndex = null;
+        this.removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.indexed = false;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        contacts();
+        out.defaultWriteObject();
     }
 
     @Override
@@ -154,9 +479,10 @@ public class ContactBook implements Serializable {
         if (obj instanceof ContactBook) {
             ContactBook contactBook = (ContactBook) obj;
             boolean result = getName().equals(contactBook.getName());
-            for (int i = 0; i < this.contacts.size() && !result; i++) {
-                Contact contact = this.contacts.get(i);
-                result = contact.equals(contactBook.contacts.get(i));
+            List<Contact> contacts = contacts();
+            for (int i = 0; i < contacts.size() && !result; i++) {
+                Contact contact = contacts.get(i);
+                result = contact.equals(contactBook.contacts().get(i));
             }
             return result;
         }
@@ -0,0 +1,23 @@
+package com.snebot.fbmoll.data;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Write-ahead log of a {@link ConcurrentContactBook}.
+ * Every mutation is appended while the write lock is held, before it is applied
+ * or published, so a mutation readers have seen is always in the log. If the
+ * append fails the mutation is not applied.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public interface ContactBookJournal {
+    /**
+     * Log the changes of a single mutation, all of them or none.
+     *
+     * @param changed Added and updated contacts, with their resulting data.
+     * @param removed Removed contacts.
+     * @throws IOException If the changes cannot be logged.
+     */
+    void append(List<Contact> changed, List<Contact> removed) throws IOException;
+}
@@ -0,0 +1,32 @@
+package com.snebot.fbmoll.data;
+
+/**
+ * Receives the mutations of a {@link ConcurrentContactBook}.
+ * Listeners run on the writer thread while the write lock is held, so they
+ * see mutations in the order they are applied and must return quickly.
+ * They run once the mutation is published: an exception thrown by a listener
+ * is logged, it neither undoes the mutation nor keeps the other listeners from
+ * running. Use a {@link ContactBookJournal} to persist mutations before they apply.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public interface ContactBookListener {
+    /**
+     * @param contact Added contact.
+     */
+    default void contactAdded(Contact contact) {
+    }
+
+    /**
+     * @param previous Contact data before the update.
+     * @param contact  Contact data after the update.
+     */
+    default void contactUpdated(Contact previous, Contact contact) {
+    }
+
+    /**
+     * @param contact Removed contact.
+     */
+    default void contactRemoved(Contact contact) {
+    }
+}
@@ -0,0 +1,175 @@
+package com.snebot.fbmoll.data;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Immutable, versioned view of a contact book.
+ * Contacts in a snapshot are never modified, updates replace them with new objects.
+ * Snapshots published by a {@link ConcurrentContactBook} share their contacts and
+ * indexes with the previous version, see {@link ContactTable}. Snapshots made of a
+ * plain contact list build their indexes on the first search.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ContactBookSnapshot implements ContactSource {
+    private final long version;
+    private final String name;
+    private final List<Contact> contacts;
+    private final QueryObserver queryObserver;
+    public static final int MAX_PAGE_SIZE = 1000;
+    private volatile ContactTable table;
+
+    ContactBookSnapshot(long version, String name, ContactTable table, QueryObserver queryObserver) {
+        this.version = version;
+        this.name = name;
+        this.table = table;
+        this.contacts = table.asList();
+        this.queryObserver = queryObserver;
+    }
+
+    ContactBookSnapshot(long version, String name, List<Contact> contacts, QueryObserver queryObserver) {
+        this.version = version;
+        this.name = name;
+        this.table = null;
+        this.contacts = Collections.unmodifiableList(contacts);
+        this.queryObserver = queryObserver;
+    }
+
+    /**
+     * Snapshot of the current contacts of a book, e.g. to serve a book that is still loading.
+     * The book can keep growing afterwards but its contacts must not be modified.
+     *
+     * @param book Contact book.
+     * @return Snapshot with version 0.
+     */
+    public static ContactBookSnapshot copyOf(ContactBook book) {
+        return new ContactBookSnapshot(0, book.getName(), new ArrayList<>(book.getContacts()), null);
+    }
+
+    /**
+     * Snapshot holding the contacts of several snapshots, e.g. of every shard of a book.
+     * Its version is the sum of their versions, so it grows with any of them.
+     *
+     * @param name      Contact book name.
+     * @param snapshots Snapshots to merge.
+     * @return Merged snapshot.
+     */
+    public static ContactBookSnapshot merge(String name, List<ContactBookSnapshot> snapshots) {
+        long version = 0;
+        int size = 0;
+        for (ContactBookSnapshot snapshot : snapshots) {
+            version += snapshot.version;
+            size += snapshot.size();
+        }
+        List<Contact> contacts = new ArrayList<>(size);
+        for (ContactBookSnapshot snapshot : snapshots) contacts.addAll(snapshot.contacts);
+        return new ContactBookSnapshot(version, name, contacts, snapshots.isEmpty() ? null : snapshots.get(0).queryObserver);
+    }
+
+    /**
+     * Returns the same contacts reporting searches to another observer.
+     *
+     * @param observer Query observer, null to stop reporting.
+     * @return Snapshot with the same version.
+     */
+    ContactBookSnapshot withQueryObserver(QueryObserver observer) {
+        ContactTable table = this.table;
+        if (table != null) return new ContactBookSnapshot(this.version, this.name, table, observer);
+        return new ContactBookSnapshot(this.version, this.name, this.contacts, observer);
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public List<Contact> getContacts() {
+        return this.contacts;
+    }
+
+    public int size() {
+        return this.contacts.size();
+    }
+
+    /**
+     * Returns a read-only contact book backed by this snapshot, meant for persistence.
+     * Its indexes are not built unless it is searched.
+     *
+     * @return Read-only contact book.
+     */
+    public ContactBook toContactBook() {
+        return ContactBook.wrap(this.name, this.contacts);
+    }
+
+    /**
+     * Returns the indexed contacts, building them on first use for snapshots of a plain list.
+     * Concurrent first searches may build them twice, only one is kept.
+     */
+    ContactTable table() {
+        ContactTable table = this.table;
+        if (table == null) {
+            table = ContactTable.of(this.contacts);
+            this.table = table;
+        }
+        return table;
+    }
+
+    /**
+     * Finds contact by its unique identifier.
+     *
+     * @param uid Unique identifier.
+     * @return Unique contact.
+     */
+    public Contact findByUUID(String uid) {
+        return table().findByUUID(uid);
+    }
+
+    /**
+     * Search contact by attributes.
+     *
+     * @return List of matching contacts.
+     * @see ContactBook#getContacts(String, String, String, String, String, String)
+     */
+    public List<Contact> getContacts(String uid, String name, String lastName, String email, String address, String phone) {
+        List<Contact> contacts = new ArrayList<>();
+        forEachContact(uid, name, lastName, email, address, phone, contacts::add);
+        return contacts;
+    }
+
+    /**
+     * Visit contacts matching the attributes as they are found.
+     *
+     * @see ContactBook#forEachContact(String, String, String, String, String, String, Consumer)
+     */
+    @Override
+    public void forEachContact(String uid, String name, String lastName, String email, String address, String phone,
+                               Consumer<Contact> action) {
+        String[] values = {uid, name, lastName, email, address, phone};
+        if (this.table == null && uid == null && name == null && lastName == null && email == null && address == null && phone == null) {
+            // A full scan of a plain list needs no index.
+            this.contacts.forEach(action);
+            if (this.queryObserver != null) this.queryObserver.queryExecuted("all", size(), size());
+            return;
+        }
+        table().forEachContact(values, action, this.queryObserver);
+    }
+
+    /**
+     * Returns a page of contacts matching the attributes, ordered by unique identifier.
+     * Pages are read from the ordered indexes of the snapshot, see {@link ContactTable#page}.
+     *
+     * @param cursor Cursor returned with the previous page, null for the first page.
+     * @param limit  Maximum page size, capped to {@link #MAX_PAGE_SIZE}.
+     * @return Page of contacts.
+     */
+    public ContactPage getPage(String uid, String name, String lastName, String email, String address, String phone,
+                               String cursor, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        String[] values = {uid, name, lastName, email, address, phone};
+        return ContactPage.of(table().page(values, cursor, size + 1, this.queryObserver), size, this.version);
+    }
+}
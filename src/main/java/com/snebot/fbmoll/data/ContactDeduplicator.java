@@ -0,0 +1,181 @@
+package com.snebot.fbmoll.data;
+
+import java.util.*;
+
+/**
+ * Finds duplicate contacts in a single pass. Every contact is reduced to a
+ * 64-bit fingerprint of its normalized key attributes and grouped by it in a
+ * hash map, so a book is checked in linear time instead of comparing every pair
+ * with {@link Contact#similar(Contact)}. Contacts sharing a fingerprint are then
+ * compared by their normalized attributes, so a fingerprint collision never
+ * groups different contacts.
+ * Contacts without any key attribute are never duplicates.
+ * <p>
+ * Duplicates are ordered by unique identifier, which is deterministic but only
+ * follows creation time for identifiers from {@link ContactIdGenerator}; random
+ * identifiers of books created before sort arbitrarily.
+ * Not thread safe.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ContactDeduplicator {
+    private static final int PHONE_DIGITS = 9;
+    private static final char SEPARATOR = '\u001F';
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final Comparator<Contact> LOWEST_ID_FIRST = Comparator.comparing(Contact::getUUID,
+            Comparator.nullsLast(Comparator.naturalOrder()));
+
+    private final DuplicateKey key;
+    private final StringBuilder scratch = new StringBuilder(128);
+    /**
+     * Contact, or list of contacts once a fingerprint is seen twice.
+     */
+    private final Map<Long, Object> candidates;
+
+    /**
+     * @param key      Attributes compared.
+     * @param expected Expected amount of contacts, to size the table once.
+     */
+    public ContactDeduplicator(DuplicateKey key, int expected) {
+        this.key = key;
+        this.candidates = new HashMap<>(Math.max(16, (int) (expected / 0.75f) + 1));
+    }
+
+    /**
+     * Fold case and whitespace of an attribute: text is trimmed, lower cased and
+     * its whitespace runs become a single space, emails lose every whitespace,
+     * and phones keep their last nine digits only, dropping separators and
+     * international prefixes.
+     *
+     * @param field Attribute.
+     * @param value Attribute value.
+     * @return Normalized value, empty if null.
+     */
+    public static String normalize(ContactField field, String value) {
+        StringBuilder builder = new StringBuilder(value != null ? value.length() : 0);
+        fold(field, value, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Returns the normalized key attributes of a contact.
+     *
+     * @param key     Attributes compared.
+     * @param contact Contact.
+     * @return Normalized key, null if the contact has none of the key attributes.
+     */
+    public static String key(DuplicateKey key, Contact contact) {
+        StringBuilder builder = new StringBuilder(64);
+        return normalize(key, contact, builder) ? builder.toString() : null;
+    }
+
+    private static boolean normalize(DuplicateKey key, Contact contact, StringBuilder out) {
+        out.setLength(0);
+        boolean found = false;
+        for (ContactField field : key.fields()) {
+            int start = out.length();
+            fold(field, field.get(contact), out);
+            found |= out.length() > start;
+            out.append(SEPARATOR);
+        }
+        return found;
+    }
+
+    private static void fold(ContactField field, String value, StringBuilder out) {
+        if (value == null) return;
+        int start = out.length();
+        if (field == ContactField.PHONE) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c >= '0' && c <= '9') out.append(c);
+            }
+            int digits = out.length() - start;
+            if (digits > PHONE_DIGITS) out.delete(start, start + digits - PHONE_DIGITS);
+            return;
+        }
+        boolean collapse = field != ContactField.EMAIL;
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = true;
+                continue;
+            }
+            if (space && collapse && out.length() > start) out.append(' ');
+            space = false;
+            out.append(Character.toLowerCase(c));
+        }
+    }
+
+    /**
+     * FNV-1a of the normalized key, with a final mix so fingerprints spread over hash buckets.
+     */
+    private static long fingerprint(CharSequence key) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Add a contact to the pass.
+     *
+     * @param contact Contact.
+     */
+    @SuppressWarnings("unchecked")
+    public void add(Contact contact) {
+        if (!normalize(this.key, contact, this.scratch)) return;
+        Long fingerprint = fingerprint(this.scratch);
+        Object previous = this.candidates.putIfAbsent(fingerprint, contact);
+        if (previous == null) return;
+        if (previous instanceof Contact) {
+            List<Contact> group = new ArrayList<>(2);
+            group.add((Contact) previous);
+            group.add(contact);
+            this.candidates.put(fingerprint, group);
+        } else {
+            ((List<Contact>) previous).add(contact);
+        }
+    }
+
+    /**
+     * Returns the duplicates among the added contacts.
+     *
+     * @return Groups of two or more contacts with the same normalized key, lowest unique identifier
+     * first within every group, and groups ordered by their first contact.
+     */
+    @SuppressWarnings("unchecked")
+    public List<DuplicateGroup> getGroups() {
+        List<DuplicateGroup> groups = new ArrayList<>();
+        for (Object candidate : this.candidates.values()) {
+            if (candidate instanceof Contact) continue;
+            Map<String, List<Contact>> exact = new LinkedHashMap<>();
+            for (Contact contact : (List<Contact>) candidate) {
+                exact.computeIfAbsent(key(this.key, contact), k -> new ArrayList<>()).add(contact);
+            }
+            for (Map.Entry<String, List<Contact>> entry : exact.entrySet()) {
+                List<Contact> contacts = entry.getValue();
+                if (contacts.size() < 2) continue;
+                contacts.sort(LOWEST_ID_FIRST);
+                groups.add(new DuplicateGroup(values(entry.getKey()), contacts));
+            }
+        }
+        groups.sort(Comparator.comparing(group -> group.getContacts().get(0), LOWEST_ID_FIRST));
+        return groups;
+    }
+
+    private static List<String> values(String key) {
+        List<String> values = new ArrayList<>();
+        int start = 0;
+        for (int i = key.indexOf(SEPARATOR); i >= 0; i = key.indexOf(SEPARATOR, start)) {
+            values.add(key.substring(start, i));
+            start = i + 1;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,66 @@
+package com.snebot.fbmoll.data;
+
+import java.util.function.Function;
+
+/**
+ * Searchable contact attributes.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public enum ContactField {
+    UUID("uuid", Contact::getUUID),
+    NAME("name", Contact::getName),
+    LAST_NAME("lastName", Contact::getLastName),
+    EMAIL("email", Contact::getEmail),
+    ADDRESS("address", Contact::getAddress),
+    PHONE("phone", Contact::getPhone);
+
+    private final String key;
+    private final Function<Contact, String> getter;
+
+    ContactField(String key, Function<Contact, String> getter) {
+        this.key = key;
+        this.getter = getter;
+    }
+
+    /**
+     * Returns the attribute name as used in requests and XML files.
+     *
+     * @return Attribute name.
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Reads the attribute value from a contact.
+     *
+     * @param contact Contact data.
+     * @return Attribute value.
+     */
+    public String get(Contact contact) {
+        return this.getter.apply(contact);
+    }
+
+    /**
+     * Writes the attribute value without validation.
+     * Only meant for loading persisted contacts.
+     *
+     * @param contact Contact data.
+     * @param value   Attribute value.
+     */
+    public void restore(Contact contact, String value) {
+        contact.restore(this, value);
+    }
+
+    /**
+     * Finds an attribute by its name.
+     *
+     * @param key Attribute name.
+     * @return Attribute, null if unknown.
+     */
+    public static ContactField fromKey(String key) {
+        for (ContactField field : values()) if (field.key.equals(key)) return field;
+        return null;
+    }
+}
@@ -0,0 +1,93 @@
+package com.snebot.fbmoll.data;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Secondary index that maps an attribute value to the contacts holding it.
+ * Values held by a single contact map straight to it, values shared by
+ * several contacts map to a bucket keyed by unique identifier.
+ *
+ * @author Serafi Nebot Ginard
+ */
+class ContactIndex {
+    private final ContactField field;
+    private final Map<String, Object> entries = new HashMap<>();
+
+    ContactIndex(ContactField field) {
+        this.field = field;
+    }
+
+    public ContactField getField() {
+        return this.field;
+    }
+
+    /**
+     * Index contact by its current attribute value.
+     *
+     * @param contact Contact to index.
+     */
+    @SuppressWarnings("unchecked")
+    public void add(Contact contact) {
+        String value = this.field.get(contact);
+        if (value == null) return;
+        Object entry = this.entries.get(value);
+        if (entry == null) {
+            this.entries.put(value, contact);
+        } else if (entry instanceof Contact) {
+            Contact single = (Contact) entry;
+            if (Objects.equals(single.getUUID(), contact.getUUID())) {
+                this.entries.put(value, contact);
+                return;
+            }
+            Map<String, Contact> bucket = new LinkedHashMap<>(4);
+            bucket.put(single.getUUID(), single);
+            bucket.put(contact.getUUID(), contact);
+            this.entries.put(value, bucket);
+        } else {
+            ((Map<String, Contact>) entry).put(contact.getUUID(), contact);
+        }
+    }
+
+    /**
+     * Remove contact from the index using its current attribute value.
+     *
+     * @param contact Contact to remove.
+     */
+    @SuppressWarnings("unchecked")
+    public void remove(Contact contact) {
+        String value = this.field.get(contact);
+        if (value == null) return;
+        Object entry = this.entries.get(value);
+        if (entry instanceof Contact) {
+            if (Objects.equals(((Contact) entry).getUUID(), contact.getUUID())) this.entries.remove(value);
+        } else if (entry != null) {
+            Map<String, Contact> bucket = (Map<String, Contact>) entry;
+            bucket.remove(contact.getUUID());
+            if (bucket.size() == 1) this.entries.put(value, bucket.values().iterator().next());
+            else if (bucket.isEmpty()) this.entries.remove(value);
+        }
+    }
+
+    /**
+     * Returns the contacts holding the given attribute value.
+     *
+     * @param value Attribute value.
+     * @return Matching contacts, empty if none.
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<Contact> get(String value) {
+        Object entry = this.entries.get(value);
+        if (entry == null) return Collections.emptyList();
+        if (entry instanceof Contact) return Collections.singletonList((Contact) entry);
+        return Collections.unmodifiableCollection(((Map<String, Contact>) entry).values());
+    }
+
+    public void clear() {
+        this.entries.clear();
+    }
+}
@@ -0,0 +1,63 @@
+package com.snebot.fbmoll.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of contacts ordered by unique identifier.
+ * The next page starts right after {@link #getNextCursor()}, so pages stay
+ * stable while contacts are added or removed in between requests.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ContactPage {
+    private final List<Contact> contacts;
+    private final String nextCursor;
+    private final long version;
+
+    public ContactPage(List<Contact> contacts, String nextCursor, long version) {
+        this.contacts = contacts;
+        this.nextCursor = nextCursor;
+        this.version = version;
+    }
+
+    /**
+     * Page of the contacts read after the cursor, one more than the page size
+     * to tell whether there is a next page.
+     *
+     * @param contacts Contacts read, up to size + 1.
+     * @param size     Page size.
+     * @param version  Version the contacts were read from.
+     * @return Contact page.
+     */
+    static ContactPage of(List<Contact> contacts, int size, long version) {
+        String nextCursor = null;
+        if (contacts.size() > size) {
+            contacts = new ArrayList<>(contacts.subList(0, size));
+            nextCursor = contacts.get(size - 1).getUUID();
+        }
+        return new ContactPage(contacts, nextCursor, version);
+    }
+
+    public List<Contact> getContacts() {
+        return this.contacts;
+    }
+
+    /**
+     * Returns the cursor of the next page.
+     *
+     * @return Last unique identifier of this page, null if there are no more contacts.
+     */
+    public String getNextCursor() {
+        return this.nextCursor;
+    }
+
+    /**
+     * Returns the version of the snapshot the page was read from.
+     *
+     * @return Snapshot version.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+}
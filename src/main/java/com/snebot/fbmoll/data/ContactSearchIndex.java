@@ -0,0 +1,202 @@
+package com.snebot.fbmoll.data;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Type-ahead search over name, last name and email.
+ * Words are kept in a sorted map for prefix matches, and name, last name and
+ * the local part of the email are split in trigrams for case insensitive
+ * substring and fuzzy matches. Text is lower cased and stripped of accents.
+ *
+ * @author Serafi Nebot Ginard
+ */
+class ContactSearchIndex {
+    private static final ContactField[] FIELDS = {ContactField.NAME, ContactField.LAST_NAME, ContactField.EMAIL};
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int GRAM = 3;
+    private static final double EXACT_SCORE = 3;
+    private static final double PREFIX_SCORE = 2;
+    private static final double SUBSTRING_SCORE = 1.5;
+    private static final double FUZZY_THRESHOLD = 0.5;
+    private static final Comparator<Map.Entry<Contact, Double>> WORST_FIRST = Map.Entry.<Contact, Double>comparingByValue()
+            .thenComparing(entry -> entry.getKey().getUUID(), Comparator.reverseOrder());
+    /**
+     * Orders scored contacts best first, ties by unique identifier.
+     */
+    static final Comparator<Map.Entry<Contact, Double>> BEST_FIRST = WORST_FIRST.reversed();
+
+    private final NavigableMap<String, Set<Contact>> words = new TreeMap<>();
+    private final Map<String, Set<Contact>> grams = new HashMap<>();
+
+    /**
+     * Index contact by its current attribute values.
+     *
+     * @param contact Contact to index.
+     */
+    public void add(Contact contact) {
+        for (String word : words(contact)) this.words.computeIfAbsent(word, key -> identitySet()).add(contact);
+        for (String gram : grams(contact)) this.grams.computeIfAbsent(gram, key -> identitySet()).add(contact);
+    }
+
+    /**
+     * Remove contact from the index using its current attribute values.
+     *
+     * @param contact Contact to remove.
+     */
+    public void remove(Contact contact) {
+        for (String word : words(contact)) remove(this.words, word, contact);
+        for (String gram : grams(contact)) remove(this.grams, gram, contact);
+    }
+
+    public void clear() {
+        this.words.clear();
+        this.grams.clear();
+    }
+
+    /**
+     * Search contacts matching every word of the query.
+     * Each query word scores its best match: a whole word, then a word prefix,
+     * then a substring and last a fuzzy trigram match. Contacts are ranked by
+     * the sum of their scores.
+     *
+     * @param query Search text.
+     * @param limit Maximum amount of results.
+     * @return Best matching contacts, best first.
+     */
+    public List<Contact> search(String query, int limit) {
+        List<Contact> result = new ArrayList<>();
+        for (Map.Entry<Contact, Double> entry : rank(query, limit)) result.add(entry.getKey());
+        return result;
+    }
+
+    /**
+     * Search contacts matching every word of the query, keeping their scores
+     * so results of several indexes can be merged.
+     *
+     * @see #search(String, int)
+     */
+    public List<Map.Entry<Contact, Double>> rank(String query, int limit) {
+        if (query == null || limit <= 0) return new ArrayList<>();
+        Map<Contact, Double> scores = null;
+        for (String token : tokens(query)) {
+            Map<Contact, Double> matches = match(token);
+            if (scores == null) {
+                scores = matches;
+            } else {
+                Map<Contact, Double> merged = new IdentityHashMap<>();
+                for (Map.Entry<Contact, Double> entry : scores.entrySet()) {
+                    Double score = matches.get(entry.getKey());
+                    if (score != null) merged.put(entry.getKey(), entry.getValue() + score);
+                }
+                scores = merged;
+            }
+            if (scores.isEmpty()) break;
+        }
+        if (scores == null) return new ArrayList<>();
+        return top(scores, limit);
+    }
+
+    private Map<Contact, Double> match(String token) {
+        Map<Contact, Double> scores = new IdentityHashMap<>();
+        for (Map.Entry<String, Set<Contact>> entry : this.words.subMap(token, true, token + Character.MAX_VALUE, false).entrySet()) {
+            String word = entry.getKey();
+            double score = word.length() == token.length() ? EXACT_SCORE : PREFIX_SCORE + (double) token.length() / word.length() / 2;
+            for (Contact contact : entry.getValue()) scores.merge(contact, score, Math::max);
+        }
+        if (token.length() < GRAM) return scores;
+
+        Set<String> queryGrams = grams(token);
+        Map<Contact, Integer> hits = new IdentityHashMap<>();
+        for (String gram : queryGrams) {
+            Set<Contact> contacts = this.grams.get(gram);
+            if (contacts != null) for (Contact contact : contacts) hits.merge(contact, 1, Integer::sum);
+        }
+        for (Map.Entry<Contact, Integer> entry : hits.entrySet()) {
+            Contact contact = entry.getKey();
+            double score;
+            if (entry.getValue() == queryGrams.size() && contains(contact, token)) score = SUBSTRING_SCORE;
+            else score = (double) entry.getValue() / queryGrams.size();
+            if (score >= FUZZY_THRESHOLD) scores.merge(contact, score, Math::max);
+        }
+        return scores;
+    }
+
+    private static List<Map.Entry<Contact, Double>> top(Map<Contact, Double> scores, int limit) {
+        PriorityQueue<Map.Entry<Contact, Double>> best = new PriorityQueue<>(Math.min(limit, scores.size()) + 1, WORST_FIRST);
+        for (Map.Entry<Contact, Double> entry : scores.entrySet()) {
+            best.add(entry);
+            if (best.size() > limit) best.poll();
+        }
+        List<Map.Entry<Contact, Double>> result = new ArrayList<>(best.size());
+        while (!best.isEmpty()) result.add(best.poll());
+        Collections.reverse(result);
+        return result;
+    }
+
+    private static boolean contains(Contact contact, String token) {
+        for (ContactField field : FIELDS) {
+            String value = field.get(contact);
+            if (value != null && normalize(value).contains(token)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whole values and their words, e.g. "anna.smith@mail.com", "anna", "smith", "mail" and "com".
+     */
+    private static Set<String> words(Contact contact) {
+        Set<String> words = new HashSet<>();
+        for (ContactField field : FIELDS) {
+            String value = field.get(contact);
+            if (value == null) continue;
+            String normalized = normalize(value);
+            if (!normalized.isEmpty()) words.add(normalized);
+            words.addAll(tokens(normalized));
+        }
+        return words;
+    }
+
+    private static Set<String> grams(Contact contact) {
+        Set<String> grams = new HashSet<>();
+        for (ContactField field : FIELDS) {
+            String value = field.get(contact);
+            if (value == null) continue;
+            if (field == ContactField.EMAIL && value.indexOf('@') >= 0) value = value.substring(0, value.indexOf('@'));
+            grams.addAll(grams(normalize(value)));
+        }
+        return grams;
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) grams.add(text.substring(i, i + GRAM));
+        return grams;
+    }
+
+    private static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : SEPARATORS.split(normalize(text))) {
+            if (!token.isEmpty()) tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT).trim();
+    }
+
+    private static void remove(Map<String, Set<Contact>> index, String key, Contact contact) {
+        Set<Contact> contacts = index.get(key);
+        if (contacts == null) return;
+        contacts.remove(contact);
+        if (contacts.isEmpty()) index.remove(key);
+    }
+
+    private static Set<Contact> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+}
@@ -0,0 +1,20 @@
+package com.snebot.fbmoll.data;
+
+import java.util.function.Consumer;
+
+/**
+ * Contacts that can be visited as they are found, e.g. to stream them
+ * without collecting them first.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public interface ContactSource {
+    /**
+     * Visit contacts matching the attributes.
+     *
+     * @param action Action run for every matching contact.
+     * @see ContactBook#forEachContact(String, String, String, String, String, String, Consumer)
+     */
+    void forEachContact(String uid, String name, String lastName, String email, String address, String phone,
+                        Consumer<Contact> action);
+}
@@ -0,0 +1,38 @@
+package com.snebot.fbmoll.data;
+
+/**
+ * Where a {@link ConcurrentContactBook} keeps its contacts.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public enum ContactStorage {
+    /**
+     * Contact objects on the heap, in persistent trees shared by every snapshot.
+     * Reads never block and never wait for writers.
+     */
+    HEAP {
+        @Override
+        ContactStore open(ContactBook book) {
+            return new HeapContactStore(book.getContacts());
+        }
+    },
+    /**
+     * Encoded attribute values off the heap, see {@link ColumnarContactStore}. Takes a fraction
+     * of the heap for millions of contacts, but reads share a lock with the writer, searches
+     * only use the unique identifier index and full snapshots materialize every contact.
+     */
+    COLUMNAR {
+        @Override
+        ContactStore open(ContactBook book) {
+            return new ColumnarContactBookStore(book);
+        }
+    };
+
+    /**
+     * Moves the contacts of a book into a new store.
+     *
+     * @param book Contact book, every contact with a unique identifier.
+     * @return Contact store.
+     */
+    abstract ContactStore open(ContactBook book);
+}
@@ -0,0 +1,74 @@
+package com.snebot.fbmoll.data;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Mutable contacts of a {@link ConcurrentContactBook}, see {@link ContactStorage}.
+ * Mutations are serialized by the book, which holds its writer lock while calling them.
+ *
+ * @author Serafi Nebot Ginard
+ */
+interface ContactStore {
+    int size();
+
+    /**
+     * Finds contact by its unique identifier.
+     *
+     * @param uid Unique identifier.
+     * @return Unique contact, null if not found.
+     */
+    Contact findByUUID(String uid);
+
+    /**
+     * Add a contact, replacing the contact with the same unique identifier.
+     *
+     * @param contact Contact with a unique identifier.
+     */
+    void put(Contact contact);
+
+    /**
+     * Remove the contact with the unique identifier, if any.
+     *
+     * @param uid Unique identifier.
+     */
+    void remove(String uid);
+
+    /**
+     * Visit contacts matching the attributes.
+     *
+     * @param values   Searched value of every attribute, null for any value.
+     * @param action   Action run for every matching contact.
+     * @param observer Reports the contacts scanned and returned, may be null.
+     */
+    void forEachContact(String[] values, Consumer<Contact> action, QueryObserver observer);
+
+    /**
+     * Returns contacts matching the attributes in unique identifier order.
+     *
+     * @param values   Searched value of every attribute, null for any value.
+     * @param after    Exclusive lower bound, null to start with the first contact.
+     * @param limit    Maximum amount of contacts.
+     * @param observer Reports the contacts scanned and returned, may be null.
+     * @return Matching contacts.
+     */
+    List<Contact> page(String[] values, String after, int limit, QueryObserver observer);
+
+    /**
+     * Returns true if {@link #snapshot(long, String, QueryObserver)} takes constant
+     * time, so every version can be published and read without locks.
+     *
+     * @return True if snapshots are cheap.
+     */
+    boolean isPersistent();
+
+    /**
+     * Returns a snapshot of the current contacts.
+     *
+     * @param version  Snapshot version.
+     * @param name     Contact book name.
+     * @param observer Query observer of the snapshot, may be null.
+     * @return Contact book snapshot.
+     */
+    ContactBookSnapshot snapshot(long version, String name, QueryObserver observer);
+}
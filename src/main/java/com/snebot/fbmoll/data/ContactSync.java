@@ -0,0 +1,55 @@
+package com.snebot.fbmoll.data;
+
+import java.util.List;
+
+/**
+ * Contacts changed since a sync token, to keep a copy of the contact book up to date.
+ * A full sync holds every contact instead: the copy has to be replaced, e.g. on
+ * the first sync, after a restart or when the removals since the token were forgotten.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ContactSync {
+    private final String token;
+    private final boolean full;
+    private final List<Contact> contacts;
+    private final List<String> removed;
+
+    public ContactSync(String token, boolean full, List<Contact> contacts, List<String> removed) {
+        this.token = token;
+        this.full = full;
+        this.contacts = contacts;
+        this.removed = removed;
+    }
+
+    /**
+     * Returns the token to send on the next sync.
+     *
+     * @return Sync token.
+     */
+    public String getToken() {
+        return this.token;
+    }
+
+    public boolean isFull() {
+        return this.full;
+    }
+
+    /**
+     * Returns the contacts added or updated since the token, or every contact on a full sync.
+     *
+     * @return Changed contacts.
+     */
+    public List<Contact> getContacts() {
+        return this.contacts;
+    }
+
+    /**
+     * Returns the unique identifiers of the contacts removed since the token.
+     *
+     * @return Removed unique identifiers, empty on a full sync.
+     */
+    public List<String> getRemoved() {
+        return this.removed;
+    }
+}
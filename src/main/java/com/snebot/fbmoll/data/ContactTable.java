@@ -0,0 +1,274 @@
+package com.snebot.fbmoll.data;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Immutable contacts of a snapshot with their indexes, all kept in persistent
+ * trees. Adding, replacing or removing a contact returns a new table that
+ * shares everything but O(log n) tree nodes with this one, so every version
+ * carries its indexes forward instead of rebuilding them.
+ * Contacts are ordered by unique identifier. Indexed values map straight to
+ * the contact holding them, or to a bucket of contacts ordered by unique identifier.
+ *
+ * @author Serafi Nebot Ginard
+ */
+final class ContactTable {
+    private static final ContactField[] FIELDS = ContactField.values();
+    private static final ContactField[] INDEXED_FIELDS =
+            {ContactField.NAME, ContactField.LAST_NAME, ContactField.EMAIL, ContactField.PHONE};
+    private static final ContactTable EMPTY = new ContactTable(PersistentTreeMap.empty(), emptyIndexes());
+
+    private final PersistentTreeMap<String, Contact> contacts;
+    private final PersistentTreeMap<String, Object>[] indexes;
+
+    private ContactTable(PersistentTreeMap<String, Contact> contacts, PersistentTreeMap<String, Object>[] indexes) {
+        this.contacts = contacts;
+        this.indexes = indexes;
+    }
+
+    static ContactTable empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds a table sorting the contacts once, instead of adding them one by one.
+     * Contacts without unique identifier are left out, of repeated identifiers the last one is kept.
+     *
+     * @param contacts Contacts.
+     * @return Table holding the contacts.
+     */
+    static ContactTable of(Collection<Contact> contacts) {
+        List<Contact> sorted = new ArrayList<>(contacts.size());
+        for (Contact contact : contacts) if (contact.getUUID() != null) sorted.add(contact);
+        sorted.sort(Comparator.comparing(Contact::getUUID));
+        List<String> keys = new ArrayList<>(sorted.size());
+        List<Contact> values = new ArrayList<>(sorted.size());
+        for (Contact contact : sorted) {
+            if (!keys.isEmpty() && keys.get(keys.size() - 1).equals(contact.getUUID())) {
+                values.set(values.size() - 1, contact);
+                continue;
+            }
+            keys.add(contact.getUUID());
+            values.add(contact);
+        }
+
+        PersistentTreeMap<String, Object>[] indexes = emptyIndexes();
+        for (ContactField field : INDEXED_FIELDS) {
+            List<Contact> holders = new ArrayList<>(values.size());
+            for (Contact contact : values) if (field.get(contact) != null) holders.add(contact);
+            // Stable sort, contacts of a value stay ordered by unique identifier.
+            holders.sort(Comparator.comparing(field::get));
+            indexes[field.ordinal()] = buildIndex(field, holders);
+        }
+        return new ContactTable(PersistentTreeMap.fromSorted(keys, values), indexes);
+    }
+
+    private static PersistentTreeMap<String, Object> buildIndex(ContactField field, List<Contact> holders) {
+        List<String> keys = new ArrayList<>();
+        List<Object> entries = new ArrayList<>();
+        int from = 0;
+        while (from < holders.size()) {
+            String value = field.get(holders.get(from));
+            int to = from + 1;
+            while (to < holders.size() && value.equals(field.get(holders.get(to)))) to++;
+            keys.add(value);
+            if (to - from == 1) {
+                entries.add(holders.get(from));
+            } else {
+                List<Contact> bucket = holders.subList(from, to);
+                List<String> uuids = new ArrayList<>(bucket.size());
+                for (Contact contact : bucket) uuids.add(contact.getUUID());
+                entries.add(PersistentTreeMap.fromSorted(uuids, bucket));
+            }
+            from = to;
+        }
+        return PersistentTreeMap.fromSorted(keys, entries);
+    }
+
+    public int size() {
+        return this.contacts.size();
+    }
+
+    public Contact findByUUID(String uid) {
+        return uid == null ? null : this.contacts.get(uid);
+    }
+
+    /**
+     * Returns a table holding the contact, replacing the contact with the same unique identifier.
+     *
+     * @param contact Contact with a unique identifier.
+     * @return New table.
+     */
+    public ContactTable with(Contact contact) {
+        Contact existing = this.contacts.get(contact.getUUID());
+        PersistentTreeMap<String, Object>[] indexes = this.indexes.clone();
+        for (ContactField field : INDEXED_FIELDS) {
+            int i = field.ordinal();
+            String value = field.get(contact);
+            // An unchanged value only swaps the contact object in place.
+            if (existing != null && !Objects.equals(field.get(existing), value))
+                indexes[i] = unindex(indexes[i], field.get(existing), existing.getUUID());
+            indexes[i] = index(indexes[i], value, contact);
+        }
+        return new ContactTable(this.contacts.put(contact.getUUID(), contact), indexes);
+    }
+
+    /**
+     * Returns a table without the contact with the unique identifier.
+     *
+     * @param uid Unique identifier.
+     * @return New table, or this table if the contact is not in it.
+     */
+    public ContactTable without(String uid) {
+        Contact existing = findByUUID(uid);
+        if (existing == null) return this;
+        PersistentTreeMap<String, Object>[] indexes = this.indexes.clone();
+        for (ContactField field : INDEXED_FIELDS) {
+            int i = field.ordinal();
+            indexes[i] = unindex(indexes[i], field.get(existing), uid);
+        }
+        return new ContactTable(this.contacts.remove(uid), indexes);
+    }
+
+    /**
+     * Returns every contact ordered by unique identifier, as a list backed by the table.
+     * Positional access takes O(log n), iteration is linear.
+     *
+     * @return Read-only contact list.
+     */
+    public List<Contact> asList() {
+        PersistentTreeMap<String, Contact> contacts = this.contacts;
+        return new AbstractList<Contact>() {
+            @Override
+            public Contact get(int index) {
+                return contacts.getAt(index);
+            }
+
+            @Override
+            public int size() {
+                return contacts.size();
+            }
+
+            @Override
+            public Iterator<Contact> iterator() {
+                return contacts.values();
+            }
+        };
+    }
+
+    /**
+     * Visit contacts matching the attributes in unique identifier order.
+     *
+     * @param observer Reports the contacts scanned and returned, may be null.
+     * @see ContactBook#forEachContact(String, String, String, String, String, String, Consumer)
+     */
+    public void forEachContact(String[] values, Consumer<Contact> action, QueryObserver observer) {
+        PersistentTreeMap<String, Contact> candidates = candidates(values);
+        int[] returned = {0};
+        candidates.forEach((uid, contact) -> {
+            if (!matches(contact, values)) return;
+            action.accept(contact);
+            returned[0]++;
+        });
+        if (observer != null) observer.queryExecuted(ContactBook.queryShape(values), candidates.size(), returned[0]);
+    }
+
+    /**
+     * Returns contacts matching the attributes in unique identifier order, starting
+     * after a unique identifier. Walks the candidates from the cursor on, so a page
+     * costs O(log n) plus the contacts it scans, never a sort.
+     *
+     * @param values   Searched value of every attribute, null for any value.
+     * @param after    Exclusive lower bound, null to start with the first contact.
+     * @param limit    Maximum amount of contacts.
+     * @param observer Reports the contacts scanned and returned, may be null.
+     * @return Matching contacts.
+     */
+    public List<Contact> page(String[] values, String after, int limit, QueryObserver observer) {
+        PersistentTreeMap<String, Contact> candidates = candidates(values);
+        List<Contact> page = new ArrayList<>(Math.min(limit, candidates.size()));
+        int scanned = 0;
+        for (Iterator<Contact> iterator = candidates.valuesAfter(after); iterator.hasNext() && page.size() < limit; ) {
+            Contact contact = iterator.next();
+            scanned++;
+            if (matches(contact, values)) page.add(contact);
+        }
+        if (observer != null) observer.queryExecuted(ContactBook.queryShape(values), scanned, page.size());
+        return page;
+    }
+
+    /**
+     * Query planner: picks the smallest set of contacts that can satisfy a search,
+     * like {@link ContactBook} does, keeping it ordered by unique identifier.
+     *
+     * @param values Searched value of every attribute, null for any value.
+     * @return Contacts that still have to be filtered.
+     */
+    @SuppressWarnings("unchecked")
+    private PersistentTreeMap<String, Contact> candidates(String[] values) {
+        String uid = values[ContactField.UUID.ordinal()];
+        if (uid != null) return single(this.contacts.get(uid));
+
+        PersistentTreeMap<String, Contact> best = this.contacts;
+        for (ContactField field : INDEXED_FIELDS) {
+            String value = values[field.ordinal()];
+            if (value == null) continue;
+            Object entry = this.indexes[field.ordinal()].get(value);
+            PersistentTreeMap<String, Contact> match = entry instanceof Contact ? single((Contact) entry)
+                    : entry != null ? (PersistentTreeMap<String, Contact>) entry : PersistentTreeMap.empty();
+            if (match.size() < best.size()) best = match;
+            if (best.isEmpty()) break;
+        }
+        return best;
+    }
+
+    private static PersistentTreeMap<String, Contact> single(Contact contact) {
+        PersistentTreeMap<String, Contact> empty = PersistentTreeMap.empty();
+        return contact == null ? empty : empty.put(contact.getUUID(), contact);
+    }
+
+    static boolean matches(Contact contact, String[] values) {
+        for (ContactField field : FIELDS) {
+            String value = values[field.ordinal()];
+            if (value != null && !StringUtils.equals(field.get(contact), value)) return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PersistentTreeMap<String, Object> index(PersistentTreeMap<String, Object> index, String value, Contact contact) {
+        if (value == null) return index;
+        Object entry = index.get(value);
+        if (entry == null) return index.put(value, contact);
+        PersistentTreeMap<String, Contact> bucket;
+        if (entry instanceof Contact) {
+            Contact single = (Contact) entry;
+            if (single.getUUID().equals(contact.getUUID())) return index.put(value, contact);
+            bucket = PersistentTreeMap.<String, Contact>empty().put(single.getUUID(), single);
+        } else {
+            bucket = (PersistentTreeMap<String, Contact>) entry;
+        }
+        return index.put(value, bucket.put(contact.getUUID(), contact));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PersistentTreeMap<String, Object> unindex(PersistentTreeMap<String, Object> index, String value, String uid) {
+        if (value == null) return index;
+        Object entry = index.get(value);
+        if (entry instanceof Contact) return ((Contact) entry).getUUID().equals(uid) ? index.remove(value) : index;
+        if (entry == null) return index;
+        PersistentTreeMap<String, Contact> bucket = ((PersistentTreeMap<String, Contact>) entry).remove(uid);
+        if (bucket.isEmpty()) return index.remove(value);
+        return index.put(value, bucket.size() == 1 ? bucket.getAt(0) : bucket);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PersistentTreeMap<String, Object>[] emptyIndexes() {
+        PersistentTreeMap<String, Object>[] indexes = new PersistentTreeMap[FIELDS.length];
+        for (ContactField field : INDEXED_FIELDS) indexes[field.ordinal()] = PersistentTreeMap.empty();
+        return indexes;
+    }
+}
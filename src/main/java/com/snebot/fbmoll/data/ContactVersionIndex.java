@@ -0,0 +1,142 @@
+package com.snebot.fbmoll.data;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Version of the last change of every contact, and tombstones of removed contacts.
+ * Versions come from a single counter, so every change gets a greater version
+ * than the ones before it whatever shard it happened in. Contacts not changed
+ * since loading have version 0.
+ * <p>
+ * Versions are kept in memory and restart on every run, so tokens carry the
+ * epoch of the index they came from. Only the latest tombstones are kept, older
+ * tokens get a full sync.
+ *
+ * @author Serafi Nebot Ginard
+ */
+class ContactVersionIndex implements ContactBookListener {
+    static final int DEFAULT_MAX_TOMBSTONES = 100000;
+
+    private static class Change {
+        private final String uuid;
+        private final Contact contact;
+
+        Change(String uuid, Contact contact) {
+            this.uuid = uuid;
+            this.contact = contact;
+        }
+    }
+
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 1);
+    private final Map<String, Long> versions = new HashMap<>();
+    private final TreeMap<Long, Change> changes = new TreeMap<>();
+    private final ArrayDeque<Long> tombstoneOrder = new ArrayDeque<>();
+    private int maxTombstones = DEFAULT_MAX_TOMBSTONES;
+    private int tombstones = 0;
+    private long version = 0;
+    private long horizon = 0;
+
+    String getEpoch() {
+        return this.epoch;
+    }
+
+    synchronized void setMaxTombstones(int maxTombstones) {
+        this.maxTombstones = Math.max(0, maxTombstones);
+        trim();
+    }
+
+    synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @param uid Unique identifier.
+     * @return Version of the last change of the contact, 0 if not changed since loading.
+     */
+    synchronized long getVersion(String uid) {
+        return this.versions.getOrDefault(uid, 0L);
+    }
+
+    @Override
+    public void contactAdded(Contact contact) {
+        changed(contact.getUUID(), contact);
+    }
+
+    @Override
+    public void contactUpdated(Contact previous, Contact contact) {
+        changed(contact.getUUID(), contact);
+    }
+
+    @Override
+    public void contactRemoved(Contact contact) {
+        changed(contact.getUUID(), null);
+    }
+
+    private synchronized void changed(String uid, Contact contact) {
+        long version = ++this.version;
+        Long previous = this.versions.put(uid, version);
+        if (previous != null && this.changes.remove(previous).contact == null) this.tombstones--;
+        this.changes.put(version, new Change(uid, contact));
+        if (contact == null) {
+            this.tombstones++;
+            this.tombstoneOrder.add(version);
+            trim();
+        }
+    }
+
+    /**
+     * Forget the oldest tombstones beyond the limit. Tokens older than a
+     * forgotten tombstone can no longer be synced incrementally.
+     */
+    private void trim() {
+        while (this.tombstones > this.maxTombstones) {
+            long version = this.tombstoneOrder.poll();
+            Change change = this.changes.get(version);
+            if (change == null || change.contact != null) continue;
+            this.changes.remove(version);
+            this.versions.remove(change.uuid);
+            this.tombstones--;
+            this.horizon = version;
+        }
+        if (this.tombstoneOrder.size() > 2 * this.tombstones + 16) {
+            this.tombstoneOrder.removeIf(version -> {
+                Change change = this.changes.get(version);
+                return change == null || change.contact != null;
+            });
+        }
+    }
+
+    synchronized String token() {
+        return this.epoch + "-" + this.version;
+    }
+
+    /**
+     * Returns the changes after a token.
+     *
+     * @param token Token of a previous sync.
+     * @return Changes since the token, null if the token cannot be synced incrementally.
+     */
+    synchronized ContactSync since(String token) {
+        long since = parse(token);
+        if (since < this.horizon || since > this.version) return null;
+        List<Contact> contacts = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (Change change : this.changes.tailMap(since, false).values()) {
+            if (change.contact != null) contacts.add(change.contact);
+            else removed.add(change.uuid);
+        }
+        return new ContactSync(token(), false, contacts, removed);
+    }
+
+    private long parse(String token) {
+        if (token == null) return -1;
+        int separator = token.lastIndexOf('-');
+        if (separator < 0 || !this.epoch.equals(token.substring(0, separator))) return -1;
+        try {
+            return Long.parseLong(token.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.snebot.fbmoll.data;
+
+import java.util.List;
+
+/**
+ * Contacts with the same normalized key attributes.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class DuplicateGroup {
+    private final List<String> values;
+    private final List<Contact> contacts;
+
+    /**
+     * @param values   Normalized key attributes, in the order of {@link DuplicateKey#getFields()}.
+     * @param contacts Duplicate contacts, lowest unique identifier first.
+     */
+    public DuplicateGroup(List<String> values, List<Contact> contacts) {
+        this.values = values;
+        this.contacts = contacts;
+    }
+
+    public List<String> getValues() {
+        return this.values;
+    }
+
+    public List<Contact> getContacts() {
+        return this.contacts;
+    }
+}
@@ -0,0 +1,44 @@
+package com.snebot.fbmoll.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Attributes compared to tell whether two contacts are the same person.
+ * Values are compared once normalized, see {@link ContactDeduplicator#normalize(ContactField, String)}.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public enum DuplicateKey {
+    /**
+     * Every attribute, like {@link Contact#similar(Contact)}.
+     */
+    CONTACT(ContactField.NAME, ContactField.LAST_NAME, ContactField.EMAIL, ContactField.ADDRESS, ContactField.PHONE),
+    /**
+     * Email address.
+     */
+    EMAIL(ContactField.EMAIL),
+    /**
+     * Phone number.
+     */
+    PHONE(ContactField.PHONE),
+    /**
+     * Name and last name.
+     */
+    NAME(ContactField.NAME, ContactField.LAST_NAME);
+
+    private final ContactField[] fields;
+
+    DuplicateKey(ContactField... fields) {
+        this.fields = fields;
+    }
+
+    public List<ContactField> getFields() {
+        return Collections.unmodifiableList(Arrays.asList(this.fields));
+    }
+
+    ContactField[] fields() {
+        return this.fields;
+    }
+}
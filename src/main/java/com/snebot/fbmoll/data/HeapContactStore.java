@@ -0,0 +1,60 @@
+package com.snebot.fbmoll.data;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Contacts kept on the heap in a persistent {@link ContactTable}. Every mutation
+ * swaps the table for a new version, which snapshots share as they are.
+ * Only the writer may call this store, readers go through the published snapshots.
+ *
+ * @author Serafi Nebot Ginard
+ */
+final class HeapContactStore implements ContactStore {
+    private ContactTable table;
+
+    HeapContactStore(Collection<Contact> contacts) {
+        this.table = ContactTable.of(contacts);
+    }
+
+    @Override
+    public int size() {
+        return this.table.size();
+    }
+
+    @Override
+    public Contact findByUUID(String uid) {
+        return this.table.findByUUID(uid);
+    }
+
+    @Override
+    public void put(Contact contact) {
+        this.table = this.table.with(contact);
+    }
+
+    @Override
+    public void remove(String uid) {
+        this.table = this.table.without(uid);
+    }
+
+    @Override
+    public void forEachContact(String[] values, Consumer<Contact> action, QueryObserver observer) {
+        this.table.forEachContact(values, action, observer);
+    }
+
+    @Override
+    public List<Contact> page(String[] values, String after, int limit, QueryObserver observer) {
+        return this.table.page(values, after, limit, observer);
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public ContactBookSnapshot snapshot(long version, String name, QueryObserver observer) {
+        return new ContactBookSnapshot(version, name, this.table, observer);
+    }
+}
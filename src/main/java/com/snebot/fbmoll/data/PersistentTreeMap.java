@@ -0,0 +1,263 @@
+package com.snebot.fbmoll.data;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable sorted map, a balanced AVL tree updated by path copying.
+ * Every update returns a new map sharing all but the O(log n) nodes on the
+ * path to the changed key with the previous one, so versions are cheap to
+ * keep and safe to read from any thread without locks.
+ * Nodes count their descendants, which gives positional access to entries.
+ *
+ * @param <K> Key type, null keys are not supported.
+ * @param <V> Value type.
+ * @author Serafi Nebot Ginard
+ */
+final class PersistentTreeMap<K extends Comparable<? super K>, V> {
+    private static final PersistentTreeMap<?, ?> EMPTY = new PersistentTreeMap<>(null);
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final Node<K, V> left;
+        final Node<K, V> right;
+        final int height;
+        final int size;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    private final Node<K, V> root;
+
+    private PersistentTreeMap(Node<K, V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K extends Comparable<? super K>, V> PersistentTreeMap<K, V> empty() {
+        return (PersistentTreeMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Builds a balanced map in linear time from entries already sorted by key.
+     *
+     * @param keys   Keys in strictly ascending order.
+     * @param values Value of every key.
+     * @return Map holding the entries.
+     */
+    static <K extends Comparable<? super K>, V> PersistentTreeMap<K, V> fromSorted(List<K> keys, List<V> values) {
+        if (keys.isEmpty()) return empty();
+        return new PersistentTreeMap<>(build(keys, values, 0, keys.size()));
+    }
+
+    private static <K, V> Node<K, V> build(List<K> keys, List<V> values, int from, int to) {
+        if (from >= to) return null;
+        int middle = (from + to) >>> 1;
+        return new Node<>(keys.get(middle), values.get(middle), build(keys, values, from, middle), build(keys, values, middle + 1, to));
+    }
+
+    public int size() {
+        return size(this.root);
+    }
+
+    public boolean isEmpty() {
+        return this.root == null;
+    }
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key Key.
+     * @return Value, null if the key is not in the map.
+     */
+    public V get(K key) {
+        Node<K, V> node = this.root;
+        while (node != null) {
+            int order = key.compareTo(node.key);
+            if (order == 0) return node.value;
+            node = order < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value at a position in key order.
+     *
+     * @param index Position, from 0 to size - 1.
+     * @return Value.
+     */
+    public V getAt(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException(String.valueOf(index));
+        Node<K, V> node = this.root;
+        while (true) {
+            int left = size(node.left);
+            if (index == left) return node.value;
+            if (index < left) {
+                node = node.left;
+            } else {
+                index -= left + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Returns a map with the key set to the value.
+     *
+     * @param key   Key.
+     * @param value Value.
+     * @return New map, or this map if the key already holds this very value.
+     */
+    public PersistentTreeMap<K, V> put(K key, V value) {
+        Node<K, V> root = put(this.root, key, value);
+        return root == this.root ? this : new PersistentTreeMap<>(root);
+    }
+
+    /**
+     * Returns a map without the key.
+     *
+     * @param key Key.
+     * @return New map, or this map if the key is not in it.
+     */
+    public PersistentTreeMap<K, V> remove(K key) {
+        Node<K, V> root = remove(this.root, key);
+        return root == this.root ? this : new PersistentTreeMap<>(root);
+    }
+
+    /**
+     * Iterates values in key order.
+     *
+     * @return Value iterator.
+     */
+    public Iterator<V> values() {
+        return valuesAfter(null);
+    }
+
+    /**
+     * Iterates values in key order, starting after a key which needs not be in the map.
+     *
+     * @param after Exclusive lower bound, null to start with the first key.
+     * @return Value iterator.
+     */
+    public Iterator<V> valuesAfter(K after) {
+        Deque<Node<K, V>> path = new ArrayDeque<>();
+        Node<K, V> node = this.root;
+        while (node != null) {
+            if (after == null || node.key.compareTo(after) > 0) {
+                path.push(node);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return new Iterator<V>() {
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public V next() {
+                if (path.isEmpty()) throw new NoSuchElementException();
+                Node<K, V> next = path.pop();
+                for (Node<K, V> child = next.right; child != null; child = child.left) path.push(child);
+                return next.value;
+            }
+        };
+    }
+
+    /**
+     * Visit every entry in key order.
+     *
+     * @param action Action run for every entry.
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(this.root, action);
+    }
+
+    private static <K, V> void forEach(Node<K, V> node, BiConsumer<? super K, ? super V> action) {
+        while (node != null) {
+            forEach(node.left, action);
+            action.accept(node.key, node.value);
+            node = node.right;
+        }
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> put(Node<K, V> node, K key, V value) {
+        if (node == null) return new Node<>(key, value, null, null);
+        int order = key.compareTo(node.key);
+        if (order == 0) return node.value == value ? node : new Node<>(node.key, value, node.left, node.right);
+        if (order < 0) {
+            Node<K, V> left = put(node.left, key, value);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        Node<K, V> right = put(node.right, key, value);
+        return right == node.right ? node : balance(node.key, node.value, node.left, right);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> remove(Node<K, V> node, K key) {
+        if (node == null) return null;
+        int order = key.compareTo(node.key);
+        if (order < 0) {
+            Node<K, V> left = remove(node.left, key);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        if (order > 0) {
+            Node<K, V> right = remove(node.right, key);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+        if (node.left == null) return node.right;
+        if (node.right == null) return node.left;
+        Node<K, V> first = node.right;
+        while (first.left != null) first = first.left;
+        return balance(first.key, first.value, node.left, removeFirst(node.right));
+    }
+
+    private static <K, V> Node<K, V> removeFirst(Node<K, V> node) {
+        if (node.left == null) return node.right;
+        return balance(node.key, node.value, removeFirst(node.left), node.right);
+    }
+
+    /**
+     * Joins two subtrees whose heights differ by at most two, rotating once or twice to keep them balanced.
+     */
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right))
+                return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+            Node<K, V> pivot = left.right;
+            return new Node<>(pivot.key, pivot.value, new Node<>(left.key, left.value, left.left, pivot.left),
+                    new Node<>(key, value, pivot.right, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left))
+                return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+            Node<K, V> pivot = right.left;
+            return new Node<>(pivot.key, pivot.value, new Node<>(key, value, left, pivot.left),
+                    new Node<>(right.key, right.value, pivot.right, right.right));
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+}
@@ -0,0 +1,111 @@
+package com.snebot.fbmoll.data;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of attribute search results.
+ * Results are keyed by the searched attribute values and tagged with the
+ * contact book version they were read at, so any mutation makes them stale.
+ * The cache holds at most a number of queries and a number of contact
+ * references in total, evicting the least recently used queries first.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class QueryCache {
+    private final int maxEntries;
+    private final long maxContacts;
+    private final LinkedHashMap<List<String>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long contacts = 0;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static class Entry {
+        private final long version;
+        private final Contact[] contacts;
+
+        Entry(long version, Contact[] contacts) {
+            this.version = version;
+            this.contacts = contacts;
+        }
+    }
+
+    /**
+     * @param maxEntries  Maximum amount of cached queries.
+     * @param maxContacts Maximum amount of contacts in all cached results.
+     */
+    public QueryCache(int maxEntries, long maxContacts) {
+        this.maxEntries = maxEntries;
+        this.maxContacts = maxContacts;
+    }
+
+    /**
+     * Returns the cached result of a query.
+     *
+     * @param version Current contact book version.
+     * @param values  Searched attribute values, null for attributes not searched.
+     * @return Copy of the cached result, null if missing or read at another version.
+     */
+    public synchronized List<Contact> get(long version, String... values) {
+        Entry entry = this.entries.get(Arrays.asList(values));
+        if (entry == null || entry.version != version) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return new ArrayList<>(Arrays.asList(entry.contacts));
+    }
+
+    /**
+     * Cache the result of a query. Results bigger than the whole cache are not cached.
+     *
+     * @param version Contact book version the result was read at, or an older one.
+     * @param result  Query result.
+     * @param values  Searched attribute values, null for attributes not searched.
+     */
+    public synchronized void put(long version, List<Contact> result, String... values) {
+        if (result.size() > this.maxContacts || this.maxEntries <= 0) return;
+        Entry previous = this.entries.put(Arrays.asList(values.clone()), new Entry(version, result.toArray(new Contact[0])));
+        if (previous != null) this.contacts -= previous.contacts.length;
+        this.contacts += result.size();
+
+        Iterator<Entry> eldest = this.entries.values().iterator();
+        while (this.entries.size() > this.maxEntries || this.contacts > this.maxContacts) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            this.contacts -= evicted.contacts.length;
+            this.evictions.increment();
+        }
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+        this.contacts = 0;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the amount of contact references held by all cached results.
+     *
+     * @return Amount of cached contacts.
+     */
+    public synchronized long getCachedContacts() {
+        return this.contacts;
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+}
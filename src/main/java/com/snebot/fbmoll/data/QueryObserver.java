@@ -0,0 +1,17 @@
+package com.snebot.fbmoll.data;
+
+/**
+ * Receives the cost of every attribute search, e.g. to collect metrics.
+ * Called on the searching thread, so implementations must be thread safe and cheap.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@FunctionalInterface
+public interface QueryObserver {
+    /**
+     * @param shape    Searched attributes joined by "+", e.g. "name+email", or "all" for none.
+     * @param scanned  Contacts compared against the search.
+     * @param returned Contacts matching the search.
+     */
+    void queryExecuted(String shape, int scanned, int returned);
+}
@@ -0,0 +1,429 @@
+package com.snebot.fbmoll.data;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Contact book split into shards by unique identifier hash.
+ * Every shard is a {@link ConcurrentContactBook} with its own lock and
+ * snapshots, so writes to different shards never wait for each other.
+ * Lookups by unique identifier go to a single shard, any other search fans
+ * out to every shard on a fork-join pool and results are merged in shard order.
+ * A single shard behaves exactly like a {@link ConcurrentContactBook}.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ShardedContactBook implements ContactSource {
+    private final String name;
+    private final ConcurrentContactBook[] shards;
+    private final ForkJoinPool pool;
+    private final boolean rebalanced;
+    private final ContactVersionIndex versions = new ContactVersionIndex();
+    private volatile QueryCache queryCache = null;
+
+    /**
+     * Distributes loaded contact books into shards. Books already holding the
+     * contacts of their shard are used as they are, any other contact is moved
+     * to its shard, keeping the first contact of every unique identifier.
+     *
+     * @param name  Contact book name.
+     * @param count Amount of shards.
+     * @param books Loaded contact books, usually one per shard.
+     * @param pool  Pool used to search shards in parallel.
+     */
+    public ShardedContactBook(String name, int count, List<ContactBook> books, ForkJoinPool pool) {
+        this(name, count, books, pool, ContactStorage.HEAP);
+    }
+
+    /**
+     * @param storage Where every shard keeps its contacts.
+     * @see #ShardedContactBook(String, int, List, ForkJoinPool)
+     */
+    public ShardedContactBook(String name, int count, List<ContactBook> books, ForkJoinPool pool, ContactStorage storage) {
+        if (count < 1) throw new IllegalArgumentException("at least one shard is required");
+        this.name = name;
+        this.pool = pool;
+        this.shards = new ConcurrentContactBook[count];
+
+        // Contacts are routed by unique identifier, so missing ones are assigned first.
+        books.forEach(ContactBook::assignMissingUUIDs);
+        ContactBook[] homes = new ContactBook[count];
+        List<ContactBook> moved = new ArrayList<>();
+        for (int i = 0; i < books.size(); i++) {
+            ContactBook book = books.get(i);
+            if (i < count && homes[i] == null && isHome(book, i, count)) homes[i] = book;
+            else moved.add(book);
+        }
+        for (int i = 0; i < count; i++) {
+            if (homes[i] == null) homes[i] = new ContactBook();
+            homes[i].setName(name);
+        }
+        for (ContactBook book : moved) {
+            for (Contact contact : book.getContacts()) {
+                ContactBook home = homes[shardOf(contact.getUUID(), count)];
+                if (home.findByUUID(contact.getUUID()) == null) home.putContact(contact);
+            }
+        }
+        this.rebalanced = !moved.isEmpty();
+        for (int i = 0; i < count; i++) this.shards[i] = new ConcurrentContactBook(homes[i], storage);
+        addListener(this.versions);
+    }
+
+    private static boolean isHome(ContactBook book, int shard, int count) {
+        for (Contact contact : book.getContacts()) {
+            if (shardOf(contact.getUUID(), count) != shard) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the shard of a unique identifier.
+     *
+     * @param uid   Unique identifier.
+     * @param count Amount of shards.
+     * @return Shard index.
+     */
+    public static int shardOf(String uid, int count) {
+        if (uid == null || count == 1) return 0;
+        int hash = uid.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), count);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    public ConcurrentContactBook getShard(int index) {
+        return this.shards[index];
+    }
+
+    /**
+     * Returns true if loading moved contacts between shards, e.g. after
+     * changing the amount of shards, so the shards should be saved again.
+     *
+     * @return True if contacts were moved.
+     */
+    public boolean isRebalanced() {
+        return this.rebalanced;
+    }
+
+    public void addListener(ContactBookListener listener) {
+        for (ConcurrentContactBook shard : this.shards) shard.addListener(listener);
+    }
+
+    public void setQueryObserver(QueryObserver observer) {
+        for (ConcurrentContactBook shard : this.shards) shard.setQueryObserver(observer);
+    }
+
+    /**
+     * Serve repeated attribute searches from a cache until the next mutation.
+     *
+     * @param cache Query cache, null to search every time.
+     */
+    public void setQueryCache(QueryCache cache) {
+        this.queryCache = cache;
+    }
+
+    /**
+     * Returns a version that grows with every mutation of any shard.
+     *
+     * @return Contact book version.
+     */
+    public long getVersion() {
+        long version = 0;
+        for (ConcurrentContactBook shard : this.shards) version += shard.getVersion();
+        return version;
+    }
+
+    /**
+     * Returns an entity tag that changes with every mutation. Versions restart with
+     * every run, so the tag carries the epoch of the run and tags of a previous run
+     * never match, see {@link ContactVersionIndex}.
+     *
+     * @return Entity tag of the current contacts, without quotes.
+     */
+    public String getETag() {
+        return this.versions.getEpoch() + "-" + getVersion();
+    }
+
+    /**
+     * Keep at most this many tombstones of removed contacts for incremental syncs.
+     *
+     * @param maxTombstones Maximum amount of tombstones.
+     */
+    public void setMaxTombstones(int maxTombstones) {
+        this.versions.setMaxTombstones(maxTombstones);
+    }
+
+    /**
+     * Returns the version of the last change of a contact, or of its removal.
+     * Versions grow with every change of any shard.
+     *
+     * @param uid Unique identifier.
+     * @return Contact version, 0 if not changed since loading.
+     */
+    public long getContactVersion(String uid) {
+        return this.versions.getVersion(uid);
+    }
+
+    /**
+     * Returns the contacts changed and removed since a previous sync.
+     * Every contact is returned instead when the token is missing, comes from
+     * another run or is older than the tombstones kept.
+     *
+     * @param token Token returned by the previous sync, null for the first sync.
+     * @return Changes since the token, with the token of the next sync.
+     */
+    public ContactSync sync(String token) {
+        ContactSync changes = this.versions.since(token);
+        if (changes != null) return changes;
+        String next = this.versions.token();
+        List<Contact> contacts = new ArrayList<>(size());
+        forEachContact(null, null, null, null, null, null, contacts::add);
+        return new ContactSync(next, true, contacts, Collections.emptyList());
+    }
+
+    public int size() {
+        int size = 0;
+        for (ConcurrentContactBook shard : this.shards) size += shard.size();
+        return size;
+    }
+
+    /**
+     * Returns the last published snapshot of every shard merged into one.
+     * With several shards this copies every contact reference, meant for full
+     * exports and persistence rather than searches.
+     *
+     * @return Contact book snapshot.
+     */
+    public ContactBookSnapshot snapshot() {
+        if (this.shards.length == 1) return this.shards[0].snapshot();
+        List<ContactBookSnapshot> snapshots = new ArrayList<>(this.shards.length);
+        for (ConcurrentContactBook shard : this.shards) snapshots.add(shard.snapshot());
+        return ContactBookSnapshot.merge(this.name, snapshots);
+    }
+
+    public Contact findByUUID(String uid) {
+        return shard(uid).findByUUID(uid);
+    }
+
+    /**
+     * Search contact by attributes on every shard, through the query cache if set.
+     * The version is read before searching, so a cached result is never newer than its tag.
+     *
+     * @return List of matching contacts.
+     * @see ContactBook#getContacts(String, String, String, String, String, String)
+     */
+    public List<Contact> getContacts(String uid, String name, String lastName, String email, String address, String phone) {
+        if (uid != null) return shard(uid).getContacts(uid, name, lastName, email, address, phone);
+        QueryCache cache = this.queryCache;
+        if (cache == null) return merge(fanOut(shard -> shard.getContacts(null, name, lastName, email, address, phone)));
+
+        long version = getVersion();
+        List<Contact> result = cache.get(version, name, lastName, email, address, phone);
+        if (result != null) return result;
+        result = merge(fanOut(shard -> shard.getContacts(null, name, lastName, email, address, phone)));
+        cache.put(version, result, name, lastName, email, address, phone);
+        return result;
+    }
+
+    /**
+     * Visit contacts matching the attributes, one shard after the other.
+     *
+     * @see ConcurrentContactBook#forEachContact(String, String, String, String, String, String, Consumer)
+     */
+    @Override
+    public void forEachContact(String uid, String name, String lastName, String email, String address, String phone,
+                               Consumer<Contact> action) {
+        for (ConcurrentContactBook shard : this.shards)
+            shard.forEachContact(uid, name, lastName, email, address, phone, action);
+    }
+
+    /**
+     * Find duplicate contacts in a single pass over every shard.
+     *
+     * @param key Attributes compared.
+     * @return Groups of duplicate contacts.
+     * @see ContactDeduplicator
+     */
+    public List<DuplicateGroup> findDuplicates(DuplicateKey key) {
+        ContactDeduplicator deduplicator = new ContactDeduplicator(key, size());
+        forEachContact(null, null, null, null, null, null, deduplicator::add);
+        return deduplicator.getGroups();
+    }
+
+    /**
+     * Type-ahead search on every shard, keeping the best results overall.
+     *
+     * @see ContactBook#search(String, int)
+     */
+    public List<Contact> search(String query, int limit) {
+        if (this.shards.length == 1) return this.shards[0].search(query, limit);
+        List<Map.Entry<Contact, Double>> ranked = new ArrayList<>();
+        fanOut(shard -> shard.searchRanked(query, limit)).forEach(ranked::addAll);
+        ranked.sort(ContactSearchIndex.BEST_FIRST);
+        return ranked.stream().limit(limit).map(Map.Entry::getKey).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a page of contacts matching the attributes, merging the pages of every shard.
+     *
+     * @see ConcurrentContactBook#getPage(String, String, String, String, String, String, String, int)
+     */
+    public ContactPage getPage(String uid, String name, String lastName, String email, String address, String phone,
+                               String cursor, int limit) {
+        if (this.shards.length == 1) return this.shards[0].getPage(uid, name, lastName, email, address, phone, cursor, limit);
+        int size = Math.max(1, Math.min(limit, ContactBookSnapshot.MAX_PAGE_SIZE));
+        List<ContactPage> pages = fanOut(shard -> shard.getPage(uid, name, lastName, email, address, phone, cursor, size));
+        List<Contact> contacts = new ArrayList<>();
+        boolean more = false;
+        long version = 0;
+        for (ContactPage page : pages) {
+            contacts.addAll(page.getContacts());
+            more |= page.getNextCursor() != null;
+            version += page.getVersion();
+        }
+        contacts.sort(Comparator.comparing(Contact::getUUID));
+        String nextCursor = null;
+        if (contacts.size() > size) {
+            contacts = new ArrayList<>(contacts.subList(0, size));
+            more = true;
+        }
+        if (more) nextCursor = contacts.get(contacts.size() - 1).getUUID();
+        return new ContactPage(contacts, nextCursor, version);
+    }
+
+    /**
+     * Add contact with a new unique identifier.
+     *
+     * @param contact Contact to add.
+     * @return Added contact.
+     */
+    public Contact addContact(Contact contact) {
+        String uuid;
+        do {
+            uuid = ContactIdGenerator.next();
+        } while (shard(uuid).findByUUID(uuid) != null);
+        contact.setUUID(uuid);
+        return shard(uuid).putContact(contact);
+    }
+
+    /**
+     * Add a batch of contacts, every shard adds its part under its own lock in parallel.
+     *
+     * @see ConcurrentContactBook#putContacts(List)
+     */
+    public List<Contact> putContacts(List<Contact> contacts) {
+        if (this.shards.length == 1) return this.shards[0].putContacts(contacts);
+        List<List<Contact>> parts = new ArrayList<>(this.shards.length);
+        List<List<Integer>> positions = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            parts.add(new ArrayList<>());
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < contacts.size(); i++) {
+            Contact contact = contacts.get(i);
+            if (contact.getUUID() == null) contact.setUUID(ContactIdGenerator.next());
+            int shard = shardOf(contact.getUUID(), this.shards.length);
+            parts.get(shard).add(contact);
+            positions.get(shard).add(i);
+        }
+
+        List<List<Contact>> added = fanOut(shard -> shard.putContacts(parts.get(indexOf(shard))));
+        Contact[] result = new Contact[contacts.size()];
+        for (int shard = 0; shard < this.shards.length; shard++) {
+            for (int i = 0; i < added.get(shard).size(); i++) result[positions.get(shard).get(i)] = added.get(shard).get(i);
+        }
+        return Arrays.asList(result);
+    }
+
+    public Contact updateContact(String uid, Contact contact) {
+        return shard(uid).updateContact(uid, contact);
+    }
+
+    /**
+     * Remove contacts matching the attributes from every shard.
+     *
+     * @see ContactBook#removeContact(String, String, String, String, String, String)
+     */
+    public List<Contact> removeContact(String uid, String name, String lastName, String email, String address, String phone) {
+        if (uid != null) return shard(uid).removeContact(uid, name, lastName, email, address, phone);
+        return merge(fanOut(shard -> shard.removeContact(uid, name, lastName, email, address, phone)));
+    }
+
+    /**
+     * Merge contacts into the first one and remove the others. Attributes the first
+     * contact lacks are copied from the others like {@link Contact#copy(Contact)},
+     * the last one taking precedence.
+     *
+     * @param uuids Unique identifiers of the contacts, the first contact is kept.
+     * @param key   If not null, only contacts with the same normalized key as the first
+     *              one are merged, leaving out those changed since they were found.
+     * @return Merged contact followed by the removed contacts, empty if fewer than two contacts were merged.
+     */
+    public List<Contact> mergeContacts(List<String> uuids, DuplicateKey key) {
+        List<Contact> contacts = new ArrayList<>(uuids.size());
+        for (String uid : new LinkedHashSet<>(uuids)) {
+            Contact contact = uid != null ? findByUUID(uid) : null;
+            if (contact != null) contacts.add(contact);
+        }
+        if (key != null && !contacts.isEmpty()) {
+            String first = ContactDeduplicator.key(key, contacts.get(0));
+            contacts.removeIf(contact -> first == null || !first.equals(ContactDeduplicator.key(key, contact)));
+        }
+        if (contacts.size() < 2) return Collections.emptyList();
+
+        Contact data = new Contact();
+        for (int i = 1; i < contacts.size(); i++) data.copy(contacts.get(i));
+        data.copy(contacts.get(0));
+        List<Contact> result = new ArrayList<>(contacts.size());
+        result.add(updateContact(contacts.get(0).getUUID(), data));
+        for (int i = 1; i < contacts.size(); i++) {
+            result.addAll(removeContact(contacts.get(i).getUUID(), null, null, null, null, null));
+        }
+        return result;
+    }
+
+    private ConcurrentContactBook shard(String uid) {
+        return this.shards[shardOf(uid, this.shards.length)];
+    }
+
+    private int indexOf(ConcurrentContactBook shard) {
+        for (int i = 0; i < this.shards.length; i++) {
+            if (this.shards[i] == shard) return i;
+        }
+        throw new IllegalArgumentException("not a shard of this contact book");
+    }
+
+    /**
+     * Run an action on every shard in parallel, or one shard after the other
+     * when the pool has a single thread and a fork would only add overhead.
+     *
+     * @return Results in shard order.
+     */
+    private <T> List<T> fanOut(Function<ConcurrentContactBook, T> action) {
+        IntFunction<T> task = i -> action.apply(this.shards[i]);
+        if (this.shards.length == 1 || this.pool.getParallelism() == 1)
+            return IntStream.range(0, this.shards.length).mapToObj(task).collect(Collectors.toList());
+        return this.pool.submit(() -> IntStream.range(0, this.shards.length).parallel()
+                .mapToObj(task)
+                .collect(Collectors.toList())).join();
+    }
+
+    private static List<Contact> merge(List<List<Contact>> parts) {
+        int size = 0;
+        for (List<Contact> part : parts) size += part.size();
+        List<Contact> merged = new ArrayList<>(size);
+        parts.forEach(merged::addAll);
+        return merged;
+    }
+}
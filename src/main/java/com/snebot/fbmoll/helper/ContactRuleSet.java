@@ -0,0 +1,108 @@
+package com.snebot.fbmoll.helper;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactField;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Validation rules per contact attribute.
+ * Rules only apply to present values, missing attributes are always valid.
+ * Rule sets are configured once and then shared, they are not meant to be
+ * changed while validating.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ContactRuleSet {
+    private final Map<ContactField, List<Rule>> rules = new EnumMap<>(ContactField.class);
+
+    private static class Rule {
+        private final Predicate<String> validator;
+        private final String message;
+
+        private Rule(Predicate<String> validator, String message) {
+            this.validator = validator;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Returns a rule set with the email and phone rules enforced by {@link Contact}.
+     *
+     * @return Default rule set.
+     */
+    public static ContactRuleSet defaults() {
+        return new ContactRuleSet()
+                .rule(ContactField.EMAIL, ContactValidator::validateEmail, "invalid email address")
+                .rule(ContactField.PHONE, ContactValidator::validatePhone, "invalid phone number");
+    }
+
+    /**
+     * Add a rule to an attribute. Rules of an attribute run in the order they were added.
+     *
+     * @param field     Attribute to validate.
+     * @param validator Returns true for valid values.
+     * @param message   Error message for invalid values.
+     * @return This rule set.
+     */
+    public ContactRuleSet rule(ContactField field, Predicate<String> validator, String message) {
+        this.rules.computeIfAbsent(field, key -> new ArrayList<>()).add(new Rule(validator, message));
+        return this;
+    }
+
+    /**
+     * Validate a single attribute value.
+     *
+     * @param field Attribute.
+     * @param value Attribute value.
+     * @return Message of the first failed rule, null if valid.
+     */
+    public String check(ContactField field, String value) {
+        if (value == null) return null;
+        List<Rule> rules = this.rules.get(field);
+        if (rules == null) return null;
+        for (Rule rule : rules) {
+            if (!rule.validator.test(value)) return rule.message;
+        }
+        return null;
+    }
+
+    /**
+     * Validate every attribute of a contact.
+     *
+     * @param contact Contact data.
+     * @return Errors found, empty if valid.
+     */
+    public List<ValidationError> validate(Contact contact) {
+        List<ValidationError> errors = new ArrayList<>();
+        validate(0, contact, errors);
+        return errors;
+    }
+
+    /**
+     * Validate a list of contacts in one pass.
+     *
+     * @param contacts Contacts to validate.
+     * @return Errors found, with the position of the contact in the list. Empty if every contact is valid.
+     */
+    public List<ValidationError> validateAll(List<Contact> contacts) {
+        List<ValidationError> errors = new ArrayList<>();
+        for (int i = 0; i < contacts.size(); i++) validate(i, contacts.get(i), errors);
+        return errors;
+    }
+
+    private void validate(int index, Contact contact, List<ValidationError> errors) {
+        if (contact == null) {
+            errors.add(new ValidationError(index, null, "missing contact"));
+            return;
+        }
+        for (Map.Entry<ContactField, List<Rule>> entry : this.rules.entrySet()) {
+            String message = check(entry.getKey(), entry.getKey().get(contact));
+            if (message != null) errors.add(new ValidationError(index, entry.getKey().getKey(), message));
+        }
+    }
+}
@@ -1,36 +1,60 @@
 package com.snebot.fbmoll.helper;
 
-import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+/**
+ * Contact attribute validators.
+ * Hand-written scanners equivalent to the expressions below, they run on every
+ * contact that is created, imported or loaded so they never compile a pattern
+ * or allocate.
+ * - Email: {@code ^[\w-.]+@([\w-]+\.)+[\w-]{2,4}$}
+ * - Phone: {@code ^\d{9}$}
+ */
 public class ContactValidator {
-    private static final Logger log = LoggerFactory.getLogger(ContactValidator.class);
-    private static final String EMAIL_REGEX = "^[\\w-.]+@([\\w-]+\\.)+[\\w-]{2,4}$";
-    private static final String PHONE_REGEX = "^\\d{9}$";
+    private static final int PHONE_LENGTH = 9;
+    private static final int MIN_TLD_LENGTH = 2;
+    private static final int MAX_TLD_LENGTH = 4;
 
     public static boolean validateEmail(String email) {
-        try {
-            Pattern pattern = Pattern.compile(EMAIL_REGEX, Pattern.CASE_INSENSITIVE);
-            Matcher m = pattern.matcher(StringUtils.defaultIfEmpty(email, StringUtils.EMPTY));
-            return m.matches();
-        } catch (Exception e) {
-            log.error("failed to evaluate email address ", e);
-            return false;
+        if (email == null) return false;
+        int at = email.indexOf('@');
+        if (at <= 0) return false;
+        for (int i = 0; i < at; i++) {
+            char c = email.charAt(i);
+            if (!isWordChar(c) && c != '.') return false;
+        }
+
+        int length = email.length();
+        int lastDot = email.lastIndexOf('.');
+        if (lastDot <= at + 1) return false;
+        int tld = length - lastDot - 1;
+        if (tld < MIN_TLD_LENGTH || tld > MAX_TLD_LENGTH) return false;
+        int label = 0;
+        for (int i = at + 1; i < length; i++) {
+            char c = email.charAt(i);
+            if (c == '.') {
+                if (label == 0) return false;
+                label = 0;
+            } else if (isWordChar(c)) {
+                label++;
+            } else {
+                return false;
+            }
         }
+        return true;
     }
 
     public static boolean validatePhone(String phone) {
-        try {
-            Pattern pattern = Pattern.compile(PHONE_REGEX, Pattern.CASE_INSENSITIVE);
-            Matcher m = pattern.matcher(StringUtils.defaultIfEmpty(phone, StringUtils.EMPTY));
-            return m.matches();
-        } catch (Exception e) {
-            log.error("failed to evaluate phone number ", e);
-            return false;
+        if (phone == null || phone.length() != PHONE_LENGTH) return false;
+        for (int i = 0; i < PHONE_LENGTH; i++) {
+            char c = phone.charAt(i);
+            if (c < '0' || c > '9') return false;
         }
+        return true;
+    }
+
+    /**
+     * Regex {@code [\w-]}: ASCII letters, digits, underscore and hyphen.
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
     }
 }
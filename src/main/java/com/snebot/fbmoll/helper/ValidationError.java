@@ -0,0 +1,40 @@
+package com.snebot.fbmoll.helper;
+
+/**
+ * Invalid attribute found by a {@link ContactRuleSet}.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ValidationError {
+    private final int index;
+    private final String field;
+    private final String message;
+
+    public ValidationError(int index, String field, String message) {
+        this.index = index;
+        this.field = field;
+        this.message = message;
+    }
+
+    /**
+     * Returns the position of the contact in the validated list.
+     *
+     * @return Contact position.
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    public String getField() {
+        return this.field;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d.%s: %s", this.index, this.field, this.message);
+    }
+}
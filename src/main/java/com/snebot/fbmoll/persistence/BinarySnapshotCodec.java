@@ -0,0 +1,130 @@
+package com.snebot.fbmoll.persistence;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.data.ContactField;
+import com.snebot.fbmoll.util.Compression;
+import com.snebot.fbmoll.util.FileUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary snapshots.
+ * Layout: magic, format version, contact count, book name, then every contact
+ * attribute as a length-prefixed UTF-8 string (-1 for null), and a trailing
+ * CRC32 of everything before it. Files are loaded through a memory mapping,
+ * which limits them to 2 GB.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class BinarySnapshotCodec implements SnapshotCodec {
+    public static final int MAGIC = 0x43424B53;
+    public static final short FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 4;
+    private static final int TRAILER_SIZE = 4;
+    private static final ContactField[] FIELDS = ContactField.values();
+
+    @Override
+    public void write(ContactBook book, OutputStream out) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+        List<Contact> contacts = book.getContacts();
+        data.writeInt(MAGIC);
+        data.writeShort(FORMAT_VERSION);
+        data.writeInt(contacts.size());
+        writeString(data, book.getName());
+        for (Contact contact : contacts)
+            for (ContactField field : FIELDS) writeString(data, field.get(contact));
+        data.flush();
+
+        int crc = (int) checked.getChecksum().getValue();
+        new DataOutputStream(out).writeInt(crc);
+        out.flush();
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        if (value == null) {
+            data.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    @Override
+    public ContactBook read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = in.read(buffer)) != -1) bytes.write(buffer, 0, read);
+        return decode(ByteBuffer.wrap(bytes.toByteArray()), null);
+    }
+
+    /**
+     * Load contact book through a read-only memory mapping of the file.
+     * Compressed files are streamed instead.
+     */
+    @Override
+    public ContactBook load(String path, Consumer<ContactBook> progress) throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) return new ContactBook();
+        if (FileUtils.getInstance().detectCompression(path) != Compression.NONE) return SnapshotCodec.super.load(path, progress);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(buffer, progress);
+        } catch (IOException e) {
+            throw new IOException(String.format("%s: %s", path, e.getMessage()), e);
+        } catch (RuntimeException e) {
+            // Buffer underflows of a corrupt file that still matched its checksum.
+            throw new IOException(String.format("%s: corrupt binary snapshot", path), e);
+        }
+    }
+
+    private static ContactBook decode(ByteBuffer buffer, Consumer<ContactBook> progress) throws IOException {
+        int size = buffer.limit();
+        if (size < HEADER_SIZE + TRAILER_SIZE) throw new IOException("truncated snapshot");
+
+        CRC32 crc = new CRC32();
+        ByteBuffer content = buffer.duplicate();
+        content.limit(size - TRAILER_SIZE);
+        crc.update(content);
+        if ((int) crc.getValue() != buffer.getInt(size - TRAILER_SIZE)) throw new IOException("snapshot checksum mismatch");
+
+        buffer.limit(size - TRAILER_SIZE);
+        if (buffer.getInt() != MAGIC) throw new IOException("not a binary snapshot");
+        short version = buffer.getShort();
+        if (version != FORMAT_VERSION) throw new IOException(String.format("unsupported snapshot version %d", version));
+        int count = buffer.getInt();
+
+        LoadProgress reporter = new LoadProgress(progress);
+        ContactBook book = new ContactBook();
+        byte[] scratch = new byte[256];
+        book.setName(readString(buffer, scratch));
+        for (int i = 0; i < count; i++) {
+            Contact contact = new Contact();
+            for (ContactField field : FIELDS) field.restore(contact, readString(buffer, scratch));
+            book.restoreContact(contact);
+            reporter.contactRead(book);
+        }
+        return book;
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        if (length > buffer.remaining()) throw new IOException("corrupt snapshot string");
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,75 @@
+package com.snebot.fbmoll.persistence;
+
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.util.Compression;
+import com.snebot.fbmoll.util.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+/**
+ * Snapshots of another codec, written through a streaming compressor.
+ * Reads accept compressed and plain snapshots alike, so changing the
+ * compression needs no migration: files are rewritten on the next save.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class CompressedSnapshotCodec implements SnapshotCodec {
+    private static final FileUtils fileUtils = FileUtils.getInstance();
+
+    private final SnapshotCodec codec;
+    private final Compression compression;
+    private final int level;
+
+    /**
+     * @param codec       Codec of the uncompressed snapshot.
+     * @param compression Compression of written snapshots.
+     * @param level       Deflate level, from 0 to 9, or -1 for the default level.
+     */
+    public CompressedSnapshotCodec(SnapshotCodec codec, Compression compression, int level) {
+        if (level < -1 || level > 9) throw new IllegalArgumentException("compression level must be between -1 and 9");
+        this.codec = codec;
+        this.compression = compression;
+        this.level = level;
+    }
+
+    public Compression getCompression() {
+        return this.compression;
+    }
+
+    public int getLevel() {
+        return this.level;
+    }
+
+    @Override
+    public void write(ContactBook book, OutputStream out) throws IOException {
+        try {
+            fileUtils.writeCompressed(out, this.compression, this.level, compressed -> this.codec.write(book, compressed));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("failed to compress contact book", e);
+        }
+    }
+
+    @Override
+    public ContactBook read(InputStream in) throws IOException {
+        return read(in, null);
+    }
+
+    @Override
+    public ContactBook read(InputStream in, Consumer<ContactBook> progress) throws IOException {
+        return fileUtils.readCompressed(in, decompressed -> this.codec.read(decompressed, progress));
+    }
+
+    /**
+     * Load through the wrapped codec, which detects compressed files itself.
+     * A file that fails to inflate or to match its checksum fails to load.
+     */
+    @Override
+    public ContactBook load(String path, Consumer<ContactBook> progress) throws IOException {
+        return this.codec.load(path, progress);
+    }
+}
@@ -0,0 +1,351 @@
+package com.snebot.fbmoll.persistence;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.data.ContactBookJournal;
+import com.snebot.fbmoll.data.ContactField;
+import com.snebot.fbmoll.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of contact book mutations.
+ * Each record is stored as: length, operation, payload and a CRC32 of operation and payload.
+ * A torn or corrupt record ends the replay and is cut from the file.
+ * As a {@link ContactBookJournal} it logs every mutation of a concurrent contact book
+ * before the mutation is applied.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ContactJournal implements Closeable, ContactBookJournal {
+    private static final Logger log = LoggerFactory.getLogger(ContactJournal.class);
+    private static final byte OP_ADD = 1;
+    private static final byte OP_UPDATE = 2;
+    private static final byte OP_REMOVE = 3;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    /**
+     * End of the records written up to some point, see {@link #mark()}.
+     */
+    public static final class Mark {
+        private final long position;
+        private final int records;
+
+        private Mark(long position, int records) {
+            this.position = position;
+            this.records = records;
+        }
+    }
+
+    private final File file;
+    private final FsyncPolicy policy;
+    private final int batchSize;
+    private FileChannel channel;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream output = new DataOutputStream(this.buffer);
+    private final CRC32 crc = new CRC32();
+    private int records = 0;
+    private int unsynced = 0;
+
+    /**
+     * Opens or creates a journal file.
+     *
+     * @param path      Journal file path.
+     * @param policy    When to force writes to disk.
+     * @param batchSize Records per forced write with {@link FsyncPolicy#BATCHED}.
+     * @throws IOException If the file cannot be opened.
+     */
+    public ContactJournal(String path, FsyncPolicy policy, int batchSize) throws IOException {
+        this.file = new File(path);
+        this.policy = policy;
+        this.batchSize = Math.max(1, batchSize);
+        this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.channel.position(this.channel.size());
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the amount of records in the journal.
+     * Only accurate after {@link #replay(ContactBook)} for journals that already had content.
+     *
+     * @return Amount of records.
+     */
+    public synchronized int size() {
+        return this.records;
+    }
+
+    /**
+     * Log an added contact.
+     *
+     * @param contact Added contact.
+     * @throws IOException If the record cannot be written.
+     */
+    public void logAdd(Contact contact) throws IOException {
+        append(OP_ADD, contact);
+    }
+
+    /**
+     * Log the resulting data of an updated contact.
+     *
+     * @param contact Updated contact.
+     * @throws IOException If the record cannot be written.
+     */
+    public void logUpdate(Contact contact) throws IOException {
+        append(OP_UPDATE, contact);
+    }
+
+    /**
+     * Log a removed contact.
+     *
+     * @param contact Removed contact.
+     * @throws IOException If the record cannot be written.
+     */
+    public void logRemove(Contact contact) throws IOException {
+        append(OP_REMOVE, contact);
+    }
+
+    /**
+     * Log the changes of a mutation with a single write. If the write fails the
+     * part already written is cut, so a replay never applies a mutation that was aborted.
+     *
+     * @param changed Added and updated contacts.
+     * @param removed Removed contacts.
+     * @throws IOException If the records cannot be written.
+     */
+    @Override
+    public synchronized void append(List<Contact> changed, List<Contact> removed) throws IOException {
+        int count = changed.size() + removed.size();
+        if (count == 0) return;
+        if (count == 1) {
+            write(changed.isEmpty() ? encode(OP_REMOVE, removed.get(0), this.buffer, this.output, this.crc)
+                    : encode(OP_UPDATE, changed.get(0), this.buffer, this.output, this.crc), 1);
+            return;
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream(count * 128);
+        for (Contact contact : changed) {
+            ByteBuffer record = encode(OP_UPDATE, contact, this.buffer, this.output, this.crc);
+            records.write(record.array(), 0, record.limit());
+        }
+        for (Contact contact : removed) {
+            ByteBuffer record = encode(OP_REMOVE, contact, this.buffer, this.output, this.crc);
+            records.write(record.array(), 0, record.limit());
+        }
+        write(ByteBuffer.wrap(records.toByteArray()), count);
+    }
+
+    private synchronized void append(byte op, Contact contact) throws IOException {
+        write(encode(op, contact, this.buffer, this.output, this.crc), 1);
+    }
+
+    private void write(ByteBuffer records, int count) throws IOException {
+        long start = this.channel.position();
+        try {
+            while (records.hasRemaining()) this.channel.write(records);
+            this.unsynced += count;
+            if (this.policy == FsyncPolicy.ALWAYS ||
+                    (this.policy == FsyncPolicy.BATCHED && this.unsynced >= this.batchSize)) sync();
+        } catch (IOException e) {
+            try {
+                this.channel.truncate(start);
+                this.channel.position(start);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        this.records += count;
+    }
+
+    private static ByteBuffer encode(byte op, Contact contact, ByteArrayOutputStream buffer, DataOutputStream output,
+                                     CRC32 crc) throws IOException {
+        buffer.reset();
+        output.writeInt(0);
+        output.writeByte(op);
+        if (op == OP_REMOVE) {
+            writeString(output, contact.getUUID());
+        } else {
+            for (ContactField field : ContactField.values()) writeString(output, field.get(contact));
+        }
+        output.writeInt(0);
+
+        ByteBuffer record = ByteBuffer.wrap(buffer.toByteArray());
+        int length = record.limit() - 8;
+        crc.reset();
+        crc.update(record.array(), 4, length);
+        record.putInt(0, length);
+        record.putInt(record.limit() - 4, (int) crc.getValue());
+        return record;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) output.writeUTF(value);
+    }
+
+    /**
+     * Write a batch of changes as journal records, e.g. to a delta file.
+     *
+     * @param out     Destination stream, not closed.
+     * @param changes Latest data of every changed contact by unique identifier, null for removed contacts.
+     * @throws IOException If the records cannot be written.
+     */
+    public static void writeRecords(OutputStream out, Map<String, Contact> changes) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        DataOutputStream output = new DataOutputStream(buffer);
+        CRC32 crc = new CRC32();
+        for (Map.Entry<String, Contact> change : changes.entrySet()) {
+            Contact contact = change.getValue();
+            if (contact == null) {
+                contact = new Contact();
+                contact.setUUID(change.getKey());
+            }
+            ByteBuffer record = encode(change.getValue() == null ? OP_REMOVE : OP_UPDATE, contact, buffer, output, crc);
+            out.write(record.array(), 0, record.limit());
+        }
+    }
+
+    /**
+     * Apply every valid record on top of a contact book.
+     * Replay is idempotent so records already contained in the book are harmless.
+     *
+     * @param book Contact book loaded from the last snapshot.
+     * @return Amount of replayed records.
+     * @throws IOException If the journal cannot be read.
+     */
+    public synchronized int replay(ContactBook book) throws IOException {
+        long valid = 0;
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+            CRC32 checksum = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) break;
+                byte[] payload = new byte[length];
+                int expected;
+                try {
+                    in.readFully(payload);
+                    expected = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                checksum.reset();
+                checksum.update(payload, 0, length);
+                if ((int) checksum.getValue() != expected) break;
+                apply(book, payload);
+                valid += length + 8;
+                count++;
+            }
+        }
+
+        if (valid < this.channel.size()) {
+            log.warn(String.format("%s: discarding %d bytes of incomplete journal records", this.file, this.channel.size() - valid));
+            this.channel.truncate(valid);
+        }
+        this.channel.position(valid);
+        this.records = count;
+        return count;
+    }
+
+    private void apply(ContactBook book, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        if (op == OP_REMOVE) {
+            String uuid = readString(in);
+            if (uuid != null) book.removeContact(uuid, null, null, null, null, null);
+            return;
+        }
+
+        Contact contact = new Contact();
+        for (ContactField field : ContactField.values()) field.restore(contact, readString(in));
+        if (op == OP_ADD || op == OP_UPDATE) book.putContact(contact);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Force pending records to disk.
+     *
+     * @throws IOException If the file cannot be synced.
+     */
+    public synchronized void sync() throws IOException {
+        if (this.unsynced == 0) return;
+        this.channel.force(false);
+        this.unsynced = 0;
+    }
+
+    /**
+     * Marks the end of the records written so far. Taken while the journaled book
+     * cannot change, it tells which records a snapshot of the book contains.
+     *
+     * @return Mark to discard the records up to with {@link #discard(Mark)}.
+     * @throws IOException If the journal position cannot be read.
+     */
+    public synchronized Mark mark() throws IOException {
+        return new Mark(this.channel.position(), this.records);
+    }
+
+    /**
+     * Discard the records written before a mark, called once their changes are part
+     * of a snapshot. Records written since the mark are copied to a new journal file
+     * that replaces this one atomically, so a crash keeps either journal whole.
+     *
+     * @param mark Mark taken when the snapshot was taken.
+     * @throws IOException If the journal cannot be rewritten.
+     */
+    public synchronized void discard(Mark mark) throws IOException {
+        if (mark.position == 0) return;
+        long end = this.channel.size();
+        FileUtils.getInstance().writeAtomically(this.file.getPath(), out -> {
+            WritableByteChannel target = Channels.newChannel(out);
+            for (long position = mark.position; position < end; ) {
+                position += this.channel.transferTo(position, end - position, target);
+            }
+        });
+        this.channel.close();
+        this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.channel.position(this.channel.size());
+        this.records -= mark.records;
+        this.unsynced = 0;
+    }
+
+    /**
+     * Discard every record, called once their changes are part of a snapshot.
+     *
+     * @throws IOException If the file cannot be truncated.
+     */
+    public synchronized void truncate() throws IOException {
+        this.channel.truncate(0);
+        this.channel.position(0);
+        this.channel.force(true);
+        this.records = 0;
+        this.unsynced = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!this.channel.isOpen()) return;
+        if (this.policy != FsyncPolicy.OS) sync();
+        this.channel.close();
+    }
+}
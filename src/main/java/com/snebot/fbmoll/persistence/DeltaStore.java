@@ -0,0 +1,276 @@
+package com.snebot.fbmoll.persistence;
+
+import com.snebot.fbmoll.data.ConcurrentContactBook;
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.data.ContactBookListener;
+import com.snebot.fbmoll.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental persistence of a contact book: a base snapshot plus delta files
+ * holding only the contacts changed since the previous delta, e.g.
+ * contacts.bin, contacts.bin.1.delta, contacts.bin.2.delta.
+ * Deltas use the {@link ContactJournal} record format and are replayed in order on load.
+ * Once there are too many deltas, or they grow too big compared to the base,
+ * a compactor writes a new base and removes the deltas it contains.
+ * <p>
+ * Compaction is crash-safe: the new base is first written as contacts.bin.N.compact,
+ * where N is the last delta it contains, then deltas up to N are removed and
+ * the compact file is renamed over the base. {@link #recover(String)} finishes
+ * a compaction interrupted at any step.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class DeltaStore implements ContactBookListener {
+    private static final Logger log = LoggerFactory.getLogger(DeltaStore.class);
+    private static final FileUtils fileUtils = FileUtils.getInstance();
+    private static final String DELTA_EXTENSION = ".delta";
+    private static final String COMPACT_EXTENSION = ".compact";
+
+    private final String path;
+    private final SnapshotCodec codec;
+    private final int maxDeltas;
+    private final double maxRatio;
+    private final Executor compactor;
+    private final ReentrantLock compaction = new ReentrantLock();
+    private final Object dirtyLock = new Object();
+    private Map<String, Contact> dirty = new LinkedHashMap<>();
+    private final NavigableMap<Long, File> deltas = new TreeMap<>();
+    private long deltaBytes = 0;
+    private long nextSequence = 1;
+    private ConcurrentContactBook book = null;
+
+    /**
+     * @param path      Base snapshot file path.
+     * @param codec     Base snapshot format.
+     * @param maxDeltas Amount of deltas that triggers a compaction.
+     * @param maxRatio  Size of the deltas, relative to the base, that triggers a compaction.
+     * @param compactor Runs compactions in the background.
+     */
+    public DeltaStore(String path, SnapshotCodec codec, int maxDeltas, double maxRatio, Executor compactor) {
+        this.path = path;
+        this.codec = codec;
+        this.maxDeltas = Math.max(1, maxDeltas);
+        this.maxRatio = maxRatio;
+        this.compactor = compactor;
+        for (Map.Entry<Long, File> entry : files(path, DELTA_EXTENSION).entrySet()) {
+            this.deltas.put(entry.getKey(), entry.getValue());
+            this.deltaBytes += entry.getValue().length();
+            this.nextSequence = entry.getKey() + 1;
+        }
+    }
+
+    /**
+     * Finish a compaction interrupted by a crash, call before loading the base snapshot.
+     *
+     * @param path Base snapshot file path.
+     * @throws IOException If the compaction cannot be finished.
+     */
+    public static void recover(String path) throws IOException {
+        NavigableMap<Long, File> compacted = files(path, COMPACT_EXTENSION);
+        if (compacted.isEmpty()) return;
+        Map.Entry<Long, File> last = compacted.lastEntry();
+        for (File delta : files(path, DELTA_EXTENSION).headMap(last.getKey(), true).values()) delete(delta);
+        Files.move(last.getValue().toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        for (File stale : compacted.headMap(last.getKey(), false).values()) delete(stale);
+        log.info(String.format("%s: finished interrupted compaction", path));
+    }
+
+    /**
+     * Files next to the base snapshot with a sequence number and an extension, by sequence number.
+     */
+    private static NavigableMap<Long, File> files(String path, String extension) {
+        NavigableMap<Long, File> files = new TreeMap<>();
+        File base = new File(path).getAbsoluteFile();
+        Pattern name = Pattern.compile(Pattern.quote(base.getName()) + "\\.(\\d+)" + Pattern.quote(extension));
+        File[] candidates = base.getParentFile().listFiles();
+        if (candidates == null) return files;
+        for (File file : candidates) {
+            Matcher matcher = name.matcher(file.getName());
+            if (matcher.matches()) files.put(Long.parseLong(matcher.group(1)), file);
+        }
+        return files;
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.exists() && !file.delete()) throw new IOException(String.format("%s: failed to remove file", file));
+    }
+
+    /**
+     * Apply every delta on top of the loaded base snapshot, oldest first.
+     *
+     * @param book Contact book loaded from the base snapshot.
+     * @return Amount of replayed records.
+     * @throws IOException If a delta cannot be read.
+     */
+    public synchronized int replay(ContactBook book) throws IOException {
+        int count = 0;
+        for (File delta : this.deltas.values()) {
+            try (ContactJournal records = new ContactJournal(delta.getPath(), FsyncPolicy.OS, 1)) {
+                count += records.replay(book);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Start tracking the changes of a contact book and compacting it.
+     *
+     * @param book Contact book persisted by this store.
+     */
+    public void attach(ConcurrentContactBook book) {
+        this.book = book;
+        book.addListener(this);
+    }
+
+    public synchronized int getDeltaCount() {
+        return this.deltas.size();
+    }
+
+    public synchronized long getDeltaBytes() {
+        return this.deltaBytes;
+    }
+
+    @Override
+    public void contactAdded(Contact contact) {
+        changed(contact.getUUID(), contact);
+    }
+
+    @Override
+    public void contactUpdated(Contact previous, Contact contact) {
+        changed(contact.getUUID(), contact);
+    }
+
+    @Override
+    public void contactRemoved(Contact contact) {
+        changed(contact.getUUID(), null);
+    }
+
+    private void changed(String uuid, Contact contact) {
+        synchronized (this.dirtyLock) {
+            this.dirty.put(uuid, contact);
+        }
+    }
+
+    /**
+     * Write the contacts changed since the last flush as a new delta, then start
+     * a background compaction if the deltas crossed a threshold.
+     * Changes that could not be written are kept for the next flush.
+     * Flushes are serialized so deltas are always written in change order.
+     *
+     * @return True if the changes were written.
+     */
+    public synchronized boolean flush() {
+        Map<String, Contact> changes;
+        synchronized (this.dirtyLock) {
+            if (this.dirty.isEmpty()) return true;
+            changes = this.dirty;
+            this.dirty = new LinkedHashMap<>();
+        }
+        try {
+            writeDelta(changes);
+        } catch (IOException e) {
+            log.error("failed to write contact book delta ", e);
+            synchronized (this.dirtyLock) {
+                changes.forEach(this.dirty::putIfAbsent);
+            }
+            return false;
+        }
+        if (needsCompaction() && !this.compaction.isLocked()) {
+            this.compactor.execute(() -> {
+                if (!this.compaction.tryLock()) return;
+                try {
+                    compactNow();
+                } catch (IOException e) {
+                    log.error("failed to compact contact book ", e);
+                } finally {
+                    this.compaction.unlock();
+                }
+            });
+        }
+        return true;
+    }
+
+    private void writeDelta(Map<String, Contact> changes) throws IOException {
+        long sequence = this.nextSequence;
+        String deltaPath = String.format("%s.%d%s", this.path, sequence, DELTA_EXTENSION);
+        fileUtils.writeAtomically(deltaPath, out -> ContactJournal.writeRecords(out, changes));
+        File delta = new File(deltaPath);
+        this.deltas.put(sequence, delta);
+        this.deltaBytes += delta.length();
+        this.nextSequence = sequence + 1;
+    }
+
+    private boolean needsCompaction() {
+        if (this.deltas.size() >= this.maxDeltas) return true;
+        long baseBytes = new File(this.path).length();
+        return baseBytes > 0 && this.deltaBytes > baseBytes * this.maxRatio;
+    }
+
+    /**
+     * Write a new base snapshot with every change flushed so far and remove the
+     * deltas it contains, waiting for a background compaction in progress.
+     *
+     * @return True if a new base was written, false if no contact book is attached.
+     * @throws IOException If the base cannot be written or the deltas cannot be removed.
+     */
+    public boolean compact() throws IOException {
+        this.compaction.lock();
+        try {
+            return compactNow();
+        } finally {
+            this.compaction.unlock();
+        }
+    }
+
+    private boolean compactNow() throws IOException {
+        long last;
+        ContactBook snapshot;
+        synchronized (this) {
+            if (this.book == null) return false;
+            last = this.nextSequence - 1;
+            snapshot = this.book.snapshot().toContactBook();
+        }
+
+        String compactPath = String.format("%s.%d%s", this.path, last, COMPACT_EXTENSION);
+        fileUtils.writeAtomically(compactPath, out -> this.codec.write(snapshot, out));
+        synchronized (this) {
+            Map<Long, File> merged = this.deltas.headMap(last, true);
+            for (File delta : merged.values()) delete(delta);
+            merged.clear();
+            this.deltaBytes = 0;
+            for (File delta : this.deltas.values()) this.deltaBytes += delta.length();
+            Files.move(new File(compactPath).toPath(), new File(this.path).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        log.info(String.format("%s: compacted deltas up to %d", this.path, last));
+        return true;
+    }
+
+    /**
+     * Remove every delta, once their contacts have been saved elsewhere.
+     *
+     * @throws IOException If a delta cannot be removed.
+     */
+    public synchronized void clear() throws IOException {
+        for (File delta : this.deltas.values()) delete(delta);
+        this.deltas.clear();
+        this.deltaBytes = 0;
+    }
+}
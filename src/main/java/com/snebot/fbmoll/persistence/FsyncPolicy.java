@@ -0,0 +1,21 @@
+package com.snebot.fbmoll.persistence;
+
+/**
+ * Defines when journal writes are forced to the storage device.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public enum FsyncPolicy {
+    /**
+     * Force every record before the write returns.
+     */
+    ALWAYS,
+    /**
+     * Force once every batch of records and when the journal is closed.
+     */
+    BATCHED,
+    /**
+     * Never force, the operating system decides when to write to disk.
+     */
+    OS
+}
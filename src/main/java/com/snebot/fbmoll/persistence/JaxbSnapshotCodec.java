@@ -0,0 +1,38 @@
+package com.snebot.fbmoll.persistence;
+
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.util.FileUtils;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * XML snapshots through the JAXB bindings of {@link ContactBook}.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class JaxbSnapshotCodec implements SnapshotCodec {
+    private static final FileUtils fileUtils = FileUtils.getInstance();
+
+    @Override
+    public void write(ContactBook book, OutputStream out) throws IOException {
+        try {
+            fileUtils.getMarshaller(ContactBook.class).marshal(book, out);
+        } catch (JAXBException e) {
+            throw new IOException("failed to marshal contact book", e);
+        }
+    }
+
+    @Override
+    public ContactBook read(InputStream in) throws IOException {
+        try {
+            Object obj = fileUtils.getUnmarshaller(ContactBook.class).unmarshal(in);
+            if (obj instanceof ContactBook) return (ContactBook) obj;
+            throw new IOException("unexpected root element");
+        } catch (JAXBException e) {
+            throw new IOException("failed to unmarshal contact book", e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.snebot.fbmoll.persistence;
+
+import com.snebot.fbmoll.data.ContactBook;
+
+import java.util.function.Consumer;
+
+/**
+ * Reports a book being loaded each time its size doubles, so copying
+ * the partial book on every report stays linear overall.
+ *
+ * @author Serafi Nebot Ginard
+ */
+class LoadProgress {
+    private static final int FIRST_REPORT = 1024;
+    private final Consumer<ContactBook> progress;
+    private int next = FIRST_REPORT;
+
+    LoadProgress(Consumer<ContactBook> progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Called after every contact read into the book.
+     *
+     * @param book Book being loaded.
+     */
+    void contactRead(ContactBook book) {
+        if (this.progress == null || book.getContacts().size() < this.next) return;
+        this.progress.accept(book);
+        this.next *= 2;
+    }
+}
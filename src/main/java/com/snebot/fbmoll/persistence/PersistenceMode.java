@@ -0,0 +1,22 @@
+package com.snebot.fbmoll.persistence;
+
+/**
+ * How contact book mutations are persisted.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public enum PersistenceMode {
+    /**
+     * Rewrite the whole contact book file on every mutation.
+     */
+    SNAPSHOT,
+    /**
+     * Append every mutation to a journal and rewrite the contact book file only on checkpoints.
+     */
+    JOURNAL,
+    /**
+     * Write only the contacts changed since the last write as delta files, merged into the
+     * contact book file by a background compactor.
+     */
+    DELTA
+}
@@ -0,0 +1,237 @@
+package com.snebot.fbmoll.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.*;
+
+/**
+ * Debounces persistence so that many mutations share a single flush.
+ * A flush runs once the delay since the first pending mutation expires, or
+ * right away when the amount of pending mutations reaches the threshold.
+ * A failed flush keeps its mutations pending and is retried with a growing
+ * delay, so mutations already acknowledged are not lost.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class PersistenceScheduler implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(PersistenceScheduler.class);
+    private static final long MIN_RETRY_DELAY = 100;
+    private static final long MAX_RETRY_DELAY = 60000;
+    private static final int CLOSE_ATTEMPTS = 3;
+
+    /**
+     * Persists the current state.
+     */
+    @FunctionalInterface
+    public interface FlushAction {
+        /**
+         * @return True if the state was persisted.
+         * @throws Exception If the state could not be persisted.
+         */
+        boolean flush() throws Exception;
+    }
+
+    private final FlushAction action;
+    private final long delay;
+    private final int threshold;
+    private final ScheduledExecutorService executor;
+    private final Object lock = new Object();
+    private int dirty = 0;
+    private int failures = 0;
+    private CompletableFuture<Void> pending = new CompletableFuture<>();
+    private CompletableFuture<Void> flushing = null;
+    private ScheduledFuture<?> scheduled = null;
+    private boolean closed = false;
+
+    /**
+     * @param action    Flush action.
+     * @param delay     Milliseconds to wait for more mutations before flushing.
+     * @param threshold Pending mutations that trigger an immediate flush.
+     */
+    public PersistenceScheduler(FlushAction action, long delay, int threshold) {
+        this.action = action;
+        this.delay = Math.max(0, delay);
+        this.threshold = Math.max(1, threshold);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "contact-book-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Register a mutation that has to be persisted.
+     *
+     * @return Future completed once a flush containing the mutation finishes.
+     */
+    public CompletableFuture<Void> markDirty() {
+        CompletableFuture<Void> future;
+        boolean closed;
+        synchronized (this.lock) {
+            future = this.pending;
+            closed = this.closed;
+            this.dirty++;
+            if (!closed && this.dirty >= this.threshold && this.failures == 0) {
+                if (this.scheduled != null) this.scheduled.cancel(false);
+                this.scheduled = this.executor.schedule(this::runFlush, 0, TimeUnit.MILLISECONDS);
+            } else if (!closed && this.scheduled == null) {
+                this.scheduled = this.executor.schedule(this::runFlush, this.delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (closed) runFlush();
+        return future;
+    }
+
+    /**
+     * Flush pending mutations now and wait for the result. Without pending
+     * mutations, waits for the flush in progress, if any, since mutations
+     * registered before this call may still be on their way to disk.
+     *
+     * @throws IOException If the flush failed.
+     */
+    public void flush() throws IOException {
+        CompletableFuture<Void> future;
+        CompletableFuture<Void> inFlight;
+        synchronized (this.lock) {
+            future = this.dirty == 0 ? null : this.pending;
+            inFlight = this.flushing;
+        }
+        if (future == null) {
+            if (inFlight != null) await(inFlight);
+            return;
+        }
+        try {
+            this.executor.submit(this::runFlush);
+        } catch (RejectedExecutionException e) {
+            runFlush();
+        }
+        await(future);
+    }
+
+    /**
+     * Wait until a future returned by {@link #markDirty()} completes.
+     *
+     * @param future Flush future.
+     * @throws IOException If the flush failed.
+     */
+    public static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for flush", e);
+        } catch (ExecutionException e) {
+            throw new IOException("failed to flush contact book", e.getCause());
+        }
+    }
+
+    public int getDirtyCount() {
+        synchronized (this.lock) {
+            return this.dirty;
+        }
+    }
+
+    private void runFlush() {
+        CompletableFuture<Void> future;
+        int count;
+        synchronized (this.lock) {
+            this.scheduled = null;
+            if (this.dirty == 0) return;
+            future = this.pending;
+            count = this.dirty;
+            this.pending = new CompletableFuture<>();
+            this.dirty = 0;
+            this.flushing = future;
+        }
+
+        Exception error = null;
+        try {
+            if (!this.action.flush()) error = new IOException("flush action did not persist the state");
+        } catch (Exception e) {
+            error = e;
+        }
+        synchronized (this.lock) {
+            if (this.flushing == future) this.flushing = null;
+            if (error == null) {
+                this.failures = 0;
+            } else {
+                this.dirty += count;
+                this.failures++;
+                if (!this.closed) retry();
+            }
+        }
+        if (error == null) {
+            future.complete(null);
+        } else {
+            log.error("failed to flush contact book ", error);
+            future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Schedule another flush of the mutations of a failed one, waiting longer after every failure.
+     */
+    private void retry() {
+        if (this.scheduled != null) this.scheduled.cancel(false);
+        try {
+            this.scheduled = this.executor.schedule(this::runFlush, retryDelay(this.failures), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            this.scheduled = null;
+        }
+    }
+
+    private long retryDelay(int failures) {
+        long delay = Math.max(MIN_RETRY_DELAY, this.delay);
+        return Math.min(MAX_RETRY_DELAY, delay << Math.min(failures - 1, 16));
+    }
+
+    /**
+     * Flush pending mutations and stop the background thread. A failed flush is
+     * retried a few times before giving up.
+     *
+     * @throws IOException If the pending mutations could not be flushed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.lock) {
+            if (this.closed) return;
+            this.closed = true;
+            if (this.scheduled != null) this.scheduled.cancel(false);
+        }
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException failure = null;
+        for (int attempt = 0; attempt < CLOSE_ATTEMPTS; attempt++) {
+            CompletableFuture<Void> future;
+            int failures;
+            synchronized (this.lock) {
+                future = this.pending;
+                failures = this.failures;
+                if (this.dirty == 0) return;
+            }
+            if (failures > 0) {
+                try {
+                    Thread.sleep(MIN_RETRY_DELAY << Math.min(failures - 1, CLOSE_ATTEMPTS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while flushing contact book", e);
+                }
+            }
+            runFlush();
+            try {
+                await(future);
+                return;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+}
@@ -0,0 +1,100 @@
+package com.snebot.fbmoll.persistence;
+
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.util.FileUtils;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.function.Consumer;
+
+/**
+ * Reads and writes full contact book snapshots.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public interface SnapshotCodec {
+    /**
+     * Write the contact book to a stream.
+     *
+     * @param book Contact book.
+     * @param out  Destination stream, not closed.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    void write(ContactBook book, OutputStream out) throws IOException;
+
+    /**
+     * Read a contact book from a stream.
+     *
+     * @param in Source stream, not closed.
+     * @return Contact book.
+     * @throws IOException If the snapshot cannot be read.
+     */
+    ContactBook read(InputStream in) throws IOException;
+
+    /**
+     * Read a contact book from a stream, reporting the partially read book while reading.
+     * Codecs that bind the whole document at once never report progress.
+     *
+     * @param in       Source stream, not closed.
+     * @param progress Called on the reading thread with the book read so far, which must
+     *                 not be modified or kept. Null to not report progress.
+     * @return Contact book.
+     * @throws IOException If the snapshot cannot be read.
+     */
+    default ContactBook read(InputStream in, Consumer<ContactBook> progress) throws IOException {
+        return read(in);
+    }
+
+    /**
+     * Save contact book to a file, replacing it atomically.
+     *
+     * @param book Contact book.
+     * @param path Destination file path.
+     * @return True if the file was written.
+     * @see FileUtils#writeAtomically(String, FileUtils.ContentWriter)
+     */
+    default boolean save(ContactBook book, String path) {
+        try {
+            FileUtils.getInstance().writeAtomically(path, out -> write(book, out));
+            return true;
+        } catch (Exception e) {
+            LoggerFactory.getLogger(getClass()).error("failed to save contact book ", e);
+            return false;
+        }
+    }
+
+    /**
+     * Load contact book from a file.
+     *
+     * @param path File path.
+     * @return Loaded contact book, empty if the file does not exist.
+     * @throws IOException If the file exists but cannot be read or fails its checksum.
+     */
+    default ContactBook load(String path) throws IOException {
+        return load(path, null);
+    }
+
+    /**
+     * Load contact book from a file, reporting the partially read book while reading.
+     * Compressed files are detected and decompressed. Only a missing file yields an
+     * empty book: an unreadable file must never be mistaken for an empty one, which
+     * the next save would overwrite.
+     *
+     * @param path     File path.
+     * @param progress Progress callback, see {@link #read(InputStream, Consumer)}.
+     * @return Loaded contact book, empty if the file does not exist.
+     * @throws IOException If the file exists but cannot be read or fails its checksum.
+     * @see FileUtils#readFile(String, FileUtils.ContentReader)
+     */
+    default ContactBook load(String path, Consumer<ContactBook> progress) throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) return new ContactBook();
+        try {
+            return FileUtils.getInstance().readFile(path, in -> read(in, progress));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(String.format("%s: failed to load contact book", path), e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.snebot.fbmoll.persistence;
+
+/**
+ * Available snapshot file formats.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public enum SnapshotFormat {
+    /**
+     * XML through JAXB, the whole document is bound at once.
+     */
+    JAXB(new JaxbSnapshotCodec(), ".xml"),
+    /**
+     * Same XML document, streamed one contact at a time.
+     */
+    STAX(new StaxSnapshotCodec(), ".xml"),
+    /**
+     * Length-prefixed binary records with a checksum, loaded through a memory mapping.
+     */
+    BINARY(new BinarySnapshotCodec(), ".bin");
+
+    private final SnapshotCodec codec;
+    private final String extension;
+
+    SnapshotFormat(SnapshotCodec codec, String extension) {
+        this.codec = codec;
+        this.extension = extension;
+    }
+
+    public SnapshotCodec getCodec() {
+        return this.codec;
+    }
+
+    /**
+     * Returns the file extension of the format, including the separator.
+     *
+     * @return File extension.
+     */
+    public String getExtension() {
+        return this.extension;
+    }
+
+    public boolean isXml() {
+        return this.extension.equals(".xml");
+    }
+}
@@ -0,0 +1,137 @@
+package com.snebot.fbmoll.persistence;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.data.ContactField;
+
+import javax.xml.stream.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Streaming XML snapshots, one contact element at a time.
+ * Produces and accepts the same document as {@link JaxbSnapshotCodec}:
+ * {@code <contactBook name=".."><contacts><contact>..</contact></contacts></contactBook>}.
+ * The document is encoded through a buffered writer, since the stream writer of
+ * the JDK otherwise hands every encoded byte to the output stream on its own.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class StaxSnapshotCodec implements SnapshotCodec {
+    private static final String ROOT_ELEMENT = "contactBook";
+    private static final String NAME_ATTRIBUTE = "name";
+    private static final String CONTACTS_ELEMENT = "contacts";
+    private static final String CONTACT_ELEMENT = "contact";
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Line break followed by the indentation of every depth, written with a single call.
+     */
+    private static final String[] NEW_LINES = {"\n", "\n", "\n    ", "\n        ", "\n            "};
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    static {
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final boolean formatted;
+
+    public StaxSnapshotCodec() {
+        this(true);
+    }
+
+    /**
+     * @param formatted Indent output like the JAXB formatted output.
+     */
+    public StaxSnapshotCodec(boolean formatted) {
+        this.formatted = formatted;
+    }
+
+    @Override
+    public void write(ContactBook book, OutputStream out) throws IOException {
+        try {
+            Writer chars = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(chars);
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            newLine(writer, 0);
+            writer.writeStartElement(ROOT_ELEMENT);
+            if (book.getName() != null) writer.writeAttribute(NAME_ATTRIBUTE, book.getName());
+            newLine(writer, 1);
+            writer.writeStartElement(CONTACTS_ELEMENT);
+            for (Contact contact : book.getContacts()) {
+                newLine(writer, 2);
+                writer.writeStartElement(CONTACT_ELEMENT);
+                for (ContactField field : ContactField.values()) {
+                    String value = field.get(contact);
+                    if (value == null) continue;
+                    newLine(writer, 3);
+                    writer.writeStartElement(field.getKey());
+                    writer.writeCharacters(value);
+                    writer.writeEndElement();
+                }
+                newLine(writer, 2);
+                writer.writeEndElement();
+            }
+            newLine(writer, 1);
+            writer.writeEndElement();
+            newLine(writer, 0);
+            writer.writeEndElement();
+            newLine(writer, -1);
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+            chars.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("failed to write contact book", e);
+        }
+    }
+
+    private void newLine(XMLStreamWriter writer, int depth) throws XMLStreamException {
+        if (!this.formatted) return;
+        writer.writeCharacters(NEW_LINES[depth + 1]);
+    }
+
+    /**
+     * Reads contacts one by one straight into the contact book, keeping their identifiers.
+     */
+    @Override
+    public ContactBook read(InputStream in) throws IOException {
+        return read(in, null);
+    }
+
+    @Override
+    public ContactBook read(InputStream in, Consumer<ContactBook> progress) throws IOException {
+        LoadProgress reporter = new LoadProgress(progress);
+        ContactBook book = new ContactBook();
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            Contact contact = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (contact != null && CONTACT_ELEMENT.equals(reader.getLocalName())) {
+                        book.restoreContact(contact);
+                        reporter.contactRead(book);
+                        contact = null;
+                    }
+                } else if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if (ROOT_ELEMENT.equals(element)) {
+                        book.setName(reader.getAttributeValue(null, NAME_ATTRIBUTE));
+                    } else if (CONTACT_ELEMENT.equals(element)) {
+                        contact = new Contact();
+                    } else if (contact != null) {
+                        ContactField field = ContactField.fromKey(element);
+                        if (field != null) field.restore(contact, reader.getElementText());
+                    }
+                }
+            }
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("failed to read contact book", e);
+        }
+        return book;
+    }
+}
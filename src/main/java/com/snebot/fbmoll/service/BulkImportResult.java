@@ -0,0 +1,79 @@
+package com.snebot.fbmoll.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class BulkImportResult {
+    /**
+     * Rejected item of a bulk import.
+     */
+    public static class ItemError {
+        private final int index;
+        private final String field;
+        private final String message;
+
+        public ItemError(int index, String field, String message) {
+            this.index = index;
+            this.field = field;
+            this.message = message;
+        }
+
+        public int getIndex() {
+            return this.index;
+        }
+
+        public String getField() {
+            return this.field;
+        }
+
+        public String getMessage() {
+            return this.message;
+        }
+    }
+
+    private int received = 0;
+    private int imported = 0;
+    private final List<String> uuids = new ArrayList<>();
+    private final List<ItemError> errors = new ArrayList<>();
+
+    public int getReceived() {
+        return this.received;
+    }
+
+    public int getImported() {
+        return this.imported;
+    }
+
+    /**
+     * Returns the unique identifiers of the imported contacts in input order.
+     * Rejected items have a null identifier.
+     *
+     * @return Unique identifiers.
+     */
+    public List<String> getUuids() {
+        return this.uuids;
+    }
+
+    public List<ItemError> getErrors() {
+        return this.errors;
+    }
+
+    void addItem() {
+        this.received++;
+        this.uuids.add(null);
+    }
+
+    void setImported(int index, String uuid) {
+        this.uuids.set(index, uuid);
+        this.imported++;
+    }
+
+    void addError(int index, String field, String message) {
+        this.errors.add(new ItemError(index, field, message));
+    }
+}
@@ -0,0 +1,67 @@
+package com.snebot.fbmoll.service;
+
+import com.snebot.fbmoll.data.Contact;
+
+/**
+ * Mutation of a contact, numbered in the order mutations were applied.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ChangeEvent {
+    public enum Type {
+        ADDED, UPDATED, REMOVED
+    }
+
+    private final String epoch;
+    private final long sequence;
+    private final Type type;
+    private final Contact contact;
+    private final long timestamp;
+
+    /**
+     * @param epoch    Epoch of the feed run, see {@link ContactChangeFeed#cursor(long)}.
+     * @param sequence Sequence number within the run.
+     */
+    public ChangeEvent(String epoch, long sequence, Type type, Contact contact, long timestamp) {
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.type = type;
+        this.contact = contact;
+        this.timestamp = timestamp;
+    }
+
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * @return Cursor to resume reading after this event.
+     */
+    public String getId() {
+        return this.epoch + "-" + this.sequence;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    public String getUuid() {
+        return this.contact.getUUID();
+    }
+
+    /**
+     * Returns the contact after the mutation, or as it was before being removed.
+     *
+     * @return Contact data.
+     */
+    public Contact getContact() {
+        return this.contact;
+    }
+
+    /**
+     * @return Milliseconds since the epoch when the mutation was applied.
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+}
@@ -0,0 +1,65 @@
+package com.snebot.fbmoll.service;
+
+import java.util.List;
+
+/**
+ * Events read from the change feed after a sequence number.
+ * When the events after that sequence are no longer retained, or the sequence
+ * comes from a previous run, the page is a reset: the client has to read the
+ * whole contact book again and resume from the latest sequence.
+ * Clients resume from the cursors, which tell sequences of different runs apart.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ChangePage {
+    private final String epoch;
+    private final List<ChangeEvent> events;
+    private final long next;
+    private final long latest;
+    private final boolean reset;
+
+    public ChangePage(String epoch, List<ChangeEvent> events, long next, long latest, boolean reset) {
+        this.epoch = epoch;
+        this.events = events;
+        this.next = next;
+        this.latest = latest;
+        this.reset = reset;
+    }
+
+    public List<ChangeEvent> getEvents() {
+        return this.events;
+    }
+
+    /**
+     * @return Sequence to read the next page from.
+     */
+    public long getNext() {
+        return this.next;
+    }
+
+    /**
+     * @return Sequence of the last event in the feed.
+     */
+    public long getLatest() {
+        return this.latest;
+    }
+
+    /**
+     * @return Cursor to read the next page from.
+     * @see ContactChangeFeed#cursor(long)
+     */
+    public String getNextCursor() {
+        return this.epoch + "-" + this.next;
+    }
+
+    /**
+     * @return Cursor of the last event in the feed, to resume from after a reset.
+     */
+    public String getLatestCursor() {
+        return this.epoch + "-" + this.latest;
+    }
+
+    public boolean isReset() {
+        return this.reset;
+    }
+}
@@ -0,0 +1,28 @@
+package com.snebot.fbmoll.service;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Contact book loading state, part of the readiness probe at /actuator/health/readiness.
+ * Out of service while loading and down if loading failed.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@Component
+public class ContactBookHealthIndicator implements HealthIndicator {
+    private final ContactBookService service;
+
+    public ContactBookHealthIndicator(ContactBookService service) {
+        this.service = service;
+    }
+
+    @Override
+    public Health health() {
+        Throwable failure = this.service.getLoadFailure();
+        if (failure != null) return Health.down().withDetail("error", failure.toString()).build();
+        Health.Builder health = this.service.isReady() ? Health.up() : Health.outOfService();
+        return health.withDetail("contacts", this.service.getLoadedContacts()).build();
+    }
+}
@@ -0,0 +1,331 @@
+package com.snebot.fbmoll.service;
+
+import com.snebot.fbmoll.data.ContactStorage;
+import com.snebot.fbmoll.persistence.FsyncPolicy;
+import com.snebot.fbmoll.persistence.PersistenceMode;
+import com.snebot.fbmoll.persistence.SnapshotFormat;
+import com.snebot.fbmoll.util.Compression;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the {@link ContactBookService}, bound from the contacts.* properties.
+ * Every setting has a default, see application.properties for what they do.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@ConfigurationProperties(prefix = "contacts")
+public class ContactBookProperties {
+    private String file = "contacts.xml";
+    private ContactStorage storage = ContactStorage.HEAP;
+    private final Persistence persistence = new Persistence();
+    private final Journal journal = new Journal();
+    private final Delta delta = new Delta();
+    private final QueryCache queryCache = new QueryCache();
+    private final Writer writer = new Writer();
+    private final Changes changes = new Changes();
+    private final Sync sync = new Sync();
+    private final Startup startup = new Startup();
+
+    public String getFile() {
+        return this.file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public ContactStorage getStorage() {
+        return this.storage;
+    }
+
+    public void setStorage(ContactStorage storage) {
+        this.storage = storage;
+    }
+
+    public Persistence getPersistence() {
+        return this.persistence;
+    }
+
+    public Journal getJournal() {
+        return this.journal;
+    }
+
+    public Delta getDelta() {
+        return this.delta;
+    }
+
+    public QueryCache getQueryCache() {
+        return this.queryCache;
+    }
+
+    public Writer getWriter() {
+        return this.writer;
+    }
+
+    public Changes getChanges() {
+        return this.changes;
+    }
+
+    public Sync getSync() {
+        return this.sync;
+    }
+
+    public Startup getStartup() {
+        return this.startup;
+    }
+
+    /**
+     * contacts.persistence.*: contact book files and when they are written.
+     */
+    public static class Persistence {
+        private PersistenceMode mode = PersistenceMode.SNAPSHOT;
+        private SnapshotFormat format = SnapshotFormat.STAX;
+        private Compression compression = Compression.NONE;
+        private int compressionLevel = 1;
+        private int shards = 1;
+        private long flushDelayMs = 200;
+        private int flushThreshold = 1000;
+
+        public PersistenceMode getMode() {
+            return this.mode;
+        }
+
+        public void setMode(PersistenceMode mode) {
+            this.mode = mode;
+        }
+
+        public SnapshotFormat getFormat() {
+            return this.format;
+        }
+
+        public void setFormat(SnapshotFormat format) {
+            this.format = format;
+        }
+
+        public Compression getCompression() {
+            return this.compression;
+        }
+
+        public void setCompression(Compression compression) {
+            this.compression = compression;
+        }
+
+        public int getCompressionLevel() {
+            return this.compressionLevel;
+        }
+
+        public void setCompressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+        }
+
+        public int getShards() {
+            return this.shards;
+        }
+
+        public void setShards(int shards) {
+            this.shards = shards;
+        }
+
+        public long getFlushDelayMs() {
+            return this.flushDelayMs;
+        }
+
+        public void setFlushDelayMs(long flushDelayMs) {
+            this.flushDelayMs = flushDelayMs;
+        }
+
+        public int getFlushThreshold() {
+            return this.flushThreshold;
+        }
+
+        public void setFlushThreshold(int flushThreshold) {
+            this.flushThreshold = flushThreshold;
+        }
+    }
+
+    /**
+     * contacts.journal.*: journal of {@link PersistenceMode#JOURNAL}.
+     */
+    public static class Journal {
+        private FsyncPolicy fsync = FsyncPolicy.BATCHED;
+        private int batchSize = 64;
+        private int checkpointRecords = 10000;
+
+        public FsyncPolicy getFsync() {
+            return this.fsync;
+        }
+
+        public void setFsync(FsyncPolicy fsync) {
+            this.fsync = fsync;
+        }
+
+        public int getBatchSize() {
+            return this.batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getCheckpointRecords() {
+            return this.checkpointRecords;
+        }
+
+        public void setCheckpointRecords(int checkpointRecords) {
+            this.checkpointRecords = checkpointRecords;
+        }
+    }
+
+    /**
+     * contacts.delta.*: delta files of {@link PersistenceMode#DELTA}.
+     */
+    public static class Delta {
+        private int maxFiles = 16;
+        private double maxRatio = 0.5;
+
+        public int getMaxFiles() {
+            return this.maxFiles;
+        }
+
+        public void setMaxFiles(int maxFiles) {
+            this.maxFiles = maxFiles;
+        }
+
+        public double getMaxRatio() {
+            return this.maxRatio;
+        }
+
+        public void setMaxRatio(double maxRatio) {
+            this.maxRatio = maxRatio;
+        }
+    }
+
+    /**
+     * contacts.query-cache.*: cache of repeated attribute searches.
+     */
+    public static class QueryCache {
+        private int maxEntries = 1024;
+        private long maxContacts = 100000;
+
+        public int getMaxEntries() {
+            return this.maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public long getMaxContacts() {
+            return this.maxContacts;
+        }
+
+        public void setMaxContacts(long maxContacts) {
+            this.maxContacts = maxContacts;
+        }
+    }
+
+    /**
+     * contacts.writer.*: queue of the single writer thread.
+     */
+    public static class Writer {
+        private int queueCapacity = 4096;
+        private int batchSize = 256;
+
+        public int getQueueCapacity() {
+            return this.queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getBatchSize() {
+            return this.batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    /**
+     * contacts.changes.*: change feed.
+     */
+    public static class Changes {
+        private int capacity = 10000;
+        private int maxSubscribers = 16;
+        private long heartbeatMs = 15000;
+
+        public int getCapacity() {
+            return this.capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public int getMaxSubscribers() {
+            return this.maxSubscribers;
+        }
+
+        public void setMaxSubscribers(int maxSubscribers) {
+            this.maxSubscribers = maxSubscribers;
+        }
+
+        public long getHeartbeatMs() {
+            return this.heartbeatMs;
+        }
+
+        public void setHeartbeatMs(long heartbeatMs) {
+            this.heartbeatMs = heartbeatMs;
+        }
+    }
+
+    /**
+     * contacts.sync.*: incremental syncs.
+     */
+    public static class Sync {
+        private int maxTombstones = 100000;
+
+        public int getMaxTombstones() {
+            return this.maxTombstones;
+        }
+
+        public void setMaxTombstones(int maxTombstones) {
+            this.maxTombstones = maxTombstones;
+        }
+    }
+
+    /**
+     * contacts.startup.*: loading the contact book.
+     */
+    public static class Startup {
+        private boolean async = true;
+        private StartupPolicy policy = StartupPolicy.QUEUE;
+        private long queueTimeoutMs = 30000;
+
+        public boolean isAsync() {
+            return this.async;
+        }
+
+        public void setAsync(boolean async) {
+            this.async = async;
+        }
+
+        public StartupPolicy getPolicy() {
+            return this.policy;
+        }
+
+        public void setPolicy(StartupPolicy policy) {
+            this.policy = policy;
+        }
+
+        public long getQueueTimeoutMs() {
+            return this.queueTimeoutMs;
+        }
+
+        public void setQueueTimeoutMs(long queueTimeoutMs) {
+            this.queueTimeoutMs = queueTimeoutMs;
+        }
+    }
+}
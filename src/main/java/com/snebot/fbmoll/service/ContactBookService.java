@@ -0,0 +1,1011 @@
+package com.snebot.fbmoll.service;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.data.ContactBookSnapshot;
+import com.snebot.fbmoll.data.ContactField;
+import com.snebot.fbmoll.data.ContactPage;
+import com.snebot.fbmoll.data.ContactSource;
+import com.snebot.fbmoll.data.ContactStorage;
+import com.snebot.fbmoll.data.ContactSync;
+import com.snebot.fbmoll.data.DuplicateGroup;
+import com.snebot.fbmoll.data.DuplicateKey;
+import com.snebot.fbmoll.data.QueryCache;
+import com.snebot.fbmoll.data.ShardedContactBook;
+import com.snebot.fbmoll.helper.ContactRuleSet;
+import com.snebot.fbmoll.persistence.CompressedSnapshotCodec;
+import com.snebot.fbmoll.persistence.ContactJournal;
+import com.snebot.fbmoll.persistence.DeltaStore;
+import com.snebot.fbmoll.persistence.FsyncPolicy;
+import com.snebot.fbmoll.persistence.PersistenceMode;
+import com.snebot.fbmoll.persistence.PersistenceScheduler;
+import com.snebot.fbmoll.persistence.SnapshotCodec;
+import com.snebot.fbmoll.persistence.SnapshotFormat;
+import com.snebot.fbmoll.util.Compression;
+import com.snebot.fbmoll.util.FileUtils;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Owns the contact book and keeps it persisted in the user folder.
+ * With several shards every shard has its own file, e.g. contacts-0.xml,
+ * and its own journal, which are loaded and saved in parallel.
+ * Mutations are applied in order by a single {@link ContactBookWriter}.
+ *
+ * @author Serafi Nebot Ginard
+ */
+@Service
+public class ContactBookService {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private static final FileUtils fileUtils = FileUtils.getInstance();
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final ContactRuleSet RULES = ContactRuleSet.defaults();
+    private final String basePath;
+    private final String filePath;
+    private final int shardCount;
+    private final ContactStorage storage;
+    private final String[] shardPaths;
+    private final ForkJoinPool pool;
+    private final PersistenceMode mode;
+    private final SnapshotFormat format;
+    private final SnapshotCodec codec;
+    private final int checkpointRecords;
+    private final int maxDeltas;
+    private final double maxDeltaRatio;
+    private final ExecutorService compactor;
+    private final AtomicBoolean checkpointQueued = new AtomicBoolean();
+    private final Object[] checkpointLocks;
+    private final QueryCache queryCache;
+    private final ContactBookWriter writer;
+    private final ContactChangeFeed changeFeed;
+    private final int maxTombstones;
+    private final StartupPolicy startupPolicy;
+    private final long queueTimeout;
+    private final MeterRegistry registry;
+    private final Timer marshalTimer;
+    private final Timer unmarshalTimer;
+
+    /**
+     * Completed with the contact book once loaded. The fields below are set
+     * by the loader before completing it and never change afterwards.
+     */
+    private final CompletableFuture<ShardedContactBook> ready = new CompletableFuture<>();
+    private ShardedContactBook book = null;
+    private ContactJournal[] journals = null;
+    private DeltaStore[] deltaStores = null;
+    private PersistenceScheduler scheduler = null;
+    private AtomicLongArray savedVersions = null;
+    private volatile ContactBookSnapshot partial = null;
+
+    /**
+     * @param properties Settings, see {@link ContactBookProperties}.
+     * @param registry   Registry of the service metrics.
+     * @throws IOException If loading synchronously and the contact book cannot be loaded.
+     */
+    @Autowired
+    public ContactBookService(ContactBookProperties properties, MeterRegistry registry) throws IOException {
+        this(properties, null, registry);
+    }
+
+    /**
+     * @param codec Codec used instead of the configured format and compression, e.g. to
+     *              control loading in tests. Null to use the configured ones.
+     * @see #ContactBookService(ContactBookProperties, MeterRegistry)
+     */
+    ContactBookService(ContactBookProperties properties, SnapshotCodec codec, MeterRegistry registry) throws IOException {
+        ContactBookProperties.Persistence persistence = properties.getPersistence();
+        SnapshotFormat format = persistence.getFormat();
+        Compression compression = persistence.getCompression();
+        int shards = persistence.getShards();
+        StartupPolicy startupPolicy = properties.getStartup().getPolicy();
+        this.basePath = fileUtils.removeFileExtension(fileUtils.getUserFile(properties.getFile()));
+        this.filePath = this.basePath + format.getExtension();
+        this.format = format;
+        if (shards < 1) throw new IllegalArgumentException("contacts.persistence.shards must be at least 1");
+        this.shardCount = shards;
+        this.storage = properties.getStorage();
+        this.shardPaths = new String[shards];
+        this.checkpointLocks = new Object[shards];
+        Arrays.setAll(this.checkpointLocks, i -> new Object());
+        for (int i = 0; i < shards; i++) this.shardPaths[i] = shards == 1 ? this.filePath : shardPath(i);
+        this.pool = shards == 1 ? ForkJoinPool.commonPool()
+                : new ForkJoinPool(Math.min(shards, Runtime.getRuntime().availableProcessors()), ShardWorker::new, null, false);
+        this.mode = persistence.getMode();
+        if (codec != null) this.codec = codec;
+        else this.codec = compression == Compression.NONE ? format.getCodec()
+                : new CompressedSnapshotCodec(format.getCodec(), compression, persistence.getCompressionLevel());
+        this.checkpointRecords = properties.getJournal().getCheckpointRecords();
+        this.maxDeltas = properties.getDelta().getMaxFiles();
+        this.maxDeltaRatio = properties.getDelta().getMaxRatio();
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "contact-book-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.startupPolicy = startupPolicy;
+        this.queueTimeout = properties.getStartup().getQueueTimeoutMs();
+        this.registry = registry;
+        this.marshalTimer = Timer.builder("contacts.persistence.marshal")
+                .description("Contact book file writes")
+                .tag("format", format.name())
+                .tag("compression", compression.name())
+                .register(registry);
+        this.unmarshalTimer = Timer.builder("contacts.persistence.unmarshal")
+                .description("Contact book file reads")
+                .tag("format", format.name())
+                .tag("compression", compression.name())
+                .register(registry);
+        Gauge.builder("contacts.book.size", this, service -> service.isReady() ? service.book.size() : 0)
+                .register(registry);
+        Gauge.builder("contacts.file.size", this, service -> Arrays.stream(service.shardPaths).mapToLong(path -> new File(path).length()).sum())
+                .baseUnit("bytes")
+                .register(registry);
+
+        ContactBookProperties.QueryCache cache = properties.getQueryCache();
+        this.queryCache = cache.getMaxEntries() > 0 ? new QueryCache(cache.getMaxEntries(), cache.getMaxContacts()) : null;
+        if (this.queryCache != null) {
+            FunctionCounter.builder("contacts.query.cache", this.queryCache, QueryCache::getHits)
+                    .description("Attribute searches served from the query cache")
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("contacts.query.cache", this.queryCache, QueryCache::getMisses)
+                    .description("Attribute searches served from the query cache")
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("contacts.query.cache.evictions", this.queryCache, QueryCache::getEvictions)
+                    .register(registry);
+            Gauge.builder("contacts.query.cache.size", this.queryCache, QueryCache::size)
+                    .register(registry);
+        }
+
+        this.writer = new ContactBookWriter(this::book, this::commit, properties.getWriter().getQueueCapacity(), properties.getWriter().getBatchSize());
+        Gauge.builder("contacts.writer.queue.size", this.writer, ContactBookWriter::getQueueSize)
+                .description("Mutations waiting for the contact book writer")
+                .register(registry);
+        FunctionCounter.builder("contacts.writer.commands", this.writer, ContactBookWriter::getCommands)
+                .description("Mutations applied by the contact book writer")
+                .register(registry);
+        FunctionCounter.builder("contacts.writer.batches", this.writer, ContactBookWriter::getBatches)
+                .description("Batches of mutations persisted together by the contact book writer")
+                .register(registry);
+
+        this.maxTombstones = properties.getSync().getMaxTombstones();
+        ContactBookProperties.Changes changes = properties.getChanges();
+        this.changeFeed = new ContactChangeFeed(changes.getCapacity(), changes.getMaxSubscribers(), changes.getHeartbeatMs());
+        Gauge.builder("contacts.changes.sequence", this.changeFeed, ContactChangeFeed::getLatest)
+                .description("Sequence of the last contact change")
+                .register(registry);
+        Gauge.builder("contacts.changes.subscribers", this.changeFeed, ContactChangeFeed::getSubscriberCount)
+                .register(registry);
+        FunctionCounter.builder("contacts.changes.dropped", this.changeFeed, ContactChangeFeed::getDroppedSubscribers)
+                .description("Change feed subscribers dropped for falling behind")
+                .register(registry);
+
+        ContactBookProperties.Journal journal = properties.getJournal();
+        Runnable warmUp = () -> warmUp(journal.getFsync(), journal.getBatchSize(), persistence.getFlushDelayMs(),
+                persistence.getFlushThreshold());
+        if (properties.getStartup().isAsync()) {
+            Thread loader = new Thread(warmUp, "contact-book-loader");
+            loader.setDaemon(true);
+            loader.start();
+        } else {
+            warmUp.run();
+            if (getLoadFailure() != null) {
+                this.writer.close();
+                this.changeFeed.close();
+                throw new IOException("failed to load contact book", getLoadFailure());
+            }
+        }
+    }
+
+    /**
+     * Load the contact book, replay deltas and the journal, and start persisting changes.
+     * While a single file is read, contacts read so far are published as a partial view.
+     * Shard files left by another amount of shards are redistributed and removed
+     * once every shard has been saved again, and so are deltas left by the delta mode.
+     */
+    private void warmUp(FsyncPolicy fsyncPolicy, int batchSize, long flushDelay, int flushThreshold) {
+        try {
+            long start = System.nanoTime();
+            DeltaStore.recover(this.filePath);
+            for (String path : this.shardPaths) DeltaStore.recover(path);
+            List<String> sources = snapshotSources();
+            for (String path : sources) DeltaStore.recover(path);
+            Consumer<ContactBook> progress = sources.size() == 1 ? this::publishPartial : null;
+            List<ContactBook> loaded = this.unmarshalTimer.record(() -> parallel(sources.size(), i -> {
+                try {
+                    return sources.get(i).equals(this.filePath) ? loadContactBook(progress) : this.codec.load(sources.get(i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            this.partial = null;
+
+            int replayed = 0;
+            List<DeltaStore> stores = new ArrayList<>();
+            for (int i = 0; i < sources.size(); i++) {
+                DeltaStore store = new DeltaStore(sources.get(i), this.codec, this.maxDeltas, this.maxDeltaRatio, this.compactor);
+                replayed += store.replay(loaded.get(i));
+                stores.add(store);
+            }
+            List<ContactJournal> staleJournals = new ArrayList<>();
+            if (this.mode == PersistenceMode.JOURNAL) {
+                this.journals = new ContactJournal[this.shardCount];
+                for (int i = 0; i < sources.size(); i++) {
+                    String journalPath = fileUtils.removeFileExtension(sources.get(i)) + JOURNAL_EXTENSION;
+                    if (i >= this.shardCount && !new File(journalPath).isFile()) continue;
+                    ContactJournal journal = new ContactJournal(journalPath, fsyncPolicy, batchSize);
+                    replayed += journal.replay(loaded.get(i));
+                    if (i < this.shardCount) this.journals[i] = journal;
+                    else staleJournals.add(journal);
+                }
+            }
+
+            String name = loaded.isEmpty() ? null : loaded.get(0).getName();
+            this.book = new ShardedContactBook(name, this.shardCount, loaded, this.pool, this.storage);
+            this.savedVersions = new AtomicLongArray(this.shardCount);
+            if (this.mode == PersistenceMode.DELTA) {
+                this.deltaStores = stores.subList(0, this.shardCount).toArray(new DeltaStore[0]);
+                for (int i = 0; i < this.shardCount; i++) this.deltaStores[i].attach(this.book.getShard(i));
+                stores = stores.subList(this.shardCount, stores.size());
+                this.scheduler = new PersistenceScheduler(this::flushDeltas, flushDelay, flushThreshold);
+                this.registry.gauge("contacts.delta.files", this,
+                        service -> Arrays.stream(service.deltaStores).mapToInt(DeltaStore::getDeltaCount).sum());
+            } else if (this.journals != null) {
+                for (int i = 0; i < this.shardCount; i++) this.book.getShard(i).setJournal(this.journals[i]);
+                this.registry.gauge("contacts.journal.records", this,
+                        service -> Arrays.stream(service.journals).mapToInt(ContactJournal::size).sum());
+            } else {
+                this.scheduler = new PersistenceScheduler(this::saveContactBook, flushDelay, flushThreshold);
+            }
+
+            boolean replayedLog = replayed > 0 && this.mode != PersistenceMode.DELTA;
+            if (replayedLog || this.book.isRebalanced()) {
+                if (replayed > 0) log.info(String.format("replayed %d journal and delta records", replayed));
+                if (this.book.isRebalanced()) log.info(String.format("redistributed contacts into %d shards", this.shardCount));
+                boolean saved;
+                if (this.deltaStores != null) {
+                    saved = compactAll();
+                } else {
+                    for (int i = 0; i < this.shardCount; i++) this.savedVersions.set(i, -1);
+                    if (this.scheduler != null) this.scheduler.markDirty();
+                    writeCheckpoint();
+                    saved = IntStream.range(0, this.shardCount).allMatch(i -> this.savedVersions.get(i) >= 0);
+                }
+                if (saved) removeStaleFiles(sources, staleJournals, stores);
+            }
+            this.book.setQueryCache(this.queryCache);
+            this.book.addListener(this.changeFeed);
+            this.book.setMaxTombstones(this.maxTombstones);
+            this.book.setQueryObserver((shape, scanned, returned) -> {
+                this.registry.counter("contacts.query.scanned", "shape", shape).increment(scanned);
+                this.registry.counter("contacts.query.returned", "shape", shape).increment(returned);
+            });
+
+            if (this.ready.complete(this.book)) {
+                log.info(String.format("loaded %d contacts in %d shards in %d ms", this.book.size(), this.shardCount,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            } else {
+                closeResources();
+            }
+        } catch (Exception e) {
+            Throwable failure = e instanceof UncheckedIOException ? e.getCause() : e;
+            log.error("failed to load contact book ", failure);
+            this.ready.completeExceptionally(failure);
+        }
+    }
+
+    private String shardPath(int index) {
+        return String.format("%s-%d%s", this.basePath, index, this.format.getExtension());
+    }
+
+    /**
+     * Returns the snapshot files to load: one per shard, in shard order, followed
+     * by shard files of another amount of shards. A sharded book without shard
+     * files yet starts from the unsharded file.
+     */
+    private List<String> snapshotSources() {
+        List<String> sources = new ArrayList<>(Arrays.asList(this.shardPaths));
+        File home = new File(this.basePath).getParentFile();
+        Pattern shardName = Pattern.compile(Pattern.quote(new File(this.basePath).getName()) + "-(\\d+)"
+                + Pattern.quote(this.format.getExtension()));
+        File[] files = home != null ? home.listFiles() : null;
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = shardName.matcher(file.getName());
+                if (matcher.matches() && (this.shardCount == 1 || Integer.parseInt(matcher.group(1)) >= this.shardCount))
+                    sources.add(file.getPath());
+            }
+        }
+        if (this.shardCount > 1 && sources.stream().noneMatch(path -> new File(path).isFile())) sources.add(this.filePath);
+        return sources;
+    }
+
+    /**
+     * Remove shard files, journals and deltas whose contacts are now saved elsewhere.
+     * The unsharded file is kept, like XML files after a migration.
+     */
+    private void removeStaleFiles(List<String> sources, List<ContactJournal> staleJournals,
+                                  List<DeltaStore> staleDeltas) throws IOException {
+        for (DeltaStore store : staleDeltas) store.clear();
+        for (ContactJournal journal : staleJournals) {
+            journal.close();
+            if (!journal.getFile().delete()) log.warn(String.format("failed to remove %s", journal.getFile()));
+        }
+        for (String path : sources.subList(this.shardCount, sources.size())) {
+            if (path.equals(this.filePath)) continue;
+            if (!new File(path).delete()) log.warn(String.format("failed to remove %s", path));
+        }
+    }
+
+    /**
+     * Run a task for every index on the shard pool.
+     *
+     * @return Results in index order.
+     */
+    private <T> List<T> parallel(int count, IntFunction<T> task) {
+        if (count == 1) return Collections.singletonList(task.apply(0));
+        return this.pool.submit(() -> IntStream.range(0, count).parallel()
+                .mapToObj(task)
+                .collect(Collectors.toList())).join();
+    }
+
+    private void publishPartial(ContactBook book) {
+        if (this.startupPolicy == StartupPolicy.PARTIAL) this.partial = ContactBookSnapshot.copyOf(book);
+    }
+
+    /**
+     * Returns true once the contact book is loaded and accepts requests.
+     *
+     * @return True if loaded.
+     */
+    public boolean isReady() {
+        return this.ready.isDone() && !this.ready.isCompletedExceptionally();
+    }
+
+    /**
+     * Returns the error that stopped the contact book from loading.
+     *
+     * @return Load error, null if loaded or still loading.
+     */
+    public Throwable getLoadFailure() {
+        if (!this.ready.isCompletedExceptionally()) return null;
+        try {
+            this.ready.join();
+            return null;
+        } catch (CompletionException | CancellationException e) {
+            return e.getCause() != null ? e.getCause() : e;
+        }
+    }
+
+    /**
+     * Returns the amount of contacts available, including a partial view while loading.
+     *
+     * @return Amount of contacts.
+     */
+    public int getLoadedContacts() {
+        if (isReady()) return this.book.size();
+        ContactBookSnapshot partial = this.partial;
+        return partial != null ? partial.size() : 0;
+    }
+
+    /**
+     * Returns the loaded contact book, applying the startup policy while it is loading.
+     * Used by writes and by reads that need the live book.
+     *
+     * @return Loaded contact book.
+     * @throws ContactBookUnavailableException If the book is not loaded and cannot be waited for.
+     */
+    private ShardedContactBook book() {
+        if (isReady()) return this.book;
+        if (this.startupPolicy == StartupPolicy.QUEUE || this.ready.isDone()) return awaitBook();
+        throw new ContactBookUnavailableException("contact book is still loading");
+    }
+
+    /**
+     * Returns the partial view to read from while loading with {@link StartupPolicy#PARTIAL}.
+     *
+     * @return Partial contact book snapshot, null to read from the loaded book.
+     */
+    private ContactBookSnapshot partialSnapshot() {
+        if (isReady() || this.startupPolicy != StartupPolicy.PARTIAL) return null;
+        return this.partial;
+    }
+
+    private ShardedContactBook awaitBook() {
+        try {
+            return this.ready.get(this.queueTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ContactBookUnavailableException("contact book is still loading");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ContactBookUnavailableException("interrupted while waiting for the contact book");
+        } catch (ExecutionException | CancellationException e) {
+            throw new ContactBookUnavailableException("contact book failed to load", e);
+        }
+    }
+
+    public PersistenceMode getMode() {
+        return this.mode;
+    }
+
+    public int getShardCount() {
+        return this.shardCount;
+    }
+
+    /**
+     * Returns the feed of contact changes, which starts once the contact book is loaded.
+     *
+     * @return Change feed.
+     */
+    public ContactChangeFeed getChangeFeed() {
+        return this.changeFeed;
+    }
+
+    public ShardedContactBook getBook() {
+        return book();
+    }
+
+    /**
+     * Load the contact book file. If a binary snapshot does not exist yet but an
+     * XML file does, the XML file is loaded and migrated. The XML file is kept.
+     *
+     * @param progress Receives the partially read book, see {@link SnapshotCodec#read(java.io.InputStream, Consumer)}.
+     * @return Loaded contact book.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    private ContactBook loadContactBook(Consumer<ContactBook> progress) throws IOException {
+        String xmlPath = this.basePath + SnapshotFormat.STAX.getExtension();
+        if (!this.format.isXml() && !new File(this.filePath).isFile() && new File(xmlPath).isFile()) {
+            ContactBook legacy = SnapshotFormat.STAX.getCodec().load(xmlPath, progress);
+            if (this.codec.save(legacy, this.filePath))
+                log.info(String.format("migrated %d contacts from %s to %s", legacy.getContacts().size(), xmlPath, this.filePath));
+            return legacy;
+        }
+        return this.codec.load(this.filePath, progress);
+    }
+
+    /**
+     * Save the last snapshot of every shard changed since its last save, shards in parallel.
+     * Runs concurrently with readers and writers.
+     *
+     * @return True if every file was written.
+     */
+    private boolean saveContactBook() {
+        return this.marshalTimer.record(() -> !parallel(this.shardCount, this::saveShard).contains(false));
+    }
+
+    private boolean saveShard(int index) {
+        ContactBookSnapshot snapshot = this.book.getShard(index).snapshot();
+        if (snapshot.getVersion() == this.savedVersions.get(index)) return true;
+        if (!this.codec.save(snapshot.toContactBook(), this.shardPaths[index])) return false;
+        this.savedVersions.set(index, snapshot.getVersion());
+        return true;
+    }
+
+    /**
+     * Write the contacts changed in every shard as deltas, shards in parallel.
+     *
+     * @return True if every delta was written.
+     */
+    private boolean flushDeltas() {
+        return this.marshalTimer.record(() -> !parallel(this.shardCount, i -> this.deltaStores[i].flush()).contains(false));
+    }
+
+    /**
+     * Merge the deltas of every shard into new base files, shards in parallel.
+     *
+     * @return True if every shard was compacted.
+     */
+    private boolean compactAll() {
+        return !parallel(this.shardCount, i -> {
+            try {
+                return this.deltaStores[i].compact();
+            } catch (IOException e) {
+                log.error("failed to compact contact book ", e);
+                return false;
+            }
+        }).contains(false);
+    }
+
+    /**
+     * Persist a batch of mutations applied by the writer. Journal records are
+     * already appended, durable batches sync them and full journals are
+     * checkpointed by the compactor. Snapshots and deltas are saved by the scheduler.
+     *
+     * @param durable Some mutation of the batch waits until it is on disk.
+     * @return Future completed once the batch is on disk.
+     * @throws IOException If the journal cannot be synced.
+     */
+    private CompletableFuture<Void> commit(boolean durable) throws IOException {
+        if (this.journals != null) {
+            if (durable) for (ContactJournal journal : this.journals) journal.sync();
+            scheduleCheckpoint();
+            return CompletableFuture.completedFuture(null);
+        }
+        return this.scheduler.markDirty();
+    }
+
+    /**
+     * Queue a checkpoint of the full journals on the compactor, unless one is queued already,
+     * so the writer never waits for a snapshot to be written.
+     */
+    private void scheduleCheckpoint() {
+        if (!checkpointNeeded() || !this.checkpointQueued.compareAndSet(false, true)) return;
+        try {
+            this.compactor.execute(() -> {
+                this.checkpointQueued.set(false);
+                try {
+                    checkpointIfNeeded();
+                } catch (IOException e) {
+                    log.error("failed to checkpoint contact book ", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.checkpointQueued.set(false);
+        }
+    }
+
+    private boolean checkpointNeeded() {
+        for (ContactJournal journal : this.journals) if (journal.size() >= this.checkpointRecords) return true;
+        return false;
+    }
+
+    /**
+     * Queue a mutation for the writer, rejecting it right away if the contact
+     * book is loading and the startup policy does not wait for it. The writer
+     * waits for the book once per batch, so commands use it directly.
+     */
+    private <T> CompletableFuture<T> submit(ContactBookWriter.Command<T> command, Predicate<T> changed, boolean durable) {
+        if (!this.ready.isDone() && this.startupPolicy != StartupPolicy.QUEUE) {
+            throw new ContactBookUnavailableException("contact book is still loading");
+        }
+        return this.writer.submit(command, changed, durable);
+    }
+
+    /**
+     * Wait for a mutation queued for the writer.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the contact book writer", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException("failed to change contact book", cause);
+        }
+    }
+
+    /**
+     * Write a full snapshot and discard the journal records or deltas it contains.
+     * The journal is kept if the snapshot could not be written. In snapshot
+     * mode this flushes pending changes.
+     *
+     * @throws IOException If the journal cannot be truncated.
+     */
+    public void checkpoint() throws IOException {
+        book();
+        writeCheckpoint();
+    }
+
+    private void writeCheckpoint() throws IOException {
+        if (this.scheduler != null) {
+            this.scheduler.flush();
+            if (this.deltaStores != null && !compactAll()) throw new IOException("failed to compact contact book");
+            return;
+        }
+        try {
+            parallel(this.shardCount, this::checkpointShard);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Save a shard and discard the journal records the saved snapshot contains.
+     * Only marking the journal waits for the shard, so every record before the mark
+     * is applied; the snapshot is taken afterwards and written while the writer
+     * goes on. Records it contains past the mark are replayed harmlessly.
+     * Checkpoints of a shard run one at a time, so an older snapshot never
+     * replaces a newer one.
+     */
+    private Void checkpointShard(int index) {
+        ContactJournal journal = this.journals[index];
+        try {
+            synchronized (this.checkpointLocks[index]) {
+                ContactJournal.Mark mark = this.book.getShard(index).exclusive(journal::mark);
+                if (saveShard(index)) journal.discard(mark);
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (Exception e) {
+            throw new UncheckedIOException(new IOException("failed to checkpoint contact book", e));
+        }
+    }
+
+    private void checkpointIfNeeded() throws IOException {
+        if (this.journals == null) return;
+        for (int i = 0; i < this.shardCount; i++) {
+            if (this.journals[i].size() < this.checkpointRecords) continue;
+            try {
+                checkpointShard(i);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Search contacts by attributes.
+     *
+     * @return List of matching contacts.
+     * @see ContactBook#getContacts(String, String, String, String, String, String)
+     */
+    public List<Contact> getContacts(String uuid, String name, String lastName, String email, String address, String phone) {
+        ContactBookSnapshot partial = partialSnapshot();
+        if (partial != null) return partial.getContacts(uuid, name, lastName, email, address, phone);
+        return book().getContacts(uuid, name, lastName, email, address, phone);
+    }
+
+    /**
+     * Type-ahead search by name, last name and email.
+     *
+     * @param query Search text.
+     * @param limit Maximum amount of results.
+     * @return Best matching contacts, best first.
+     * @see ContactBook#search(String, int)
+     */
+    public List<Contact> search(String query, int limit) {
+        return book().search(query, limit);
+    }
+
+    /**
+     * Returns the last published contact book snapshot, merging every shard.
+     *
+     * @return Contact book snapshot.
+     * @see ShardedContactBook#snapshot()
+     */
+    public ContactBookSnapshot snapshot() {
+        ContactBookSnapshot partial = partialSnapshot();
+        return partial != null ? partial : book().snapshot();
+    }
+
+    /**
+     * Returns the contacts currently served, to visit them later as they are found.
+     * Unlike {@link #snapshot()} shards that cannot publish every version are read
+     * a batch at a time instead of being copied first.
+     *
+     * @return Contacts currently served, a partial view while loading.
+     * @see ShardedContactBook#forEachContact(String, String, String, String, String, String, Consumer)
+     */
+    public ContactSource contacts() {
+        ContactBookSnapshot partial = partialSnapshot();
+        return partial != null ? partial : book();
+    }
+
+    /**
+     * Returns the entity tag of the contacts currently served.
+     *
+     * @return Quoted entity tag, null while the contact book is loading.
+     * @see ShardedContactBook#getETag()
+     */
+    public String getETag() {
+        return isReady() ? "\"" + this.book.getETag() + "\"" : null;
+    }
+
+    /**
+     * Returns the contacts changed and removed since a previous sync.
+     *
+     * @param token Token returned by the previous sync, null for the first sync.
+     * @return Changes since the token.
+     * @see ShardedContactBook#sync(String)
+     */
+    public ContactSync sync(String token) {
+        return book().sync(token);
+    }
+
+    /**
+     * Returns a page of contacts matching the attributes.
+     *
+     * @return Page of contacts.
+     * @see ShardedContactBook#getPage(String, String, String, String, String, String, String, int)
+     */
+    public ContactPage getPage(String uuid, String name, String lastName, String email, String address, String phone,
+                               String cursor, int limit) {
+        ContactBookSnapshot partial = partialSnapshot();
+        if (partial != null) return partial.getPage(uuid, name, lastName, email, address, phone, cursor, limit);
+        return book().getPage(uuid, name, lastName, email, address, phone, cursor, limit);
+    }
+
+    /**
+     * Add contact and persist the change, waiting for the writer.
+     *
+     * @param contact Contact to add.
+     * @param durable Wait until the change is on disk.
+     * @return Added contact.
+     * @throws IOException If the change cannot be persisted.
+     */
+    public Contact addContact(Contact contact, boolean durable) throws IOException {
+        return await(addContactAsync(contact, durable));
+    }
+
+    /**
+     * Queue a new contact for the writer.
+     *
+     * @param contact Contact to add.
+     * @param durable Complete once the change is on disk.
+     * @return Future completed with the added contact once persisted.
+     * @throws ContactBookUnavailableException If the write queue is full or the book cannot be waited for.
+     */
+    public CompletableFuture<Contact> addContactAsync(Contact contact, boolean durable) {
+        return submit(() -> {
+            this.book.addContact(contact);
+            return contact;
+        }, added -> true, durable);
+    }
+
+    /**
+     * Validate and add a batch of contacts with a single lock and a single persistence write.
+     * Items are attribute maps, invalid items are rejected and reported without aborting the batch.
+     * Items with a unique identifier replace the contact with the same identifier.
+     *
+     * @param items   Contacts to import.
+     * @param durable Wait until the change is on disk.
+     * @return Import result with an error for every rejected attribute.
+     * @throws IOException If the change cannot be persisted.
+     */
+    public BulkImportResult importContacts(Iterator<Map<String, Object>> items, boolean durable) throws IOException {
+        return await(importContactsAsync(items, durable));
+    }
+
+    /**
+     * Validate a batch of contacts on the calling thread and queue the valid ones for the writer.
+     *
+     * @param items   Contacts to import.
+     * @param durable Complete once the change is on disk.
+     * @return Future completed with the import result once persisted.
+     * @throws ContactBookUnavailableException If the write queue is full or the book cannot be waited for.
+     * @see #importContacts(Iterator, boolean)
+     */
+    public CompletableFuture<BulkImportResult> importContactsAsync(Iterator<Map<String, Object>> items, boolean durable) {
+        BulkImportResult result = new BulkImportResult();
+        List<Contact> batch = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int index = 0; items.hasNext(); index++) {
+            result.addItem();
+            Contact contact = toContact(index, items.next(), result);
+            if (contact == null) continue;
+            batch.add(contact);
+            positions.add(index);
+        }
+
+        return submit(() -> {
+            List<Contact> imported = this.book.putContacts(batch);
+            for (int i = 0; i < imported.size(); i++) result.setImported(positions.get(i), imported.get(i).getUUID());
+            return result;
+        }, imported -> imported.getImported() > 0, durable);
+    }
+
+    private static Contact toContact(int index, Map<String, Object> item, BulkImportResult result) {
+        if (item == null) {
+            result.addError(index, null, "item is not an object");
+            return null;
+        }
+        Contact contact = new Contact();
+        boolean valid = true;
+        for (Map.Entry<String, Object> entry : item.entrySet()) {
+            ContactField field = ContactField.fromKey(entry.getKey());
+            Object value = entry.getValue();
+            String message = null;
+            if (field == null) message = "unknown attribute";
+            else if (value != null && !(value instanceof String)) message = "attribute is not a string";
+            else message = RULES.check(field, (String) value);
+
+            if (message != null) {
+                result.addError(index, entry.getKey(), message);
+                valid = false;
+            } else {
+                field.restore(contact, (String) value);
+            }
+        }
+        return valid ? contact : null;
+    }
+
+    /**
+     * Update contact and persist the change.
+     *
+     * @param uuid    Unique identifier.
+     * @param contact New contact data.
+     * @param durable Wait until the change is on disk.
+     * @return Updated contact, null if not found.
+     * @throws IOException If the change cannot be persisted.
+     */
+    public Contact updateContact(String uuid, Contact contact, boolean durable) throws IOException {
+        return await(updateContactAsync(uuid, contact, durable));
+    }
+
+    /**
+     * Queue a contact update for the writer.
+     *
+     * @param uuid    Unique identifier.
+     * @param contact New contact data.
+     * @param durable Complete once the change is on disk.
+     * @return Future completed with the updated contact once persisted, or with null if not found.
+     * @throws ContactBookUnavailableException If the write queue is full or the book cannot be waited for.
+     */
+    public CompletableFuture<Contact> updateContactAsync(String uuid, Contact contact, boolean durable) {
+        return submit(() -> this.book.updateContact(uuid, contact), Objects::nonNull, durable);
+    }
+
+    /**
+     * Remove contacts matching the attributes and persist the change.
+     *
+     * @param durable Wait until the change is on disk.
+     * @return List of removed contacts.
+     * @throws IOException If the change cannot be persisted.
+     */
+    public List<Contact> removeContact(String uuid, String name, String lastName, String email, String address, String phone,
+                                       boolean durable) throws IOException {
+        return await(removeContactAsync(uuid, name, lastName, email, address, phone, durable));
+    }
+
+    /**
+     * Queue the removal of the contacts matching the attributes for the writer.
+     *
+     * @param durable Complete once the change is on disk.
+     * @return Future completed with the removed contacts once persisted.
+     * @throws ContactBookUnavailableException If the write queue is full or the book cannot be waited for.
+     */
+    public CompletableFuture<List<Contact>> removeContactAsync(String uuid, String name, String lastName, String email,
+                                                               String address, String phone, boolean durable) {
+        return submit(() -> this.book.removeContact(uuid, name, lastName, email, address, phone),
+                removed -> !removed.isEmpty(), durable);
+    }
+
+    /**
+     * Find duplicate contacts in a single pass, without pairwise comparisons.
+     *
+     * @param key Attributes compared.
+     * @return Groups of duplicate contacts, lowest unique identifier first.
+     * @see ShardedContactBook#findDuplicates(DuplicateKey)
+     */
+    public List<DuplicateGroup> findDuplicates(DuplicateKey key) {
+        return book().findDuplicates(key);
+    }
+
+    /**
+     * Merge contacts into the first one and persist the change.
+     *
+     * @param uuids   Unique identifiers, the first contact is kept.
+     * @param durable Wait until the change is on disk.
+     * @return Merge result, empty if fewer than two of the contacts exist.
+     * @throws IOException If the change cannot be persisted.
+     * @see ShardedContactBook#mergeContacts(List, DuplicateKey)
+     */
+    public MergeResult mergeContacts(List<String> uuids, boolean durable) throws IOException {
+        return await(mergeContactsAsync(uuids, durable));
+    }
+
+    /**
+     * Queue the merge of contacts into the first one for the writer.
+     *
+     * @param uuids   Unique identifiers, the first contact is kept.
+     * @param durable Complete once the change is on disk.
+     * @return Future completed with the merge result once persisted.
+     * @throws ContactBookUnavailableException If the write queue is full or the book cannot be waited for.
+     */
+    public CompletableFuture<MergeResult> mergeContactsAsync(List<String> uuids, boolean durable) {
+        return submit(() -> {
+            MergeResult result = new MergeResult(1);
+            result.addMerge(this.book.mergeContacts(uuids, null));
+            return result;
+        }, result -> !result.getMerged().isEmpty(), durable);
+    }
+
+    /**
+     * Merge every group of duplicates into its first contact and persist the change.
+     *
+     * @param key     Attributes compared.
+     * @param durable Wait until the change is on disk.
+     * @return Merge result.
+     * @throws IOException If the change cannot be persisted.
+     */
+    public MergeResult mergeDuplicates(DuplicateKey key, boolean durable) throws IOException {
+        return await(mergeDuplicatesAsync(key, durable));
+    }
+
+    /**
+     * Find duplicates on the calling thread and queue their merge for the writer,
+     * so the scan does not hold up other changes. Contacts changed in between are
+     * merged only if they still match the first contact of their group.
+     *
+     * @param key     Attributes compared.
+     * @param durable Complete once the change is on disk.
+     * @return Future completed with the merge result once persisted.
+     * @throws ContactBookUnavailableException If the write queue is full or the book cannot be waited for.
+     */
+    public CompletableFuture<MergeResult> mergeDuplicatesAsync(DuplicateKey key, boolean durable) {
+        List<DuplicateGroup> groups = findDuplicates(key);
+        return submit(() -> {
+            MergeResult result = new MergeResult(groups.size());
+            List<String> uuids = new ArrayList<>();
+            for (DuplicateGroup group : groups) {
+                uuids.clear();
+                for (Contact contact : group.getContacts()) uuids.add(contact.getUUID());
+                result.addMerge(this.book.mergeContacts(uuids, key));
+            }
+            return result;
+        }, result -> !result.getMerged().isEmpty(), durable);
+    }
+
+    /**
+     * Apply queued mutations and flush pending changes on shutdown.
+     *
+     * @throws IOException If the last changes cannot be persisted.
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        boolean cancelled = this.ready.cancel(false);
+        this.writer.close();
+        this.changeFeed.close();
+        if (cancelled) return;
+        closeResources();
+    }
+
+    private void closeResources() throws IOException {
+        try {
+            if (this.scheduler != null) this.scheduler.close();
+            if (this.journals != null) {
+                this.compactor.shutdown();
+                try {
+                    this.compactor.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (ContactJournal journal : this.journals) journal.close();
+            }
+        } finally {
+            this.compactor.shutdown();
+            if (this.pool != ForkJoinPool.commonPool()) this.pool.shutdown();
+        }
+    }
+
+    /**
+     * Shard pool thread, named for thread dumps.
+     */
+    private static class ShardWorker extends ForkJoinWorkerThread {
+        ShardWorker(ForkJoinPool pool) {
+            super(pool);
+            setName("contact-shard-" + getPoolIndex());
+            setDaemon(true);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.snebot.fbmoll.service;
+
+/**
+ * The contact book cannot serve a request yet, because it is still loading or failed to load.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ContactBookUnavailableException extends RuntimeException {
+    public ContactBookUnavailableException(String message) {
+        super(message);
+    }
+
+    public ContactBookUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
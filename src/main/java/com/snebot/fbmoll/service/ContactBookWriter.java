@@ -0,0 +1,244 @@
+package com.snebot.fbmoll.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Single writer of the contact book. Mutations are submitted as commands to a
+ * bounded ring buffer and applied in submission order by one thread, so request
+ * threads neither contend for the book nor block on file writes.
+ * Commands taken from the queue together are persisted together: a batch costs
+ * a single journal sync or a single scheduled save.
+ * Reads do not go through the writer, they are served from published snapshots.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ContactBookWriter implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ContactBookWriter.class);
+
+    /**
+     * Mutation applied by the writer thread.
+     */
+    @FunctionalInterface
+    public interface Command<T> {
+        /**
+         * @return Mutation result.
+         * @throws Exception If the mutation failed.
+         */
+        T apply() throws Exception;
+    }
+
+    /**
+     * Checked once before the commands of a batch are applied.
+     */
+    @FunctionalInterface
+    public interface Precondition {
+        /**
+         * @throws Exception If the batch cannot be applied, every command of it fails with this exception.
+         */
+        void check() throws Exception;
+    }
+
+    /**
+     * Persists the mutations of a batch.
+     */
+    @FunctionalInterface
+    public interface CommitAction {
+        /**
+         * @param durable True if a command of the batch waits until its change is on disk.
+         * @return Future completed once the batch is on disk.
+         * @throws Exception If the batch could not be persisted.
+         */
+        CompletableFuture<Void> commit(boolean durable) throws Exception;
+    }
+
+    private static class Task<T> {
+        private final Command<T> command;
+        private final Predicate<T> changed;
+        private final boolean durable;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result = null;
+
+        Task(Command<T> command, Predicate<T> changed, boolean durable) {
+            this.command = command;
+            this.changed = changed;
+            this.durable = durable;
+        }
+
+        /**
+         * Apply the command, completing it right away unless it changed the book.
+         *
+         * @return True if the change has to be committed.
+         */
+        boolean apply() {
+            try {
+                this.result = this.command.apply();
+                if (this.changed.test(this.result)) return true;
+                this.future.complete(this.result);
+            } catch (Throwable e) {
+                this.future.completeExceptionally(e);
+            }
+            return false;
+        }
+
+        /**
+         * Complete the command once committed, or once on disk if durable.
+         */
+        void committed(CompletableFuture<Void> flushed, Throwable error) {
+            if (error != null) {
+                this.future.completeExceptionally(error);
+            } else if (!this.durable) {
+                this.future.complete(this.result);
+            } else {
+                flushed.whenComplete((ignored, e) -> {
+                    if (e == null) this.future.complete(this.result);
+                    else this.future.completeExceptionally(e instanceof IOException ? e
+                            : new IOException("failed to flush contact book", e));
+                });
+            }
+        }
+    }
+
+    private static final Task<Void> STOP = new Task<>(null, null, false);
+
+    private final Precondition precondition;
+    private final CommitAction action;
+    private final int batchSize;
+    private final BlockingQueue<Task<?>> queue;
+    private final Thread thread;
+    private final Object lock = new Object();
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private boolean closed = false;
+
+    /**
+     * @param action    Persists every batch of mutations.
+     * @param capacity  Commands waiting to be applied before submissions are rejected.
+     * @param batchSize Maximum amount of commands persisted together.
+     */
+    public ContactBookWriter(CommitAction action, int capacity, int batchSize) {
+        this(() -> {
+        }, action, capacity, batchSize);
+    }
+
+    /**
+     * @param precondition Checked before every batch, e.g. to wait until the book can be changed.
+     * @see #ContactBookWriter(CommitAction, int, int)
+     */
+    public ContactBookWriter(Precondition precondition, CommitAction action, int capacity, int batchSize) {
+        this.precondition = precondition;
+        this.action = action;
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity) + 1);
+        this.thread = new Thread(this::run, "contact-book-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue a mutation.
+     *
+     * @param command Mutation.
+     * @param changed Tells from the result whether the book changed and has to be persisted.
+     * @param durable Complete only once the change is on disk.
+     * @return Future completed with the result of the mutation once persisted.
+     * @throws ContactBookUnavailableException If the queue is full or the writer is closed.
+     */
+    public <T> CompletableFuture<T> submit(Command<T> command, Predicate<T> changed, boolean durable) {
+        Task<T> task = new Task<>(command, changed, durable);
+        synchronized (this.lock) {
+            if (this.closed) throw new ContactBookUnavailableException("contact book writer is closed");
+            if (this.queue.remainingCapacity() <= 1 || !this.queue.offer(task)) {
+                throw new ContactBookUnavailableException("contact book write queue is full");
+            }
+        }
+        return task.future;
+    }
+
+    public int getQueueSize() {
+        return this.queue.size();
+    }
+
+    public long getCommands() {
+        return this.commands.sum();
+    }
+
+    public long getBatches() {
+        return this.batches.sum();
+    }
+
+    private void run() {
+        List<Task<?>> batch = new ArrayList<>(this.batchSize);
+        while (true) {
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            this.queue.drainTo(batch, this.batchSize - 1);
+            boolean stop = batch.get(batch.size() - 1) == STOP;
+            if (stop) batch.remove(batch.size() - 1);
+            if (!batch.isEmpty()) applyBatch(batch);
+            batch.clear();
+            if (stop) return;
+        }
+    }
+
+    private void applyBatch(List<Task<?>> batch) {
+        this.commands.add(batch.size());
+        this.batches.increment();
+        try {
+            this.precondition.check();
+        } catch (Throwable e) {
+            for (Task<?> task : batch) task.future.completeExceptionally(e);
+            return;
+        }
+        List<Task<?>> changed = new ArrayList<>(batch.size());
+        boolean durable = false;
+        for (Task<?> task : batch) {
+            if (!task.apply()) continue;
+            changed.add(task);
+            durable |= task.durable;
+        }
+        if (changed.isEmpty()) return;
+
+        CompletableFuture<Void> flushed = null;
+        Throwable error = null;
+        try {
+            flushed = this.action.commit(durable);
+        } catch (Throwable e) {
+            log.error("failed to persist contact book changes ", e);
+            error = e;
+        }
+        for (Task<?> task : changed) task.committed(flushed, error);
+    }
+
+    /**
+     * Apply the queued commands and stop the writer thread.
+     * Commands submitted afterwards are rejected.
+     */
+    @Override
+    public void close() {
+        synchronized (this.lock) {
+            if (this.closed) return;
+            this.closed = true;
+        }
+        try {
+            this.queue.put(STOP);
+            this.thread.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.snebot.fbmoll.service;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBookListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Feed of contact mutations, kept in a bounded in-memory ring.
+ * Every mutation gets the next sequence number, so clients resume from the
+ * last sequence they read and receive only newer events. Clients that fall
+ * further behind than the ring holds get a reset instead of the missing events.
+ * Sequences restart with every run, so clients get cursors tagged with a random
+ * epoch of the run, see {@link #cursor(long)}; a cursor of another run is reset too.
+ * <p>
+ * Subscribers are pushed events by their own pump, which reads the ring at its
+ * own pace: a slow subscriber never holds events in memory nor delays others,
+ * and is dropped with a reset once the ring overtakes it.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ContactChangeFeed implements ContactBookListener, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ContactChangeFeed.class);
+    private static final int SUBSCRIBER_BATCH_SIZE = 256;
+
+    /**
+     * Receives the events of a subscription, from a feed thread.
+     * Throwing ends the subscription.
+     */
+    public interface Subscriber {
+        /**
+         * @param events New events, in order.
+         * @throws IOException If the events cannot be delivered.
+         */
+        void send(List<ChangeEvent> events) throws IOException;
+
+        /**
+         * Sent when no event arrived for a while, to detect closed connections.
+         *
+         * @throws IOException If the heartbeat cannot be delivered.
+         */
+        void heartbeat() throws IOException;
+
+        /**
+         * The subscriber fell behind the retained events and is dropped.
+         *
+         * @param latest Sequence to resume from after reading the whole contact book.
+         * @throws IOException If the reset cannot be delivered.
+         */
+        void reset(long latest) throws IOException;
+    }
+
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 1);
+    private final ChangeEvent[] ring;
+    private final int maxSubscribers;
+    private final long heartbeat;
+    private final ScheduledExecutorService executor;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final LongAdder dropped = new LongAdder();
+    private long latest = 0;
+    private CompletableFuture<Void> signal = new CompletableFuture<>();
+
+    /**
+     * @param capacity       Amount of events retained.
+     * @param maxSubscribers Maximum amount of subscribers at the same time.
+     * @param heartbeat      Milliseconds without events before a subscriber gets a heartbeat.
+     */
+    public ContactChangeFeed(int capacity, int maxSubscribers, long heartbeat) {
+        this.ring = new ChangeEvent[Math.max(1, capacity)];
+        this.maxSubscribers = Math.max(0, maxSubscribers);
+        this.heartbeat = Math.max(1, heartbeat);
+        AtomicInteger threads = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(this.maxSubscribers + 1, runnable -> {
+            Thread thread = new Thread(runnable, "contact-changes-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.executor = executor;
+    }
+
+    @Override
+    public void contactAdded(Contact contact) {
+        append(ChangeEvent.Type.ADDED, contact);
+    }
+
+    @Override
+    public void contactUpdated(Contact previous, Contact contact) {
+        append(ChangeEvent.Type.UPDATED, contact);
+    }
+
+    @Override
+    public void contactRemoved(Contact contact) {
+        append(ChangeEvent.Type.REMOVED, contact);
+    }
+
+    /**
+     * Add an event to the ring, overwriting the oldest one, and wake up waiting readers.
+     * Readers are woken up from a feed thread, never from the mutating thread.
+     */
+    private synchronized void append(ChangeEvent.Type type, Contact contact) {
+        long sequence = ++this.latest;
+        this.ring[(int) ((sequence - 1) % this.ring.length)] = new ChangeEvent(this.epoch, sequence, type, contact, System.currentTimeMillis());
+        if (this.signal.getNumberOfDependents() == 0) return;
+        CompletableFuture<Void> signal = this.signal;
+        this.signal = new CompletableFuture<>();
+        try {
+            this.executor.execute(() -> signal.complete(null));
+        } catch (RejectedExecutionException e) {
+            signal.complete(null);
+        }
+    }
+
+    public synchronized long getLatest() {
+        return this.latest;
+    }
+
+    /**
+     * Returns the cursor of a sequence number, which only this run of the feed accepts.
+     *
+     * @param sequence Sequence number.
+     * @return Cursor.
+     */
+    public String cursor(long sequence) {
+        return this.epoch + "-" + sequence;
+    }
+
+    /**
+     * Returns the sequence number of a cursor.
+     * Reading from a cursor of another run, or from a malformed one, yields a reset.
+     *
+     * @param cursor Cursor returned by this feed, or "0" to read every retained event.
+     * @return Sequence number, -1 if the cursor does not belong to this run.
+     */
+    public long sequenceOf(String cursor) {
+        if (cursor == null) return -1;
+        if (cursor.equals("0")) return 0;
+        int separator = cursor.lastIndexOf('-');
+        if (separator < 0 || !this.epoch.equals(cursor.substring(0, separator))) return -1;
+        try {
+            return Long.parseLong(cursor.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the events after a sequence number.
+     *
+     * @param sequence Last sequence read, 0 to read every retained event, -1 for a cursor of another run.
+     * @param limit    Maximum amount of events.
+     * @return Events after the sequence, or a reset if some of them are no longer retained.
+     */
+    public synchronized ChangePage since(long sequence, int limit) {
+        long oldest = Math.max(1, this.latest - this.ring.length + 1);
+        if (sequence > this.latest || sequence < oldest - 1) {
+            return new ChangePage(this.epoch, Collections.emptyList(), this.latest, this.latest, true);
+        }
+        long last = Math.min(this.latest, sequence + Math.max(1, limit));
+        List<ChangeEvent> events = new ArrayList<>((int) (last - sequence));
+        for (long i = sequence + 1; i <= last; i++) events.add(this.ring[(int) ((i - 1) % this.ring.length)]);
+        return new ChangePage(this.epoch, events, last, this.latest, false);
+    }
+
+    /**
+     * Wait for events after a sequence number, without blocking.
+     *
+     * @param sequence Last sequence read.
+     * @param timeout  Milliseconds to wait at most.
+     * @return Future completed once there are newer events, or once the timeout expires.
+     */
+    public CompletableFuture<Void> await(long sequence, long timeout) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (this.latest != sequence) return CompletableFuture.completedFuture(null);
+            this.signal.thenRun(() -> future.complete(null));
+        }
+        try {
+            ScheduledFuture<?> timer = this.executor.schedule(() -> future.complete(null), timeout, TimeUnit.MILLISECONDS);
+            future.thenRun(() -> timer.cancel(false));
+        } catch (RejectedExecutionException e) {
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * Push the events after a sequence number to a subscriber as they happen.
+     *
+     * @param sequence   Last sequence the subscriber read.
+     * @param subscriber Subscriber.
+     * @return Subscription, cancel it once the subscriber is gone.
+     * @throws ContactBookUnavailableException If there are too many subscribers.
+     */
+    public Subscription subscribe(long sequence, Subscriber subscriber) {
+        Subscription subscription = new Subscription(sequence, subscriber);
+        synchronized (this.subscriptions) {
+            if (this.subscriptions.size() >= this.maxSubscribers) {
+                throw new ContactBookUnavailableException("too many change feed subscribers");
+            }
+            this.subscriptions.add(subscription);
+        }
+        schedule(subscription::pump);
+        return subscription;
+    }
+
+    public int getSubscriberCount() {
+        return this.subscriptions.size();
+    }
+
+    /**
+     * @return Subscribers dropped for falling behind the retained events.
+     */
+    public long getDroppedSubscribers() {
+        return this.dropped.sum();
+    }
+
+    private void schedule(Runnable task) {
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("change feed closed");
+        }
+    }
+
+    /**
+     * Delivery of the feed to a subscriber. Only one pump of a subscription runs at a time.
+     */
+    public class Subscription {
+        private final Subscriber subscriber;
+        private volatile long cursor;
+        private volatile boolean cancelled = false;
+
+        private Subscription(long cursor, Subscriber subscriber) {
+            this.cursor = cursor;
+            this.subscriber = subscriber;
+        }
+
+        public long getCursor() {
+            return this.cursor;
+        }
+
+        public void cancel() {
+            this.cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Send every available event, then wait for more.
+         */
+        private void pump() {
+            try {
+                while (!this.cancelled) {
+                    ChangePage page = since(this.cursor, SUBSCRIBER_BATCH_SIZE);
+                    if (page.isReset()) {
+                        dropped.increment();
+                        cancel();
+                        this.subscriber.reset(page.getLatest());
+                        return;
+                    }
+                    if (page.getEvents().isEmpty()) break;
+                    this.subscriber.send(page.getEvents());
+                    this.cursor = page.getNext();
+                }
+            } catch (Exception e) {
+                log.debug("change feed subscriber gone ", e);
+                cancel();
+            }
+            if (this.cancelled) return;
+            long cursor = this.cursor;
+            await(cursor, heartbeat).thenRun(() -> schedule(() -> wake(cursor)));
+        }
+
+        private void wake(long cursor) {
+            if (this.cancelled) return;
+            if (getLatest() == cursor) {
+                try {
+                    this.subscriber.heartbeat();
+                } catch (Exception e) {
+                    log.debug("change feed subscriber gone ", e);
+                    cancel();
+                    return;
+                }
+            }
+            pump();
+        }
+    }
+
+    /**
+     * Stop delivering events to subscribers.
+     */
+    @Override
+    public void close() {
+        this.subscriptions.forEach(Subscription::cancel);
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,52 @@
+package com.snebot.fbmoll.service;
+
+import com.snebot.fbmoll.data.Contact;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of merging duplicate contacts.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class MergeResult {
+    private final int groups;
+    private final List<Contact> merged = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+
+    MergeResult(int groups) {
+        this.groups = groups;
+    }
+
+    /**
+     * @return Groups of duplicates to merge.
+     */
+    public int getGroups() {
+        return this.groups;
+    }
+
+    /**
+     * @return Contacts kept, one for every merged group.
+     */
+    public List<Contact> getMerged() {
+        return this.merged;
+    }
+
+    /**
+     * @return Unique identifiers of the contacts merged into others and removed.
+     */
+    public List<String> getRemoved() {
+        return this.removed;
+    }
+
+    /**
+     * @param contacts Merged contact followed by the removed ones, see
+     *                 {@link com.snebot.fbmoll.data.ShardedContactBook#mergeContacts(List, com.snebot.fbmoll.data.DuplicateKey)}.
+     */
+    void addMerge(List<Contact> contacts) {
+        if (contacts.isEmpty()) return;
+        this.merged.add(contacts.get(0));
+        for (int i = 1; i < contacts.size(); i++) this.removed.add(contacts.get(i).getUUID());
+    }
+}
@@ -0,0 +1,21 @@
+package com.snebot.fbmoll.service;
+
+/**
+ * How requests are handled while the contact book is loading.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public enum StartupPolicy {
+    /**
+     * Reject every request until the book is loaded.
+     */
+    REJECT,
+    /**
+     * Wait until the book is loaded, up to the queue timeout.
+     */
+    QUEUE,
+    /**
+     * Serve reads from the contacts loaded so far and reject writes.
+     */
+    PARTIAL
+}
@@ -0,0 +1,24 @@
+package com.snebot.fbmoll.util;
+
+/**
+ * Compression of persisted files. Both compressed formats end with a checksum
+ * of the uncompressed content, so truncated or torn files fail to load instead
+ * of loading partially. Files are recognized by their first bytes, whatever the
+ * configured compression.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public enum Compression {
+    /**
+     * Plain content.
+     */
+    NONE,
+    /**
+     * Gzip stream, trailed by the CRC32 and size of the content. Readable with gzip tools.
+     */
+    GZIP,
+    /**
+     * Zlib deflate stream, trailed by the Adler-32 of the content.
+     */
+    DEFLATE
+}
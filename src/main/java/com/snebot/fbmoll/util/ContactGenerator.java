@@ -0,0 +1,159 @@
+package com.snebot.fbmoll.util;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactField;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Fast generator of realistic contacts for load tests and sample data.
+ * Contacts are generated in chunks, each with its own random generator seeded
+ * from the generator seed and the chunk position, so chunks are generated in
+ * parallel by any thread and a seed always gives the same contacts in the same
+ * order. Every attribute passes the default validation rules.
+ *
+ * @author Serafi Nebot Ginard
+ */
+public class ContactGenerator {
+    public static final int CHUNK_SIZE = 1024;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final String[] NAMES = {
+            "Maria", "Carmen", "Ana", "Laura", "Marta", "Elena", "Lucia", "Paula", "Sara", "Julia",
+            "Antonia", "Cristina", "Isabel", "Raquel", "Marina", "Aina", "Joana", "Francisca", "Nuria", "Alba",
+            "Antonio", "Jose", "Manuel", "Francisco", "David", "Juan", "Javier", "Daniel", "Carlos", "Miguel",
+            "Pedro", "Pablo", "Sergio", "Jorge", "Alberto", "Joan", "Miquel", "Toni", "Biel", "Pere"};
+    private static final String[] LAST_NAMES = {
+            "Garcia", "Rodriguez", "Gonzalez", "Fernandez", "Lopez", "Martinez", "Sanchez", "Perez", "Gomez", "Martin",
+            "Jimenez", "Ruiz", "Hernandez", "Diaz", "Moreno", "Alvarez", "Romero", "Alonso", "Navarro", "Torres",
+            "Ramos", "Gil", "Serrano", "Molina", "Blanco", "Suarez", "Castro", "Ortega", "Rubio", "Marin",
+            "Nebot", "Moll", "Ginard", "Pons", "Vidal", "Ferrer", "Bauza", "Oliver", "Sastre", "Mas"};
+    private static final String[] DOMAINS = {
+            "gmail.com", "hotmail.com", "yahoo.es", "outlook.com", "icloud.com", "proton.me", "telefonica.net", "uib.cat"};
+    private static final String[] STREETS = {
+            "Carrer Major", "Carrer de Sant Miquel", "Avinguda de Jaume III", "Passeig del Born", "Carrer dels Oms",
+            "Calle Mayor", "Gran Via", "Paseo de la Castellana", "Avenida de la Constitucion", "Calle de Alcala"};
+    private static final String[] CITIES = {
+            "Palma", "Manacor", "Inca", "Barcelona", "Madrid", "Valencia", "Sevilla", "Bilbao", "Zaragoza", "Malaga"};
+
+    private final long seed;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param seed Seed, the same seed always generates the same contacts.
+     */
+    public ContactGenerator(long seed) {
+        this(seed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param seed Seed, the same seed always generates the same contacts.
+     * @param pool Pool generating chunks in parallel.
+     */
+    public ContactGenerator(long seed, ForkJoinPool pool) {
+        this.seed = seed;
+        this.pool = pool;
+    }
+
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Generate a list of contacts, in parallel.
+     *
+     * @param count Amount of contacts.
+     * @return Generated contacts.
+     */
+    public List<Contact> generate(int count) {
+        long chunks = chunks(count);
+        List<List<Contact>> generated = this.pool.submit(() -> LongStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> chunk(chunk, count))
+                .collect(Collectors.toList())).join();
+        List<Contact> contacts = new ArrayList<>(count);
+        generated.forEach(contacts::addAll);
+        return contacts;
+    }
+
+    /**
+     * Generate any amount of contacts in order, handing them over one at a time.
+     * A few chunks are generated ahead in parallel, so memory use does not grow with the amount.
+     *
+     * @param count  Amount of contacts.
+     * @param action Receives every contact, from the calling thread.
+     */
+    public void generate(long count, Consumer<Contact> action) {
+        long chunks = chunks(count);
+        int ahead = Math.max(2, this.pool.getParallelism() * 2);
+        ArrayDeque<ForkJoinTask<List<Contact>>> pending = new ArrayDeque<>(ahead);
+        long next = 0;
+        try {
+            while (next < chunks || !pending.isEmpty()) {
+                while (next < chunks && pending.size() < ahead) {
+                    long chunk = next++;
+                    pending.add(this.pool.submit(() -> chunk(chunk, count)));
+                }
+                pending.poll().join().forEach(action);
+            }
+        } finally {
+            pending.forEach(task -> task.cancel(false));
+        }
+    }
+
+    private static long chunks(long count) {
+        return (Math.max(0, count) + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    /**
+     * Generate the contacts of a chunk, always the same for the same seed and position.
+     */
+    private List<Contact> chunk(long chunk, long count) {
+        int size = (int) Math.min(CHUNK_SIZE, count - chunk * CHUNK_SIZE);
+        SplittableRandom random = new SplittableRandom(mix(this.seed + chunk * GOLDEN_GAMMA));
+        List<Contact> contacts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) contacts.add(contact(random));
+        return contacts;
+    }
+
+    private static Contact contact(SplittableRandom random) {
+        String name = pick(random, NAMES);
+        String lastName = pick(random, LAST_NAMES);
+        StringBuilder email = new StringBuilder(32)
+                .append(name.toLowerCase()).append('.').append(lastName.toLowerCase())
+                .append(random.nextInt(10000)).append('@').append(pick(random, DOMAINS));
+        String address = pick(random, STREETS) + " " + (1 + random.nextInt(200)) + ", " + pick(random, CITIES);
+        String phone = String.valueOf(600000000 + random.nextInt(200000000));
+        long msb = random.nextLong() & ~0xF000L | 0x4000L;
+        long lsb = random.nextLong() & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L;
+
+        Contact contact = new Contact();
+        ContactField.UUID.restore(contact, new UUID(msb, lsb).toString());
+        ContactField.NAME.restore(contact, name);
+        ContactField.LAST_NAME.restore(contact, lastName + " " + pick(random, LAST_NAMES));
+        ContactField.EMAIL.restore(contact, email.toString());
+        ContactField.ADDRESS.restore(contact, address);
+        ContactField.PHONE.restore(contact, phone);
+        return contact;
+    }
+
+    private static String pick(SplittableRandom random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * Murmur3 finalizer, spreads consecutive seeds over unrelated generators.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+}
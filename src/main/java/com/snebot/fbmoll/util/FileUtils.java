@@ -5,10 +5,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
-import java.io.File;
-import java.io.Serializable;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Utility class for file interaction.
@@ -22,13 +36,18 @@ public class FileUtils {
     private static final String USER_HOME = System.getProperty("user.home");
     private static final String FILE_SEPARATOR = System.getProperty("file.separator");
     private static final String FILE_EXTENSION_SEPARATOR = ".";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final Map<Class<?>, JAXBContext> contexts = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<Class<?>, Marshaller>> marshallers = ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<Map<Class<?>, Unmarshaller>> unmarshallers = ThreadLocal.withInitial(HashMap::new);
 
     /**
      * Get FileUtils instance.
      *
      * @return FileUtils instance.
      */
-    public static FileUtils getInstance() {
+    public static synchronized FileUtils getInstance() {
         if (instance == null) instance = new FileUtils();
         return instance;
     }
@@ -36,6 +55,36 @@ public class FileUtils {
     private FileUtils() {
     }
 
+    /**
+     * Writes file content to an output stream.
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        void write(OutputStream out) throws Exception;
+    }
+
+    /**
+     * Reads file content from an input stream.
+     */
+    @FunctionalInterface
+    public interface ContentReader<T> {
+        T read(InputStream in) throws Exception;
+    }
+
+    /**
+     * Gzip stream with a compression level, its deflater is released by the writer.
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+        LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            this.def.setLevel(level);
+        }
+
+        Deflater getDeflater() {
+            return this.def;
+        }
+    }
+
     /**
      * Returns the user's home directory path.
      *
@@ -111,30 +160,285 @@ public class FileUtils {
         return file;
     }
 
+    /**
+     * Returns the JAXB context of a class, creating it only once.
+     * Contexts are thread safe and expensive to build.
+     *
+     * @param classType Bound class.
+     * @return JAXB context.
+     * @throws JAXBException If the class cannot be bound.
+     */
+    public JAXBContext getContext(Class<?> classType) throws JAXBException {
+        JAXBContext context = this.contexts.get(classType);
+        if (context == null) {
+            context = JAXBContext.newInstance(classType);
+            JAXBContext previous = this.contexts.putIfAbsent(classType, context);
+            if (previous != null) context = previous;
+        }
+        return context;
+    }
+
+    /**
+     * Returns a marshaller owned by the calling thread.
+     * Marshallers are not thread safe, each thread reuses its own.
+     *
+     * @param classType Bound class.
+     * @return Formatted output marshaller.
+     * @throws JAXBException If the marshaller cannot be created.
+     */
+    public Marshaller getMarshaller(Class<?> classType) throws JAXBException {
+        Map<Class<?>, Marshaller> cache = this.marshallers.get();
+        Marshaller marshaller = cache.get(classType);
+        if (marshaller == null) {
+            marshaller = getContext(classType).createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            cache.put(classType, marshaller);
+        }
+        return marshaller;
+    }
+
+    /**
+     * Returns an unmarshaller owned by the calling thread.
+     *
+     * @param classType Bound class.
+     * @return Unmarshaller.
+     * @throws JAXBException If the unmarshaller cannot be created.
+     */
+    public Unmarshaller getUnmarshaller(Class<?> classType) throws JAXBException {
+        Map<Class<?>, Unmarshaller> cache = this.unmarshallers.get();
+        Unmarshaller unmarshaller = cache.get(classType);
+        if (unmarshaller == null) {
+            unmarshaller = getContext(classType).createUnmarshaller();
+            cache.put(classType, unmarshaller);
+        }
+        return unmarshaller;
+    }
+
     /**
      * Marshal Java object.
      *
      * @param content Object to marshal.
      * @param path    Destination file path.
      * @param <T>     Object to marshal.
-     * @return File with marshal content.
+     * @return File with marshal content, null if it could not be written.
      */
     public <T extends Serializable> File marshalContent(T content, String path) {
+        return marshalContent(content, path, Compression.NONE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Marshal Java object to a compressed file.
+     *
+     * @param content     Object to marshal.
+     * @param path        Destination file path.
+     * @param compression File compression.
+     * @param level       Deflate level, from 0 to 9, or -1 for the default level.
+     * @param <T>         Object to marshal.
+     * @return File with marshal content, null if it could not be written.
+     */
+    public <T extends Serializable> File marshalContent(T content, String path, Compression compression, int level) {
         File file = null;
         try {
-            JAXBContext context = JAXBContext.newInstance(content.getClass());
-            Marshaller marshaller = context.createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            Marshaller marshaller = getMarshaller(content.getClass());
             file = openFile(path);
-            marshaller.marshal(content, file);
+            if (file != null) writeAtomically(path, compression, level, out -> marshaller.marshal(content, out));
         } catch (Exception e) {
             log.error("failed to marshal content ", e);
+            file = null;
         }
         return file;
     }
 
     /**
-     * Unmarshal content from file.
+     * Writes a file crash-safely. Content goes to a unique temporary file in the
+     * destination directory, which is forced to disk and renamed over the destination,
+     * so readers and crashes only ever see the old or the new content. The directory
+     * is forced to disk after the rename, otherwise a crash could lose the rename itself.
+     *
+     * @param path   Destination file path.
+     * @param writer Writes the content.
+     * @throws IOException If the file cannot be written, the destination is left untouched.
+     */
+    public void writeAtomically(String path, ContentWriter writer) throws IOException {
+        Path file = Paths.get(path).toAbsolutePath();
+        Path directory = file.getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName() + ".", TEMPORARY_EXTENSION);
+        try (FileOutputStream stream = new FileOutputStream(temporary.toFile())) {
+            OutputStream out = new BufferedOutputStream(stream, 1 << 16);
+            writer.write(out);
+            out.flush();
+            stream.getFD().sync();
+        } catch (Exception e) {
+            if (!temporary.toFile().delete()) log.warn(String.format("%s: failed to remove temporary file", temporary));
+            if (e instanceof IOException) throw (IOException) e;
+            throw new IOException(String.format("%s: failed to write file", path), e);
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!temporary.toFile().delete()) log.warn(String.format("%s: failed to remove temporary file", temporary));
+            throw e;
+        }
+        syncDirectory(directory);
+    }
+
+    /**
+     * Forces a directory entry to disk, making renames and new files in it durable.
+     * Some platforms cannot open directories, there the rename is left to the file system.
+     *
+     * @param directory Directory path.
+     */
+    private void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug(String.format("%s: failed to sync directory", directory), e);
+        }
+    }
+
+    /**
+     * Writes a compressed file crash-safely.
+     *
+     * @param path        Destination file path.
+     * @param compression File compression.
+     * @param level       Deflate level, from 0 to 9, or -1 for the default level.
+     * @param writer      Writes the uncompressed content.
+     * @throws IOException If the file cannot be written, the destination is left untouched.
+     * @see #writeAtomically(String, ContentWriter)
+     */
+    public void writeAtomically(String path, Compression compression, int level, ContentWriter writer) throws IOException {
+        writeAtomically(path, out -> writeCompressed(out, compression, level, writer));
+    }
+
+    /**
+     * Writes content to a stream through a streaming compressor, ending with the
+     * checksum of the compressed format. The stream is not closed.
+     *
+     * @param out         Destination stream.
+     * @param compression Compression, NONE writes the content as is.
+     * @param level       Deflate level, from 0 to 9, or -1 for the default level.
+     * @param writer      Writes the uncompressed content.
+     * @throws Exception If the content cannot be written.
+     */
+    public void writeCompressed(OutputStream out, Compression compression, int level, ContentWriter writer) throws Exception {
+        if (compression == Compression.NONE) {
+            writer.write(out);
+            return;
+        }
+        Deflater deflater;
+        DeflaterOutputStream compressed;
+        if (compression == Compression.GZIP) {
+            LevelGZIPOutputStream gzip = new LevelGZIPOutputStream(out, level);
+            deflater = gzip.getDeflater();
+            compressed = gzip;
+        } else {
+            deflater = new Deflater(level);
+            compressed = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+        }
+        try {
+            // Small writes straight into the deflater cost a native call each.
+            OutputStream buffered = new BufferedOutputStream(compressed, BUFFER_SIZE);
+            writer.write(buffered);
+            buffered.flush();
+            compressed.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads a file, decompressing it if it was written compressed.
+     *
+     * @param path   File path.
+     * @param reader Reads the uncompressed content.
+     * @param <T>    Content object.
+     * @return Content object.
+     * @throws IOException If the file cannot be read or fails its checksum.
+     */
+    public <T> T readFile(String path, ContentReader<T> reader) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE)) {
+            return readCompressed(in, reader);
+        }
+    }
+
+    /**
+     * Reads content from a stream, detecting its compression from the first bytes.
+     * Compressed content is read to the end once the reader returns, so the
+     * trailing checksum is always verified. The stream is not closed.
+     *
+     * @param in     Source stream.
+     * @param reader Reads the uncompressed content.
+     * @param <T>    Content object.
+     * @return Content object.
+     * @throws IOException If the content cannot be read or fails its checksum.
+     */
+    public <T> T readCompressed(InputStream in, ContentReader<T> reader) throws IOException {
+        InputStream source = in.markSupported() ? in : new BufferedInputStream(in, BUFFER_SIZE);
+        Compression compression = detectCompression(source);
+        try {
+            if (compression == Compression.NONE) return reader.read(unclosable(source));
+            try (InputStream decompressed = compression == Compression.GZIP
+                    ? new GZIPInputStream(unclosable(source), BUFFER_SIZE) : new InflaterInputStream(unclosable(source))) {
+                T content = reader.read(unclosable(decompressed));
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (decompressed.read(buffer) != -1) continue;
+                return content;
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("failed to read content", e);
+        }
+    }
+
+    /**
+     * Some readers, like JAXB unmarshallers, close the stream once done.
+     */
+    private static InputStream unclosable(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Detects the compression of a file from its first bytes.
+     *
+     * @param path File path.
+     * @return File compression, NONE if the file is not compressed or cannot be read.
+     */
+    public Compression detectCompression(String path) {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path), 2)) {
+            return detectCompression(in);
+        } catch (IOException e) {
+            return Compression.NONE;
+        }
+    }
+
+    /**
+     * Detects the compression of a stream from its first bytes, without consuming them.
+     * A zlib header never starts a XML document nor a binary snapshot.
+     *
+     * @param in Stream supporting mark.
+     * @return Stream compression.
+     * @throws IOException If the stream cannot be read.
+     */
+    public Compression detectCompression(InputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        if (first < 0 || second < 0) return Compression.NONE;
+        if (first == 0x1F && second == 0x8B) return Compression.GZIP;
+        if ((first & 0x0F) == Deflater.DEFLATED && (first >> 4) <= 7 && ((first << 8) | second) % 31 == 0) {
+            return Compression.DEFLATE;
+        }
+        return Compression.NONE;
+    }
+
+    /**
+     * Unmarshal content from file, compressed or not.
      *
      * @param path      File path.
      * @param classType Class of object to unmarshal.
@@ -145,11 +449,10 @@ public class FileUtils {
         T content = null;
         try {
             content = classType.getDeclaredConstructor().newInstance();
-            JAXBContext context = JAXBContext.newInstance(content.getClass());
-            Unmarshaller um = context.createUnmarshaller();
+            Unmarshaller um = getUnmarshaller(content.getClass());
             File file = openFile(path);
             if (file.exists() && !file.isDirectory()) {
-                Object obj = um.unmarshal(file);
+                Object obj = readFile(path, um::unmarshal);
                 if (content.getClass().isAssignableFrom(obj.getClass())) content = classType.cast(obj);
             }
         } catch (Exception e) {
@@ -0,0 +1,57 @@
+package com.snebot.fbmoll.controller;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.service.ContactBookService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest
+public class ControllerTests {
+    @Autowired
+    private ContactBookController controller;
+
+    @Autowired
+    private ContactBookService service;
+
+    private ResponseEntity<Object> getContacts(String name, String... ifNoneMatch) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/contacts");
+        for (String value : ifNoneMatch) request.addHeader(HttpHeaders.IF_NONE_MATCH, value);
+        return this.controller.contacts(null, name, null, null, null, null, null, null, false, null, request)
+                .get(1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    void tryNotModified() throws Exception {
+        String name = "etag" + System.nanoTime();
+        ResponseEntity<Object> response = getContacts(name);
+        String etag = response.getHeaders().getETag();
+        Assert.isTrue(response.getStatusCode() == HttpStatus.OK && etag != null && etag.equals(this.service.getETag()),
+                "failed to tag contacts");
+
+        Assert.isTrue(getContacts(name, etag).getStatusCode() == HttpStatus.NOT_MODIFIED, "failed to match entity tag");
+        Assert.isTrue(getContacts(name, "W/" + etag).getStatusCode() == HttpStatus.NOT_MODIFIED, "failed to match weak entity tag");
+        Assert.isTrue(getContacts(name, "\"other\", " + etag).getStatusCode() == HttpStatus.NOT_MODIFIED &&
+                        getContacts(name, "\"other\"", etag).getStatusCode() == HttpStatus.NOT_MODIFIED,
+                "failed to match one of several entity tags");
+        Assert.isTrue(getContacts(name, "*").getStatusCode() == HttpStatus.NOT_MODIFIED, "failed to match any entity tag");
+        ResponseEntity<Object> mismatch = getContacts(name, "\"other\"");
+        Assert.isTrue(mismatch.getStatusCode() == HttpStatus.OK && etag.equals(mismatch.getHeaders().getETag()),
+                "matched a different entity tag");
+
+        Contact contact = new Contact();
+        contact.setName(name);
+        this.service.addContact(contact, false);
+        ResponseEntity<Object> changed = getContacts(name, etag);
+        Assert.isTrue(changed.getStatusCode() == HttpStatus.OK && !etag.equals(changed.getHeaders().getETag()),
+                "matched the entity tag of a previous version");
+        this.service.removeContact(contact.getUUID(), null, null, null, null, null, false);
+    }
+}
@@ -4,7 +4,20 @@ import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.util.Assert;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @SpringBootTest
 public class DataTests {
@@ -62,5 +75,600 @@ public class DataTests {
         book.removeContact(contact1);
         book.removeContact(contact2);
         Assert.isTrue(book.getContacts().size() == 0, "failed to remove contact");
+
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Contact contact = new Contact();
+            contact.setName("replayed" + i);
+            book.addContact(contact);
+            uuids.add(contact.getUUID());
+        }
+        for (int i = 0; i < 10; i += 2) book.removeContact(uuids.get(i), null, null, null, null, null);
+        Assert.isTrue(book.findByUUID(uuids.get(0)) == null && book.getContacts(null, "replayed2", null, null, null, null).isEmpty(),
+                "removed contact still found");
+        book.restoreContact(contact1);
+        book.removeContact(contact1.getUUID(), null, null, null, null, null);
+        book.restoreContact(contact1);
+        List<Contact> remaining = book.getContacts();
+        Assert.isTrue(remaining.size() == 6 && "replayed1".equals(remaining.get(0).getName()) &&
+                        "replayed9".equals(remaining.get(4).getName()) && remaining.get(5) == contact1,
+                "failed to keep the order of remaining contacts");
+    }
+
+    @Test
+    void tryContactBookIndexes() {
+        ContactBook book = new ContactBook();
+        for (int i = 0; i < 100; i++) {
+            Contact contact = new Contact();
+            contact.setName("name" + (i % 10));
+            contact.setLastName("lastName" + i);
+            contact.setEmail(String.format("email%d@test.com", i));
+            contact.setAddress("address" + (i % 2));
+            book.addContact(contact);
+        }
+
+        List<Contact> byName = book.getContacts(null, "name3", null, null, null, null);
+        Assert.isTrue(byName.size() == 10, "failed to search contacts by indexed attribute");
+        List<Contact> byNameAndAddress = book.getContacts(null, "name3", null, null, "address1", null);
+        Assert.isTrue(byNameAndAddress.size() == 10, "failed to filter non indexed attribute");
+        Assert.isTrue(book.getContacts(null, "name3", null, null, "address0", null).isEmpty(),
+                "failed to filter non indexed attribute");
+
+        Contact target = byName.get(0);
+        Contact update = new Contact();
+        update.setName("renamed");
+        book.updateContact(target.getUUID(), update);
+        Assert.isTrue(book.getContacts(null, "name3", null, null, null, null).size() == 9 &&
+                        book.getContacts(null, "renamed", null, null, null, null).get(0) == target,
+                "failed to update indexes");
+
+        book.setIndexedFields(EnumSet.of(ContactField.ADDRESS));
+        Assert.isTrue(book.getContacts(null, null, null, null, "address0", null).size() == 50,
+                "failed to rebuild indexes");
+
+        book.removeContact(target);
+        Assert.isTrue(book.findByUUID(target.getUUID()) == null &&
+                        book.getContacts(null, "renamed", null, null, null, null).isEmpty() &&
+                        book.getContacts().size() == 99,
+                "failed to remove contact from indexes");
+    }
+
+    @Test
+    void tryConcurrentContactBook() throws Exception {
+        ConcurrentContactBook book = new ConcurrentContactBook(new ContactBook());
+        int writers = 4;
+        int readers = 4;
+        int operations = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + readers);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<?>> tasks = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            String name = "writer" + w;
+            tasks.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < operations; i++) {
+                    Contact contact = new Contact();
+                    contact.setName(name);
+                    contact.setLastName("lastName" + i);
+                    book.addContact(contact);
+                    if (i % 2 == 0) {
+                        Contact update = new Contact();
+                        update.setAddress("address" + i);
+                        book.updateContact(contact.getUUID(), update);
+                    } else {
+                        book.removeContact(contact.getUUID(), null, null, null, null, null);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            tasks.add(executor.submit(() -> {
+                start.await();
+                long lastVersion = -1;
+                while (running.get()) {
+                    ContactBookSnapshot snapshot = book.snapshot();
+                    Assert.isTrue(snapshot.getVersion() >= lastVersion, "snapshot versions went backwards");
+                    lastVersion = snapshot.getVersion();
+                    int total = 0;
+                    for (int w = 0; w < writers; w++)
+                        total += snapshot.getContacts(null, "writer" + w, null, null, null, null).size();
+                    Assert.isTrue(total == snapshot.size(), "snapshot indexes are inconsistent");
+                    for (Contact contact : snapshot.getContacts())
+                        Assert.isTrue(snapshot.findByUUID(contact.getUUID()) == contact, "snapshot lost a contact");
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (int i = 0; i < writers; i++) tasks.get(i).get(1, TimeUnit.MINUTES);
+        running.set(false);
+        for (Future<?> task : tasks) task.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        Assert.isTrue(book.size() == writers * operations / 2, "lost concurrent mutations");
+        Assert.isTrue(book.getVersion() == writers * operations * 2L, "unexpected snapshot version");
+        Assert.isTrue(book.getContacts(null, null, null, null, "address0", null).size() == writers,
+                "lost concurrent updates");
+
+        int searched = book.search("writer0", operations).size();
+        ExecutorService searcher = Executors.newSingleThreadExecutor();
+        try {
+            int during = book.exclusive(() -> searcher.submit(() -> book.search("writer0", operations).size()).get(10, TimeUnit.SECONDS));
+            Assert.isTrue(searched >= operations / 2 && during == searched, "search waited for the writer lock");
+        } finally {
+            searcher.shutdown();
+        }
+    }
+
+    @Test
+    void tryContactBookJournal() {
+        ConcurrentContactBook book = new ConcurrentContactBook(new ContactBook());
+        List<String> logged = new ArrayList<>();
+        AtomicBoolean failing = new AtomicBoolean(false);
+        book.setJournal((changed, removed) -> {
+            Assert.isTrue(changed.stream().allMatch(contact -> book.findByUUID(contact.getUUID()) != contact),
+                    "mutation applied before it was logged");
+            if (failing.get()) throw new IOException("journal failure");
+            changed.forEach(contact -> logged.add("put " + contact.getUUID()));
+            removed.forEach(contact -> logged.add("remove " + contact.getUUID()));
+        });
+        List<Contact> notified = new ArrayList<>();
+        book.addListener(new ContactBookListener() {
+            @Override
+            public void contactAdded(Contact contact) {
+                throw new IllegalStateException("listener failure");
+            }
+        });
+        book.addListener(new ContactBookListener() {
+            @Override
+            public void contactAdded(Contact contact) {
+                notified.add(contact);
+            }
+        });
+
+        Contact contact = book.addContact(new Contact());
+        Assert.isTrue(logged.equals(Collections.singletonList("put " + contact.getUUID())), "failed to log added contact");
+        Assert.isTrue(notified.size() == 1 && book.size() == 1, "failing listener skipped the next ones");
+
+        failing.set(true);
+        long version = book.getVersion();
+        Contact data = new Contact();
+        data.setName("name");
+        try {
+            book.updateContact(contact.getUUID(), data);
+            Assert.isTrue(false, "journal failure ignored");
+        } catch (UncheckedIOException e) {
+            Assert.isTrue(e.getCause().getMessage().equals("journal failure"), "unexpected failure");
+        }
+        try {
+            book.putContacts(Arrays.asList(new Contact(), new Contact()));
+            Assert.isTrue(false, "journal failure ignored");
+        } catch (UncheckedIOException ignored) {
+        }
+        Assert.isTrue(book.getVersion() == version && book.size() == 1 && book.findByUUID(contact.getUUID()).getName() == null,
+                "mutation applied although it could not be logged");
+
+        failing.set(false);
+        book.removeContact(contact.getUUID(), null, null, null, null, null);
+        Assert.isTrue(logged.get(1).equals("remove " + contact.getUUID()) && book.size() == 0, "failed to log removed contact");
+    }
+
+    @Test
+    void tryPersistentSnapshots() {
+        Random random = new Random(42);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        PersistentTreeMap<Integer, Integer> map = PersistentTreeMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(2000);
+            PersistentTreeMap<Integer, Integer> previous = map;
+            int size = previous.size();
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                expected.put(key, i);
+                map = map.put(key, i);
+            }
+            Assert.isTrue(previous.size() == size, "update changed the previous version");
+        }
+        List<Integer> values = new ArrayList<>();
+        map.values().forEachRemaining(values::add);
+        Assert.isTrue(values.equals(new ArrayList<>(expected.values())) && map.size() == expected.size(),
+                "persistent tree differs from a sorted map");
+        for (int i = 0; i < map.size(); i += 97)
+            Assert.isTrue(map.getAt(i).equals(values.get(i)), "failed positional access");
+        List<Integer> after = new ArrayList<>();
+        map.valuesAfter(1000).forEachRemaining(after::add);
+        Assert.isTrue(after.equals(new ArrayList<>(expected.tailMap(1000, false).values())), "failed to iterate after a key");
+
+        ConcurrentContactBook book = new ConcurrentContactBook(new ContactBook());
+        Contact contact = new Contact();
+        contact.setName("before");
+        book.addContact(contact);
+        ContactBookSnapshot first = book.snapshot();
+        Contact data = new Contact();
+        data.setName("after");
+        book.updateContact(contact.getUUID(), data);
+        book.addContact(new Contact());
+        Assert.isTrue(first.size() == 1 && "before".equals(first.findByUUID(contact.getUUID()).getName()) &&
+                        first.getContacts(null, "after", null, null, null, null).isEmpty(),
+                "mutation changed a published snapshot");
+        Assert.isTrue(book.snapshot().size() == 2 && book.getContacts(null, "after", null, null, null, null).size() == 1 &&
+                        book.getContacts(null, "before", null, null, null, null).isEmpty(),
+                "failed to carry indexes forward");
+    }
+
+    @Test
+    void tryContactPages() {
+        ConcurrentContactBook book = new ConcurrentContactBook(new ContactBook());
+        for (int i = 0; i < 25; i++) {
+            Contact contact = new Contact();
+            contact.setName("name" + (i % 2));
+            book.addContact(contact);
+        }
+
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            ContactPage page = book.snapshot().getPage(null, null, null, null, null, null, cursor, 10);
+            page.getContacts().forEach(contact -> seen.add(contact.getUUID()));
+            if (pages == 0) book.addContact(new Contact());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+        List<String> expected = new ArrayList<>();
+        book.snapshot().getContacts().forEach(contact -> expected.add(contact.getUUID()));
+        Collections.sort(expected);
+        Assert.isTrue(pages == 3 && expected.size() == 26 && seen.equals(expected),
+                "pages differ from the contacts in unique identifier order");
+
+        List<String> filtered = new ArrayList<>();
+        cursor = null;
+        do {
+            ContactPage page = book.snapshot().getPage(null, "name0", null, null, null, null, cursor, 5);
+            page.getContacts().forEach(contact -> filtered.add(contact.getUUID()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        List<String> expectedFiltered = new ArrayList<>();
+        for (Contact contact : book.getContacts(null, "name0", null, null, null, null)) expectedFiltered.add(contact.getUUID());
+        Collections.sort(expectedFiltered);
+        Assert.isTrue(expectedFiltered.size() == 13 && filtered.equals(expectedFiltered),
+                "filtered pages differ from the matching contacts in unique identifier order");
+
+        List<Contact> visited = new ArrayList<>();
+        book.snapshot().forEachContact(null, "name1", null, null, null, null, visited::add);
+        Assert.isTrue(visited.size() == 12, "failed to visit matching contacts");
+    }
+
+    @Test
+    void tryColumnarContactStore() {
+        ColumnarContactStore store = new ColumnarContactStore();
+        List<String> uuids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Contact contact = new Contact();
+            contact.setName("name" + (i % 10));
+            contact.setEmail(String.format("user%d@mail.com", i));
+            uuids.add(store.addContact(contact).getUUID());
+        }
+        Assert.isTrue(store.size() == 100, "failed to add contacts");
+        Assert.isTrue(store.getContacts(null, "name3", null, null, null, null).size() == 10, "failed to search contacts");
+        Contact found = store.findByUUID(uuids.get(42));
+        Assert.isTrue(found != null && "user42@mail.com".equals(found.getEmail()), "failed to find contact");
+
+        found.setName("detached");
+        Assert.isTrue("name2".equals(store.findByUUID(uuids.get(42)).getName()), "store changed through a view");
+        Contact data = new Contact();
+        data.setName("updated");
+        store.updateContact(uuids.get(42), data);
+        Assert.isTrue("updated".equals(store.findByUUID(uuids.get(42)).getName()), "failed to update contact");
+
+        Assert.isTrue(store.removeContact(null, "name5", null, null, null, null).size() == 10, "failed to remove contacts");
+        Assert.isTrue(store.findByUUID(uuids.get(15)) == null && store.size() == 90, "removed contact still found");
+        for (int i = 0; i < 100; i++) {
+            if (i % 10 != 5) Assert.isTrue(store.findByUUID(uuids.get(i)) != null, "lost contact after removal");
+        }
+
+        Assert.isTrue(store.getGarbageBytes() > 0, "failed to track garbage");
+        store.compact();
+        Assert.isTrue(store.getGarbageBytes() == 0 && store.size() == 90, "failed to compact store");
+        ContactBook book = store.toContactBook();
+        Assert.isTrue(book.getContacts().size() == 90 && book.findByUUID(uuids.get(42)) != null, "failed to convert store");
+        Assert.isTrue(ColumnarContactStore.from(book).getContacts(null, null, null, "user99@mail.com", null, null).size() == 1,
+                "failed to copy contact book");
+
+        ConcurrentContactBook columnar = new ConcurrentContactBook(book, ContactStorage.COLUMNAR);
+        Contact added = new Contact();
+        added.setName("added");
+        columnar.addContact(added);
+        Contact change = new Contact();
+        change.setEmail("added@mail.com");
+        columnar.updateContact(added.getUUID(), change);
+        columnar.removeContact(uuids.get(42), null, null, null, null, null);
+        ContactBookSnapshot snapshot = columnar.snapshot();
+        Assert.isTrue(columnar.getVersion() == 3 && columnar.size() == 90 && snapshot.size() == 90 && snapshot.getVersion() == 3,
+                "failed to mutate columnar contact book");
+        Assert.isTrue(columnar.findByUUID(uuids.get(42)) == null && snapshot.findByUUID(uuids.get(42)) == null,
+                "failed to remove from columnar contact book");
+        Assert.isTrue("added@mail.com".equals(columnar.getContacts(null, "added", null, null, null, null).get(0).getEmail())
+                && columnar.search("added", 10).size() == 1, "failed to search columnar contact book");
+        Assert.isTrue(columnar.snapshot() == snapshot, "columnar snapshot not kept for its version");
+
+        List<String> sorted = new ArrayList<>();
+        snapshot.forEachContact(null, null, null, null, null, null, contact -> sorted.add(contact.getUUID()));
+        Collections.sort(sorted);
+        List<String> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            ContactPage page = columnar.getPage(null, null, null, null, null, null, cursor, 7);
+            page.getContacts().forEach(contact -> paged.add(contact.getUUID()));
+            Assert.isTrue(page.getVersion() == 3 && page.getContacts().size() <= 7, "failed to page columnar contact book");
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        Assert.isTrue(paged.equals(sorted), "columnar pages not in unique identifier order");
+        ContactPage filtered = columnar.getPage(null, "name3", null, null, null, null, null, 4);
+        Assert.isTrue(filtered.getContacts().size() == 4 && filtered.getNextCursor() != null
+                && filtered.getContacts().stream().allMatch(contact -> "name3".equals(contact.getName())),
+                "failed to page columnar search");
+        int scanned = 0;
+        List<Contact> streamed = new ArrayList<>();
+        for (int row = 0; row >= 0; scanned++) row = store.forEachContact(row, 16, null, null, null, null, null, null, streamed::add);
+        Assert.isTrue(streamed.size() == 90 && scanned == 6, "failed to scan columnar rows in batches");
+
+        ColumnarContactBookStore compacting = new ColumnarContactBookStore(book);
+        char[] filler = new char[1000];
+        Arrays.fill(filler, 'x');
+        Contact rewritten = book.getContacts().get(0);
+        for (int i = 0; i < 5000; i++) {
+            Contact version = new Contact();
+            version.setUUID(rewritten.getUUID());
+            version.setAddress(i + new String(filler));
+            compacting.put(version);
+        }
+        Assert.isTrue(compacting.getGarbageBytes() < 2 << 20 && compacting.size() == 90 &&
+                        compacting.findByUUID(rewritten.getUUID()).getAddress().startsWith("4999x"),
+                "failed to compact garbage of replaced contacts");
+    }
+
+    @Test
+    void tryContactSearch() {
+        ContactBook book = new ContactBook();
+        String[][] people = {{"Anna", "Smith"}, {"Joan", "Smythe"}, {"Àlex", "Ferrer"}, {"Maria", "Smeets"}, {"Pere", "Ramis"}};
+        for (String[] person : people) {
+            Contact contact = new Contact();
+            contact.setName(person[0]);
+            contact.setLastName(person[1]);
+            contact.setEmail(String.format("%s.%s@mail.com", person[0].toLowerCase(), person[1].toLowerCase()).replace("à", "a"));
+            book.addContact(contact);
+        }
+
+        List<Contact> result = book.search("sm", 10);
+        Assert.isTrue(result.size() == 3, "failed to search by prefix");
+        Assert.isTrue("Smith".equals(book.search("smith", 10).get(0).getLastName()), "exact match not ranked first");
+        Assert.isTrue(book.search("sm", 2).size() == 2, "failed to limit results");
+        Assert.isTrue(book.search("ALEX", 10).size() == 1, "failed to ignore case and accents");
+        Assert.isTrue(book.search("mit", 10).size() == 1, "failed to search by substring");
+        Assert.isTrue("Ferrer".equals(book.search("ferer", 10).get(0).getLastName()), "failed to search similar words");
+        Assert.isTrue(book.search("anna sm", 10).size() == 1, "failed to match every query word");
+
+        Contact anna = book.search("anna", 1).get(0);
+        Contact data = new Contact();
+        data.setLastName("Jones");
+        book.updateContact(anna.getUUID(), data);
+        Assert.isTrue(book.search("jones", 10).size() == 1 && book.search("anna smi", 10).size() == 1, "failed to update search index");
+        book.removeContact(anna);
+        Assert.isTrue(book.search("anna", 10).isEmpty(), "failed to remove contact from search index");
+    }
+
+    @Test
+    void tryContactIds() {
+        String previous = "";
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            String id = ContactIdGenerator.next();
+            Assert.isTrue(id.compareTo(previous) > 0 && ids.add(id), "identifiers not unique and ordered");
+            Assert.isTrue(UUID.fromString(id).version() == 7, "identifier is not a version 7 UUID");
+            previous = id;
+        }
+
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Contact contact = new Contact();
+            contact.setName("name" + i);
+            contacts.add(contact);
+        }
+        contacts.get(0).setUUID("persisted");
+        ContactBook book = new ContactBook("ids", contacts);
+        Assert.isTrue(book.findByUUID("persisted") == contacts.get(0), "failed to keep persisted identifier");
+        Assert.isTrue(contacts.get(1).getUUID() != null && book.getContacts().size() == 3, "failed to assign missing identifiers");
+    }
+
+    @Test
+    void tryContactSync() {
+        ContactBook loaded = new ContactBook();
+        Contact kept = new Contact();
+        kept.setName("kept");
+        loaded.addContact(kept);
+        ShardedContactBook book = new ShardedContactBook("sync", 2, Collections.singletonList(loaded),
+                ForkJoinPool.commonPool());
+
+        ContactSync first = book.sync(null);
+        Assert.isTrue(first.isFull() && first.getContacts().size() == 1 && first.getRemoved().isEmpty(),
+                "first sync is not full");
+        String etag = book.getETag();
+        Assert.isTrue(book.sync(first.getToken()).getContacts().isEmpty(), "synced changes without changes");
+
+        Contact added = new Contact();
+        added.setName("added");
+        book.addContact(added);
+        Contact data = new Contact();
+        data.setName("updated");
+        book.updateContact(kept.getUUID(), data);
+        Assert.isTrue(!book.getETag().equals(etag), "entity tag did not change");
+        Assert.isTrue(book.getContactVersion(added.getUUID()) == 1 && book.getContactVersion(kept.getUUID()) == 2,
+                "failed to version changed contacts");
+
+        ContactSync second = book.sync(first.getToken());
+        Assert.isTrue(!second.isFull() && second.getContacts().size() == 2 &&
+                "updated".equals(second.getContacts().get(1).getName()), "failed to sync changed contacts");
+        book.removeContact(added.getUUID(), null, null, null, null, null);
+        ContactSync third = book.sync(second.getToken());
+        Assert.isTrue(third.getContacts().isEmpty() && third.getRemoved().equals(Collections.singletonList(added.getUUID())),
+                "failed to sync removed contacts");
+        Assert.isTrue(book.sync(first.getToken()).getContacts().size() == 1 &&
+                book.sync(first.getToken()).getRemoved().size() == 1, "failed to merge changes of the same contact");
+
+        book.setMaxTombstones(0);
+        Assert.isTrue(book.sync(second.getToken()).isFull() && !book.sync(third.getToken()).isFull(),
+                "synced incrementally past forgotten tombstones");
+        Assert.isTrue(book.sync("other-" + third.getToken()).isFull() && book.sync("garbage").isFull(),
+                "synced a token of another run incrementally");
+    }
+
+    private static Contact restoredContact(String name, String lastName, String email, String address, String phone) {
+        Contact contact = new Contact();
+        ContactField.NAME.restore(contact, name);
+        ContactField.LAST_NAME.restore(contact, lastName);
+        ContactField.EMAIL.restore(contact, email);
+        ContactField.ADDRESS.restore(contact, address);
+        ContactField.PHONE.restore(contact, phone);
+        return contact;
+    }
+
+    @Test
+    void tryDuplicates() {
+        Assert.isTrue(ContactDeduplicator.normalize(ContactField.NAME, "  Ana \t Maria ").equals("ana maria") &&
+                        ContactDeduplicator.normalize(ContactField.EMAIL, " Ana@UIB .cat").equals("ana@uib.cat") &&
+                        ContactDeduplicator.normalize(ContactField.PHONE, "+34 600-00.00 01").equals("600000001") &&
+                        ContactDeduplicator.normalize(ContactField.ADDRESS, null).isEmpty(),
+                "failed to normalize attributes");
+
+        ShardedContactBook book = new ShardedContactBook("duplicates", 4, new ArrayList<>(), ForkJoinPool.commonPool());
+        Contact first = book.addContact(restoredContact("Ana", "Pons", "Ana@UIB.cat", null, "+34 600 000 001"));
+        Contact copy = book.addContact(restoredContact(" ana ", "PONS", "ana@uib.cat", "Carrer Major 1", "600000001"));
+        Contact other = book.addContact(restoredContact("Ana", "Pons Mas", "ana.pons@uib.cat", null, "600-000-001"));
+        book.addContact(new Contact());
+        book.addContact(new Contact());
+        for (int i = 0; i < 100; i++) book.addContact(restoredContact("name" + i, null, null, null, null));
+
+        Assert.isTrue(book.findDuplicates(DuplicateKey.CONTACT).isEmpty(), "contacts without key attributes are duplicates");
+        List<DuplicateGroup> byEmail = book.findDuplicates(DuplicateKey.EMAIL);
+        Assert.isTrue(byEmail.size() == 1 && byEmail.get(0).getContacts().get(0) == first &&
+                        byEmail.get(0).getContacts().get(1) == copy &&
+                        byEmail.get(0).getValues().equals(Collections.singletonList("ana@uib.cat")),
+                "failed to group duplicate emails");
+        List<DuplicateGroup> byPhone = book.findDuplicates(DuplicateKey.PHONE);
+        Assert.isTrue(byPhone.size() == 1 && byPhone.get(0).getContacts().size() == 3, "failed to group duplicate phones");
+        Assert.isTrue(book.findDuplicates(DuplicateKey.NAME).get(0).getContacts().size() == 2, "failed to group duplicate names");
+
+        Contact changed = new Contact();
+        changed.setName("changed");
+        book.updateContact(other.getUUID(), changed);
+        List<String> uuids = new ArrayList<>();
+        byPhone.get(0).getContacts().forEach(contact -> uuids.add(contact.getUUID()));
+        Assert.isTrue(book.mergeContacts(uuids, DuplicateKey.NAME).size() == 2, "merged a contact changed since found");
+        Contact merged = book.findByUUID(first.getUUID());
+        Assert.isTrue(merged.getName().equals("Ana") && merged.getAddress().equals("Carrer Major 1") &&
+                        book.findByUUID(copy.getUUID()) == null && book.findByUUID(other.getUUID()) != null,
+                "failed to merge duplicates into the first contact");
+        Assert.isTrue(book.mergeContacts(uuids, null).size() == 2 && book.findDuplicates(DuplicateKey.PHONE).isEmpty(),
+                "failed to merge contacts");
+        Assert.isTrue(book.mergeContacts(uuids, null).isEmpty(), "merged a single contact");
+    }
+
+    @Test
+    void tryShardedContactBook() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ShardedContactBook book = new ShardedContactBook("shards", 4, new ArrayList<>(), pool);
+            List<Contact> contacts = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                Contact contact = new Contact();
+                contact.setName(i % 10 == 0 ? "Anna" : "name" + i);
+                contact.setEmail(String.format("user%d@mail.com", i));
+                contacts.add(contact);
+            }
+            List<Contact> added = book.putContacts(contacts);
+            Assert.isTrue(book.size() == 1000 && added.get(7) == contacts.get(7), "failed to add contacts in order");
+            for (int i = 0; i < 4; i++) Assert.isTrue(book.getShard(i).size() > 0, "contacts are not spread across shards");
+            for (Contact contact : contacts) {
+                int shard = ShardedContactBook.shardOf(contact.getUUID(), 4);
+                Assert.isTrue(book.getShard(shard).findByUUID(contact.getUUID()) == contact, "contact in wrong shard");
+            }
+
+            Assert.isTrue(book.getContacts(null, "Anna", null, null, null, null).size() == 100, "failed to search every shard");
+            Assert.isTrue(book.search("anna", 5).size() == 5 && book.search("user42", 5).get(0) == contacts.get(42),
+                    "failed to merge ranked results");
+
+            Set<String> paged = new HashSet<>();
+            String cursor = null;
+            String previous = "";
+            do {
+                ContactPage page = book.getPage(null, null, null, null, null, null, cursor, 64);
+                for (Contact contact : page.getContacts()) {
+                    Assert.isTrue(contact.getUUID().compareTo(previous) > 0 && paged.add(contact.getUUID()), "pages out of order");
+                    previous = contact.getUUID();
+                }
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+            Assert.isTrue(paged.size() == 1000, "failed to page every shard");
+
+            Assert.isTrue(book.removeContact(null, "Anna", null, null, null, null).size() == 100 && book.size() == 900,
+                    "failed to remove from every shard");
+            Assert.isTrue(book.snapshot().size() == 900, "failed to merge snapshots");
+
+            List<ContactBook> loaded = new ArrayList<>();
+            loaded.add(book.snapshot().toContactBook());
+            ShardedContactBook resharded = new ShardedContactBook("shards", 3, loaded, pool);
+            Assert.isTrue(resharded.isRebalanced() && resharded.size() == 900 &&
+                    resharded.findByUUID(contacts.get(1).getUUID()) != null, "failed to redistribute contacts");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void tryQueryCache() {
+        QueryCache cache = new QueryCache(2, 10);
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Contact contact = new Contact();
+            contact.setName("cache" + i);
+            contacts.add(contact);
+        }
+        cache.put(1, contacts.subList(0, 2), "a", null);
+        Assert.isTrue(cache.get(1, "a", null).size() == 2 && cache.get(2, "a", null) == null &&
+                cache.get(1, null, "a") == null, "failed to match query and version");
+        cache.put(1, contacts, "b", null);
+        cache.get(1, "a", null);
+        cache.put(1, contacts, "c", null);
+        Assert.isTrue(cache.get(1, "b", null) == null && cache.get(1, "a", null) != null && cache.size() == 2,
+                "failed to evict least recently used query");
+        cache.put(1, contacts, "d", null);
+        Assert.isTrue(cache.getCachedContacts() <= 10 && cache.getEvictions() >= 2, "failed to evict by size");
+        Assert.isTrue(cache.getHits() == 3 && cache.getMisses() == 3, "failed to count hits and misses");
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ShardedContactBook book = new ShardedContactBook("cache", 2, new ArrayList<>(), pool);
+            QueryCache bookCache = new QueryCache(16, 1000);
+            book.setQueryCache(bookCache);
+            book.putContacts(contacts);
+            List<Contact> first = book.getContacts(null, "cache1", null, null, null, null);
+            first.clear();
+            Assert.isTrue(book.getContacts(null, "cache1", null, null, null, null).size() == 1 && bookCache.getHits() == 1,
+                    "failed to serve repeated query from cache");
+            Contact data = new Contact();
+            data.setName("renamed");
+            book.updateContact(contacts.get(1).getUUID(), data);
+            Assert.isTrue(book.getContacts(null, "cache1", null, null, null, null).isEmpty() && bookCache.getHits() == 1,
+                    "served stale result after mutation");
+        } finally {
+            pool.shutdown();
+        }
     }
 }
@@ -1,9 +1,15 @@
 package com.snebot.fbmoll.helper;
 
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactField;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.util.Assert;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
 @SpringBootTest
 public class HelperTests {
     @Test
@@ -14,4 +20,35 @@ public class HelperTests {
                 !ContactValidator.validatePhone("12345s678") &&
                 !ContactValidator.validatePhone("1234567890"), "failed to evaluate phone number");
     }
+
+    @Test
+    void tryValidatorMatchesExpressions() {
+        Pattern email = Pattern.compile("^[\\w-.]+@([\\w-]+\\.)+[\\w-]{2,4}$", Pattern.CASE_INSENSITIVE);
+        Pattern phone = Pattern.compile("^\\d{9}$");
+        String[] values = {"", "a@b.co", "a.b-c_d@mail.server.cat", "a@b.c", "a@b.coooo", "a@.com", "@b.com", "a@b..com",
+                "a@b.com.", "a b@c.com", "a@b@c.com", "ä@b.com", "a@b.c-m", "a@b.com\n", "123456789", "12345678", "１23456789"};
+        for (String value : values) {
+            Assert.isTrue(ContactValidator.validateEmail(value) == email.matcher(value).matches(), "email mismatch: " + value);
+            Assert.isTrue(ContactValidator.validatePhone(value) == phone.matcher(value).matches(), "phone mismatch: " + value);
+        }
+        Assert.isTrue(!ContactValidator.validateEmail(null) && !ContactValidator.validatePhone(null), "null accepted");
+    }
+
+    @Test
+    void tryContactRuleSet() {
+        ContactRuleSet rules = ContactRuleSet.defaults()
+                .rule(ContactField.NAME, name -> name.length() <= 5, "name too long");
+        Contact valid = new Contact();
+        valid.setName("Anna");
+        valid.setEmail("anna@mail.com");
+        Contact invalid = new Contact();
+        invalid.setName("Bartomeu");
+
+        Assert.isTrue(rules.validate(valid).isEmpty(), "valid contact rejected");
+        Assert.isTrue("invalid phone number".equals(rules.check(ContactField.PHONE, "12")), "failed to check attribute");
+        List<ValidationError> errors = rules.validateAll(Arrays.asList(valid, invalid, null));
+        Assert.isTrue(errors.size() == 2, "failed to validate contact list");
+        Assert.isTrue(errors.get(0).getIndex() == 1 && "name".equals(errors.get(0).getField()), "wrong validation error");
+        Assert.isTrue(errors.get(1).getIndex() == 2, "missing contact not reported");
+    }
 }
@@ -0,0 +1,331 @@
+package com.snebot.fbmoll.persistence;
+
+import com.snebot.fbmoll.data.ConcurrentContactBook;
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.util.Compression;
+import com.snebot.fbmoll.util.DummyUtils;
+import com.snebot.fbmoll.util.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SpringBootTest
+public class PersistenceTests {
+    private static final FileUtils fileUtils = FileUtils.getInstance();
+    private static final String JOURNAL_PATH = fileUtils.getUserFile("test.journal");
+
+    private static Contact createContact(int i) {
+        Contact contact = new Contact();
+        contact.setName("name" + i);
+        contact.setLastName("lastName" + i);
+        contact.setEmail(String.format("email%d@test.com", i));
+        contact.setAddress("address" + i);
+        contact.setPhone("111111111");
+        return contact;
+    }
+
+    @Test
+    void tryJournalReplay() throws IOException {
+        new File(JOURNAL_PATH).delete();
+        ContactBook book = new ContactBook();
+        try (ContactJournal journal = new ContactJournal(JOURNAL_PATH, FsyncPolicy.ALWAYS, 1)) {
+            for (int i = 0; i < 3; i++) {
+                Contact contact = createContact(i);
+                book.addContact(contact);
+                journal.logAdd(contact);
+            }
+            Contact update = new Contact();
+            update.setName("renamed");
+            journal.logUpdate(book.updateContact(book.getContacts().get(0).getUUID(), update));
+            journal.logRemove(book.getContacts().get(1));
+            book.removeContact(book.getContacts().get(1));
+            List<Contact> batch = Arrays.asList(createContact(3), createContact(4));
+            batch.forEach(book::addContact);
+            journal.append(batch, Collections.singletonList(batch.get(0)));
+            book.removeContact(batch.get(0));
+            Assert.isTrue(journal.size() == 8, "failed to count batch records");
+        }
+
+        ContactBook replayed = new ContactBook();
+        try (ContactJournal journal = new ContactJournal(JOURNAL_PATH, FsyncPolicy.OS, 1)) {
+            Assert.isTrue(journal.replay(replayed) == 8, "failed to replay journal records");
+            Assert.isTrue(journal.replay(replayed) == 8 && replayed.getContacts().size() == 3,
+                    "journal replay is not idempotent");
+        }
+        Contact first = replayed.findByUUID(book.getContacts().get(0).getUUID());
+        Assert.isTrue(first != null && first.similar(book.getContacts().get(0)) && "renamed".equals(first.getName()),
+                "failed to replay updated contact");
+        Assert.isTrue(replayed.findByUUID(book.getContacts().get(1).getUUID()) != null,
+                "failed to replay added contact");
+        new File(JOURNAL_PATH).delete();
+    }
+
+    @Test
+    void tryJournalTornRecord() throws IOException {
+        new File(JOURNAL_PATH).delete();
+        ContactBook book = new ContactBook();
+        try (ContactJournal journal = new ContactJournal(JOURNAL_PATH, FsyncPolicy.BATCHED, 16)) {
+            for (int i = 0; i < 2; i++) {
+                Contact contact = createContact(i);
+                book.addContact(contact);
+                journal.logAdd(contact);
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(JOURNAL_PATH, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        ContactBook replayed = new ContactBook();
+        try (ContactJournal journal = new ContactJournal(JOURNAL_PATH, FsyncPolicy.BATCHED, 16)) {
+            Assert.isTrue(journal.replay(replayed) == 1 && replayed.getContacts().size() == 1,
+                    "failed to discard torn journal record");
+            Contact contact = createContact(2);
+            book.addContact(contact);
+            journal.logAdd(contact);
+        }
+
+        ContactBook reopened = new ContactBook();
+        try (ContactJournal journal = new ContactJournal(JOURNAL_PATH, FsyncPolicy.BATCHED, 16)) {
+            Assert.isTrue(journal.replay(reopened) == 2, "failed to append after torn journal record");
+        }
+        new File(JOURNAL_PATH).delete();
+    }
+
+    @Test
+    void tryPersistenceScheduler() throws Exception {
+        AtomicInteger flushes = new AtomicInteger();
+        PersistenceScheduler scheduler = new PersistenceScheduler(() -> flushes.incrementAndGet() > 0, 50, 1000);
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < 10; i++) last = scheduler.markDirty();
+        PersistenceScheduler.await(last);
+        Assert.isTrue(flushes.get() == 1, "failed to group mutations in a single flush");
+
+        PersistenceScheduler eager = new PersistenceScheduler(() -> flushes.incrementAndGet() > 0, 60000, 5);
+        for (int i = 0; i < 5; i++) last = eager.markDirty();
+        last.get(10, TimeUnit.SECONDS);
+        Assert.isTrue(flushes.get() == 2, "failed to flush once the threshold was reached");
+
+        eager.markDirty();
+        eager.close();
+        Assert.isTrue(flushes.get() == 3 && eager.getDirtyCount() == 0, "failed to flush on close");
+        scheduler.close();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean written = new AtomicBoolean();
+        PersistenceScheduler slow = new PersistenceScheduler(() -> {
+            started.countDown();
+            release.await();
+            written.set(true);
+            return true;
+        }, 0, 1);
+        slow.markDirty();
+        started.await(10, TimeUnit.SECONDS);
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            release.countDown();
+        });
+        releaser.start();
+        slow.flush();
+        Assert.isTrue(written.get(), "flush returned before the flush in progress finished");
+        releaser.join();
+        slow.close();
+
+        AtomicInteger attempts = new AtomicInteger();
+        PersistenceScheduler retrying = new PersistenceScheduler(() -> {
+            if (attempts.incrementAndGet() == 1) throw new IOException("disk full");
+            return true;
+        }, 0, 1);
+        try {
+            PersistenceScheduler.await(retrying.markDirty());
+            Assert.isTrue(false, "reported a failed flush as done");
+        } catch (IOException ignored) {
+        }
+        for (int i = 0; i < 100 && retrying.getDirtyCount() > 0; i++) Thread.sleep(50);
+        Assert.isTrue(attempts.get() == 2 && retrying.getDirtyCount() == 0, "failed to retry a failed flush");
+        retrying.close();
+
+        AtomicInteger closing = new AtomicInteger();
+        PersistenceScheduler failing = new PersistenceScheduler(() -> closing.incrementAndGet() > 2, 60000, 1000);
+        failing.markDirty();
+        failing.close();
+        Assert.isTrue(closing.get() == 3 && failing.getDirtyCount() == 0, "failed to retry a flush on close");
+
+        PersistenceScheduler broken = new PersistenceScheduler(() -> false, 60000, 1000);
+        broken.markDirty();
+        try {
+            broken.close();
+            Assert.isTrue(false, "closed without flushing pending mutations");
+        } catch (IOException e) {
+            Assert.isTrue(broken.getDirtyCount() == 1, "dropped mutations of a failed flush");
+        }
+    }
+
+    @Test
+    void trySnapshotCodecs() throws IOException {
+        ContactBook book = new ContactBook("Contact Book", new DummyUtils().generateObjects(Contact.class, 20));
+        Contact partial = new Contact();
+        partial.setName("only name");
+        book.addContact(partial);
+
+        SnapshotCodec jaxb = SnapshotFormat.JAXB.getCodec();
+        SnapshotCodec stax = SnapshotFormat.STAX.getCodec();
+        for (SnapshotCodec writer : new SnapshotCodec[]{jaxb, stax}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.write(book, out);
+            for (SnapshotCodec reader : new SnapshotCodec[]{jaxb, stax}) {
+                ContactBook loaded = reader.read(new ByteArrayInputStream(out.toByteArray()));
+                Assert.isTrue(loaded.getName().equals(book.getName()) &&
+                                loaded.getContacts().size() == book.getContacts().size(),
+                        "failed to read snapshot");
+                for (Contact contact : book.getContacts()) {
+                    Contact match = loaded.findByUUID(contact.getUUID());
+                    Assert.isTrue(match != null && match.similar(contact), "snapshot formats are not compatible");
+                }
+            }
+        }
+    }
+
+    @Test
+    void tryBinarySnapshot() throws IOException {
+        ContactBook book = new ContactBook("Contact Book", new DummyUtils().generateObjects(Contact.class, 50));
+        book.addContact(new Contact());
+        SnapshotCodec codec = SnapshotFormat.BINARY.getCodec();
+        String path = fileUtils.getUserFile("test.bin");
+
+        Assert.isTrue(codec.save(book, path), "failed to save binary snapshot");
+        ContactBook loaded = codec.load(path);
+        Assert.isTrue(loaded.getName().equals(book.getName()) &&
+                        loaded.getContacts().size() == book.getContacts().size(),
+                "failed to load binary snapshot");
+        for (Contact contact : book.getContacts()) {
+            Contact match = loaded.findByUUID(contact.getUUID());
+            Assert.isTrue(match != null && match.similar(contact), "binary snapshot changed contact data");
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(file.length() / 2);
+            int value = file.read();
+            file.seek(file.length() / 2);
+            file.write(value ^ 0xFF);
+        }
+        try {
+            codec.load(path);
+            Assert.isTrue(false, "failed to detect corrupt binary snapshot");
+        } catch (IOException ignored) {
+        }
+        Assert.isTrue(SnapshotFormat.BINARY.getCodec().load(path + ".missing").getContacts().isEmpty(),
+                "missing snapshot is not an empty book");
+        new File(path).delete();
+    }
+
+    @Test
+    void tryCompressedSnapshots() throws IOException {
+        ContactBook book = new ContactBook("Contact Book", new DummyUtils().generateObjects(Contact.class, 200));
+        for (SnapshotFormat format : SnapshotFormat.values()) {
+            String path = fileUtils.getUserFile("test-compressed" + format.getExtension());
+            for (Compression compression : new Compression[]{Compression.GZIP, Compression.DEFLATE}) {
+                SnapshotCodec codec = new CompressedSnapshotCodec(format.getCodec(), compression, 1);
+                Assert.isTrue(codec.save(book, path), "failed to save compressed snapshot");
+                Assert.isTrue(fileUtils.detectCompression(path) == compression, "snapshot was not compressed");
+                for (SnapshotCodec reader : new SnapshotCodec[]{codec, format.getCodec()}) {
+                    ContactBook loaded = reader.load(path);
+                    Assert.isTrue(loaded.getContacts().size() == book.getContacts().size(), "failed to load compressed snapshot");
+                    for (Contact contact : book.getContacts()) {
+                        Contact match = loaded.findByUUID(contact.getUUID());
+                        Assert.isTrue(match != null && match.similar(contact), "compressed snapshot changed contact data");
+                    }
+                }
+
+                try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+                    file.seek(file.length() - 1);
+                    int value = file.read();
+                    file.seek(file.length() - 1);
+                    file.write(value ^ 0xFF);
+                }
+                try {
+                    codec.load(path);
+                    Assert.isTrue(false, "failed to detect compressed snapshot checksum mismatch");
+                } catch (IOException ignored) {
+                }
+
+                try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+                    file.setLength(file.length() - 4);
+                }
+                for (SnapshotCodec reader : new SnapshotCodec[]{codec, format.getCodec()}) {
+                    try {
+                        reader.load(path);
+                        Assert.isTrue(false, "failed to detect torn compressed snapshot");
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            new File(path).delete();
+        }
+    }
+
+    @Test
+    void tryDeltaStore() throws Exception {
+        String path = fileUtils.getUserFile(String.format("delta-test-%d.bin", System.nanoTime()));
+        SnapshotCodec codec = SnapshotFormat.BINARY.getCodec();
+        ExecutorService compactor = Executors.newSingleThreadExecutor();
+        ContactBook base = new ContactBook();
+        for (int i = 0; i < 100; i++) base.addContact(createContact(i));
+        Assert.isTrue(codec.save(base, path), "failed to write base snapshot");
+
+        try {
+            DeltaStore store = new DeltaStore(path, codec, 100, 100, compactor);
+            ConcurrentContactBook book = new ConcurrentContactBook(codec.load(path));
+            store.attach(book);
+            Contact added = book.addContact(createContact(100));
+            Contact update = new Contact();
+            update.setName("renamed");
+            Contact renamed = book.updateContact(base.getContacts().get(0).getUUID(), update);
+            Assert.isTrue(store.flush() && store.getDeltaCount() == 1, "failed to write delta");
+            book.removeContact(base.getContacts().get(1).getUUID(), null, null, null, null, null);
+            Assert.isTrue(store.flush() && store.flush() && store.getDeltaCount() == 2, "failed to write only changes");
+            Assert.isTrue(store.getDeltaBytes() < new File(path).length() / 10, "delta larger than its changes");
+
+            ContactBook loaded = codec.load(path);
+            Assert.isTrue(new DeltaStore(path, codec, 100, 100, compactor).replay(loaded) == 3, "failed to replay deltas");
+            Assert.isTrue(loaded.getContacts().size() == 100 && loaded.findByUUID(added.getUUID()) != null &&
+                            "renamed".equals(loaded.findByUUID(renamed.getUUID()).getName()) &&
+                            loaded.findByUUID(base.getContacts().get(1).getUUID()) == null,
+                    "deltas do not match the contact book");
+
+            Assert.isTrue(store.compact() && store.getDeltaCount() == 0, "failed to compact deltas");
+            Assert.isTrue(codec.load(path).getContacts().size() == 100, "compacted base is incomplete");
+
+            book.removeContact(added.getUUID(), null, null, null, null, null);
+            Assert.isTrue(store.flush(), "failed to write delta");
+            File interrupted = new File(path + ".3.compact");
+            Assert.isTrue(codec.save(book.snapshot().toContactBook(), interrupted.getPath()), "failed to write compact file");
+            DeltaStore.recover(path);
+            Assert.isTrue(!interrupted.exists() && new DeltaStore(path, codec, 100, 100, compactor).getDeltaCount() == 0 &&
+                    codec.load(path).getContacts().size() == 99, "failed to finish interrupted compaction");
+        } finally {
+            compactor.shutdown();
+            new File(path).delete();
+        }
+    }
+}
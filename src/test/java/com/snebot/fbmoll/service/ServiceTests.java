@@ -0,0 +1,538 @@
+package com.snebot.fbmoll.service;
+
+import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.data.ContactBook;
+import com.snebot.fbmoll.data.ContactPage;
+import com.snebot.fbmoll.persistence.ContactJournal;
+import com.snebot.fbmoll.persistence.FsyncPolicy;
+import com.snebot.fbmoll.persistence.PersistenceMode;
+import com.snebot.fbmoll.persistence.SnapshotCodec;
+import com.snebot.fbmoll.persistence.SnapshotFormat;
+import com.snebot.fbmoll.util.FileUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+@SpringBootTest
+public class ServiceTests {
+    @Autowired
+    private ContactBookService service;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private static Map<String, Object> item(Object... values) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i += 2) item.put((String) values[i], values[i + 1]);
+        return item;
+    }
+
+    @Test
+    void tryBulkImport() throws Exception {
+        String name = "bulk" + System.nanoTime();
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) items.add(item("name", name, "email", String.format("bulk%d@test.com", i)));
+        items.add(item("name", name, "email", "not an email"));
+        items.add(item("name", name, "phone", "12"));
+        items.add(item("name", name, "nickname", "unknown"));
+        items.add(null);
+
+        int size = this.service.snapshot().size();
+        BulkImportResult result = this.service.importContacts(items.iterator(), true);
+        Assert.isTrue(result.getReceived() == 104 && result.getImported() == 100, "failed to import valid contacts");
+        Assert.isTrue(result.getErrors().size() == 4 && result.getErrors().get(0).getIndex() == 100 &&
+                        "email".equals(result.getErrors().get(0).getField()),
+                "failed to report invalid contacts");
+        Assert.isTrue(result.getUuids().get(0) != null && result.getUuids().get(100) == null,
+                "failed to report imported identifiers");
+        Assert.isTrue(this.service.snapshot().size() == size + 100 &&
+                        this.service.getContacts(null, name, null, null, null, null).size() == 100,
+                "imported contacts are missing");
+
+        this.service.removeContact(null, name, null, null, null, null, true);
+    }
+
+    @Test
+    void tryMetrics() throws Exception {
+        String name = "metrics" + System.nanoTime();
+        Contact contact = new Contact();
+        contact.setName(name);
+        this.service.addContact(contact, true);
+        this.service.getContacts(null, name, null, null, null, null);
+
+        Assert.isTrue(this.registry.get("contacts.query.returned").tag("shape", "name").counter().count() >= 1,
+                "failed to count returned contacts");
+        Assert.isTrue(this.registry.get("contacts.query.scanned").tag("shape", "name").counter().count() >= 1,
+                "failed to count scanned contacts");
+        Assert.isTrue(this.registry.get("contacts.book.size").gauge().value() == this.service.snapshot().size(),
+                "failed to report contact book size");
+        this.service.getContacts(null, name, null, null, null, null);
+        Assert.isTrue(this.registry.get("contacts.query.cache").tag("result", "hit").functionCounter().count() >= 1,
+                "failed to count query cache hits");
+        Assert.isTrue(this.registry.get("contacts.persistence.marshal").timer().count() >= 1 &&
+                this.registry.get("contacts.file.size").gauge().value() > 0, "failed to time contact book writes");
+    }
+
+    @Test
+    void tryWriter() throws Exception {
+        List<Boolean> commits = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        ContactBookWriter writer = new ContactBookWriter(durable -> {
+            commits.add(durable);
+            return flushed;
+        }, 4, 16);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            List<Integer> applied = Collections.synchronizedList(new ArrayList<>());
+            writer.submit(() -> {
+                blocked.countDown();
+                return release.await(1, TimeUnit.MINUTES);
+            }, changed -> false, false);
+            Assert.isTrue(blocked.await(1, TimeUnit.MINUTES), "writer did not start");
+
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int value = i;
+                futures.add(writer.submit(() -> {
+                    applied.add(value);
+                    return value;
+                }, changed -> true, value == 3));
+            }
+            try {
+                writer.submit(() -> 4, changed -> true, false);
+                Assert.isTrue(false, "accepted a command with a full queue");
+            } catch (ContactBookUnavailableException e) {
+                Assert.isTrue(writer.getQueueSize() == 4, "rejected a command with room in the queue");
+            }
+
+            release.countDown();
+            Assert.isTrue(futures.get(0).get(1, TimeUnit.MINUTES) == 0, "failed to complete a command");
+            Assert.isTrue(applied.equals(Arrays.asList(0, 1, 2, 3)), "commands applied out of order");
+            Assert.isTrue(commits.equals(Collections.singletonList(true)), "failed to commit the batch together");
+            Assert.isTrue(!futures.get(3).isDone(), "completed a durable command before the flush");
+            flushed.complete(null);
+            Assert.isTrue(futures.get(3).get(1, TimeUnit.MINUTES) == 3, "failed to complete a durable command");
+            Assert.isTrue(writer.getCommands() == 5 && writer.getBatches() == 2, "failed to count batches");
+        } finally {
+            release.countDown();
+            writer.close();
+        }
+        try {
+            writer.submit(() -> 0, changed -> true, false);
+            Assert.isTrue(false, "accepted a command after closing");
+        } catch (ContactBookUnavailableException ignored) {
+        }
+    }
+
+    @Test
+    void tryChangeFeed() throws Exception {
+        ContactChangeFeed feed = new ContactChangeFeed(4, 1, 50);
+        try {
+            CompletableFuture<Void> waiting = feed.await(0, 60000);
+            Assert.isTrue(!waiting.isDone(), "woke up a reader without changes");
+            Assert.isTrue(feed.await(0, 10).get(1, TimeUnit.MINUTES) == null, "failed to time out a reader");
+
+            List<List<ChangeEvent>> received = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch heartbeat = new CountDownLatch(1);
+            CountDownLatch reset = new CountDownLatch(1);
+            CountDownLatch sent = new CountDownLatch(1);
+            CountDownLatch slow = new CountDownLatch(1);
+            ContactChangeFeed.Subscription subscription = feed.subscribe(0, new ContactChangeFeed.Subscriber() {
+                @Override
+                public void send(List<ChangeEvent> events) throws IOException {
+                    received.add(events);
+                    sent.countDown();
+                    try {
+                        slow.await(1, TimeUnit.MINUTES);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+
+                @Override
+                public void heartbeat() {
+                    heartbeat.countDown();
+                }
+
+                @Override
+                public void reset(long latest) {
+                    reset.countDown();
+                }
+            });
+            Assert.isTrue(heartbeat.await(1, TimeUnit.MINUTES), "failed to send a heartbeat");
+            try {
+                feed.subscribe(0, null);
+                Assert.isTrue(false, "accepted too many subscribers");
+            } catch (ContactBookUnavailableException ignored) {
+            }
+
+            Contact contact = new Contact();
+            contact.setUUID("feed");
+            feed.contactAdded(contact);
+            waiting.get(1, TimeUnit.MINUTES);
+            Assert.isTrue(sent.await(1, TimeUnit.MINUTES), "failed to push changes");
+            feed.contactUpdated(contact, contact);
+            ChangePage page = feed.since(0, 10);
+            Assert.isTrue(page.getEvents().size() == 2 && page.getNext() == 2 && !page.isReset() &&
+                            page.getEvents().get(1).getType() == ChangeEvent.Type.UPDATED,
+                    "failed to read changes");
+            Assert.isTrue(feed.since(1, 10).getEvents().size() == 1 && feed.since(2, 10).getEvents().isEmpty(),
+                    "failed to resume from a sequence");
+            Assert.isTrue(feed.sequenceOf(page.getNextCursor()) == 2 && feed.sequenceOf(page.getEvents().get(0).getId()) == 1 &&
+                            feed.sequenceOf("0") == 0, "failed to resume from a cursor");
+            Assert.isTrue(feed.since(feed.sequenceOf("1"), 10).isReset() &&
+                            feed.since(feed.sequenceOf("0123abcd-1"), 10).isReset() &&
+                            feed.since(feed.sequenceOf(feed.cursor(1).replace("-", "-x")), 10).isReset(),
+                    "failed to reset a cursor of another run");
+
+            for (int i = 0; i < 4; i++) feed.contactRemoved(contact);
+            Assert.isTrue(feed.since(0, 10).isReset() && feed.since(1, 10).isReset() && !feed.since(2, 10).isReset() &&
+                    feed.since(7, 10).isReset(), "failed to reset readers behind the ring");
+            slow.countDown();
+            Assert.isTrue(reset.await(1, TimeUnit.MINUTES), "failed to drop a slow subscriber");
+            Assert.isTrue(received.get(0).get(0).getSequence() == 1 && feed.getDroppedSubscribers() == 1 &&
+                    feed.getSubscriberCount() == 0, "failed to deliver changes before dropping");
+            subscription.cancel();
+        } finally {
+            feed.close();
+        }
+
+        String name = "feed" + System.nanoTime();
+        long latest = this.service.getChangeFeed().getLatest();
+        Contact contact = new Contact();
+        contact.setName(name);
+        this.service.addContact(contact, false);
+        this.service.removeContact(contact.getUUID(), null, null, null, null, null, false);
+        List<ChangeEvent> events = this.service.getChangeFeed().since(latest, 10).getEvents();
+        Assert.isTrue(events.size() == 2 && events.get(0).getType() == ChangeEvent.Type.ADDED &&
+                        events.get(1).getType() == ChangeEvent.Type.REMOVED && name.equals(events.get(1).getContact().getName()),
+                "failed to publish contact book changes");
+    }
+
+    private static ContactBookProperties properties(String fileName, StartupPolicy policy, int shards) {
+        ContactBookProperties properties = new ContactBookProperties();
+        properties.setFile(fileName);
+        properties.getPersistence().setFormat(SnapshotFormat.BINARY);
+        properties.getPersistence().setShards(shards);
+        properties.getStartup().setPolicy(policy);
+        return properties;
+    }
+
+    private static ContactBookService startService(String fileName, StartupPolicy policy) throws Exception {
+        return startService(fileName, policy, 1);
+    }
+
+    private static ContactBookService startService(String fileName, StartupPolicy policy, int shards) throws Exception {
+        return new ContactBookService(properties(fileName, policy, shards), new SimpleMeterRegistry());
+    }
+
+    /**
+     * Binary codec that reports the first half of the book as read, then holds
+     * the loader until the gate is opened.
+     */
+    private static class GatedCodec implements SnapshotCodec {
+        private final SnapshotCodec codec = SnapshotFormat.BINARY.getCodec();
+        private final CountDownLatch reading = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public void write(ContactBook book, OutputStream out) throws IOException {
+            this.codec.write(book, out);
+        }
+
+        @Override
+        public ContactBook read(InputStream in) throws IOException {
+            return this.codec.read(in);
+        }
+
+        @Override
+        public ContactBook read(InputStream in, Consumer<ContactBook> progress) throws IOException {
+            ContactBook book = this.codec.read(in);
+            List<Contact> contacts = book.getContacts();
+            if (progress != null) progress.accept(new ContactBook(book.getName(), contacts.subList(0, contacts.size() / 2)));
+            this.reading.countDown();
+            try {
+                if (!this.gate.await(1, TimeUnit.MINUTES)) throw new IOException("loader gate not opened");
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return book;
+        }
+
+        ContactBookService start(String fileName, StartupPolicy policy) throws Exception {
+            ContactBookService service = new ContactBookService(properties(fileName, policy, 1), this, new SimpleMeterRegistry());
+            Assert.isTrue(this.reading.await(1, TimeUnit.MINUTES), "failed to start loading");
+            return service;
+        }
+    }
+
+    @Test
+    void tryWarmUpPolicies() throws Exception {
+        String fileName = String.format("warmup-test-%d.bin", System.nanoTime());
+        File file = new File(FileUtils.getInstance().getUserFile(fileName));
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Contact contact = new Contact();
+            contact.setName("warmup" + i);
+            contacts.add(contact);
+        }
+        Assert.isTrue(SnapshotFormat.BINARY.getCodec().save(new ContactBook("warmup", contacts), file.getPath()),
+                "failed to write contact book");
+        Contact added = new Contact();
+        added.setName("added");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            GatedCodec rejectingCodec = new GatedCodec();
+            ContactBookService rejecting = rejectingCodec.start(fileName, StartupPolicy.REJECT);
+            try {
+                rejecting.getContacts(null, "warmup1", null, null, null, null);
+                Assert.isTrue(false, "served a request while loading");
+            } catch (ContactBookUnavailableException ignored) {
+            }
+            rejectingCodec.gate.countDown();
+            rejecting.close();
+
+            GatedCodec partialCodec = new GatedCodec();
+            ContactBookService partial = partialCodec.start(fileName, StartupPolicy.PARTIAL);
+            Assert.isTrue(partial.snapshot().size() == 500 && partial.getLoadedContacts() == 500 &&
+                            partial.getContacts(null, "warmup1", null, null, null, null).size() == 1 &&
+                            partial.getContacts(null, "warmup999", null, null, null, null).isEmpty(),
+                    "partial view is not the part of the book read so far");
+            try {
+                partial.addContact(added, false);
+                Assert.isTrue(false, "accepted a write while loading");
+            } catch (ContactBookUnavailableException ignored) {
+            }
+            partialCodec.gate.countDown();
+            partial.close();
+
+            GatedCodec queueingCodec = new GatedCodec();
+            ContactBookService queueing = queueingCodec.start(fileName, StartupPolicy.QUEUE);
+            Future<List<Contact>> waiting = executor.submit(() -> queueing.getContacts(null, "warmup999", null, null, null, null));
+            List<CompletableFuture<Contact>> writes = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Contact queued = new Contact();
+                queued.setName("queued" + i);
+                writes.add(queueing.addContactAsync(queued, false));
+            }
+            try {
+                waiting.get(200, TimeUnit.MILLISECONDS);
+                Assert.isTrue(false, "answered before the contact book was loaded");
+            } catch (TimeoutException ignored) {
+            }
+            Assert.isTrue(!queueing.isReady() && writes.stream().noneMatch(CompletableFuture::isDone), "loaded past the gate");
+            queueingCodec.gate.countDown();
+            Assert.isTrue(waiting.get(1, TimeUnit.MINUTES).size() == 1, "failed to wait for the contact book");
+            for (CompletableFuture<Contact> write : writes) write.get(1, TimeUnit.MINUTES);
+            Assert.isTrue(queueing.isReady() && queueing.getLoadedContacts() == 1003, "failed to apply queued writes");
+            queueing.close();
+        } finally {
+            executor.shutdown();
+            Assert.isTrue(file.delete(), "failed to delete contact book");
+        }
+    }
+
+    @Test
+    void tryCorruptContactBook() throws Exception {
+        String fileName = String.format("corrupt-test-%d.bin", System.nanoTime());
+        File file = new File(FileUtils.getInstance().getUserFile(fileName));
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Contact contact = new Contact();
+            contact.setName("corrupt" + i);
+            contacts.add(contact);
+        }
+        Assert.isTrue(SnapshotFormat.BINARY.getCodec().save(new ContactBook("corrupt", contacts), file.getPath()),
+                "failed to write contact book");
+        try (RandomAccessFile corrupt = new RandomAccessFile(file, "rw")) {
+            corrupt.setLength(corrupt.length() - 1);
+        }
+        byte[] content = Files.readAllBytes(file.toPath());
+
+        try {
+            ContactBookService service = startService(fileName, StartupPolicy.QUEUE);
+            try {
+                service.getContacts(null, null, null, null, null, null);
+                Assert.isTrue(false, "served a contact book that failed to load");
+            } catch (ContactBookUnavailableException e) {
+                Assert.isTrue(!service.isReady() && service.getLoadFailure() instanceof IOException,
+                        "failed to report the load failure");
+            }
+            service.close();
+            Assert.isTrue(Arrays.equals(content, Files.readAllBytes(file.toPath())), "overwrote a contact book that failed to load");
+        } finally {
+            Assert.isTrue(file.delete(), "failed to delete contact book");
+        }
+    }
+
+    @Test
+    void tryContactsWithoutUUID() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><contactBook name=\"manual\"><contacts>" +
+                "<contact><name>same</name><email>first@mail.com</email></contact>" +
+                "<contact><name>same</name><email>second@mail.com</email></contact>" +
+                "</contacts></contactBook>";
+        for (SnapshotFormat format : new SnapshotFormat[]{SnapshotFormat.JAXB, SnapshotFormat.STAX}) {
+            String baseName = String.format("uuid-test-%d", System.nanoTime());
+            String basePath = FileUtils.getInstance().getUserFile(baseName);
+            File file = new File(basePath + ".xml");
+            Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+            try {
+                ContactBookProperties properties = properties(baseName + ".xml", StartupPolicy.QUEUE, 2);
+                properties.getPersistence().setFormat(format);
+                ContactBookService service = new ContactBookService(properties, new SimpleMeterRegistry());
+                List<Contact> contacts = service.getContacts(null, "same", null, null, null, null);
+                Assert.isTrue(service.isReady() && contacts.size() == 2, "failed to load contacts without unique identifier");
+                for (Contact contact : contacts) {
+                    Assert.isTrue(contact.getUUID() != null &&
+                                    service.getContacts(contact.getUUID(), null, null, null, null, null).size() == 1,
+                            "failed to assign a unique identifier to a loaded contact");
+                }
+                service.close();
+            } finally {
+                file.delete();
+                for (int i = 0; i < 2; i++) new File(String.format("%s-%d.xml", basePath, i)).delete();
+            }
+        }
+    }
+
+    /**
+     * Binary codec whose writes hold until the gate is opened, once armed.
+     */
+    private static class SlowWriteCodec implements SnapshotCodec {
+        private final SnapshotCodec codec = SnapshotFormat.BINARY.getCodec();
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private volatile boolean armed = false;
+
+        @Override
+        public void write(ContactBook book, OutputStream out) throws IOException {
+            if (this.armed) {
+                this.writing.countDown();
+                try {
+                    if (!this.gate.await(1, TimeUnit.MINUTES)) throw new IOException("writer gate not opened");
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            this.codec.write(book, out);
+        }
+
+        @Override
+        public ContactBook read(InputStream in) throws IOException {
+            return this.codec.read(in);
+        }
+    }
+
+    @Test
+    void tryJournalCheckpoint() throws Exception {
+        String baseName = String.format("checkpoint-test-%d", System.nanoTime());
+        String basePath = FileUtils.getInstance().getUserFile(baseName);
+        File file = new File(basePath + ".bin");
+        File journalFile = new File(basePath + ".journal");
+        ContactBookProperties properties = properties(baseName + ".bin", StartupPolicy.QUEUE, 1);
+        properties.getPersistence().setMode(PersistenceMode.JOURNAL);
+        properties.getJournal().setCheckpointRecords(5);
+        SlowWriteCodec codec = new SlowWriteCodec();
+
+        try {
+            ContactBookService service = new ContactBookService(properties, codec, new SimpleMeterRegistry());
+            codec.armed = true;
+            for (int i = 0; i < 5; i++) {
+                Contact contact = new Contact();
+                contact.setName("checkpoint" + i);
+                service.addContact(contact, false);
+            }
+            Assert.isTrue(codec.writing.await(1, TimeUnit.MINUTES), "failed to checkpoint a full journal");
+            for (int i = 5; i < 15; i++) {
+                Contact contact = new Contact();
+                contact.setName("checkpoint" + i);
+                service.addContactAsync(contact, false).get(30, TimeUnit.SECONDS);
+            }
+            Assert.isTrue(codec.gate.getCount() == 1, "checkpoint finished before the writes");
+            codec.gate.countDown();
+            service.close();
+
+            ContactBook saved = SnapshotFormat.BINARY.getCodec().load(file.getPath());
+            int replayed;
+            try (ContactJournal journal = new ContactJournal(journalFile.getPath(), FsyncPolicy.OS, 1)) {
+                replayed = journal.replay(saved);
+            }
+            Assert.isTrue(saved.getContacts().size() == 15 && replayed < 15,
+                    "failed to keep the records written during the checkpoint");
+        } finally {
+            Assert.isTrue(file.delete(), "failed to delete contact book");
+            journalFile.delete();
+        }
+    }
+
+    @Test
+    void tryShards() throws Exception {
+        String baseName = String.format("shard-test-%d", System.nanoTime());
+        String basePath = FileUtils.getInstance().getUserFile(baseName);
+        File file = new File(basePath + ".bin");
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Contact contact = new Contact();
+            contact.setName("shard" + i);
+            contacts.add(contact);
+        }
+        Assert.isTrue(SnapshotFormat.BINARY.getCodec().save(new ContactBook("shards", contacts), file.getPath()),
+                "failed to write contact book");
+
+        try {
+            ContactBookService sharded = startService(baseName + ".bin", StartupPolicy.QUEUE, 4);
+            Assert.isTrue(sharded.getContacts(null, "shard4999", null, null, null, null).size() == 1 &&
+                    sharded.getLoadedContacts() == 5000, "failed to split contact book into shards");
+            for (int i = 0; i < 4; i++) {
+                Assert.isTrue(new File(String.format("%s-%d.bin", basePath, i)).isFile(), "failed to write shard file");
+                Assert.isTrue(sharded.getBook().getShard(i).size() > 0, "contacts are not spread across shards");
+            }
+            Contact contact = new Contact();
+            contact.setName("shard5000");
+            sharded.addContact(contact, true);
+            sharded.close();
+
+            ContactBookService resharded = startService(baseName + ".bin", StartupPolicy.QUEUE, 2);
+            Assert.isTrue(resharded.getContacts(contact.getUUID(), null, null, null, null, null).size() == 1 &&
+                    resharded.getLoadedContacts() == 5001,
+                    "failed to redistribute contacts");
+            Assert.isTrue(!new File(basePath + "-2.bin").exists() && !new File(basePath + "-3.bin").exists(),
+                    "failed to remove stale shard files");
+            int paged = 0;
+            String cursor = null;
+            do {
+                ContactPage page = resharded.getPage(null, null, null, null, null, null, cursor, 1000);
+                paged += page.getContacts().size();
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+            Assert.isTrue(paged == 5001, "failed to page across shards");
+            resharded.close();
+        } finally {
+            Assert.isTrue(file.delete(), "failed to delete contact book");
+            for (int i = 0; i < 4; i++) new File(String.format("%s-%d.bin", basePath, i)).delete();
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package com.snebot.fbmoll.util;
 
 import com.snebot.fbmoll.data.Contact;
+import com.snebot.fbmoll.helper.ContactRuleSet;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 @SpringBootTest
 public class DummyUtilTests {
@@ -16,4 +21,33 @@ public class DummyUtilTests {
         List<Contact> contactList = dummyUtils.generateObjects(Contact.class, size);
         Assert.isTrue(contactList != null && contactList.size() == size, "failed to generate objects with DummyUtils");
     }
+
+    private static List<String> describe(List<Contact> contacts) {
+        return contacts.stream()
+                .map(contact -> String.join("|", contact.getUUID(), contact.getName(), contact.getLastName(),
+                        contact.getEmail(), contact.getAddress(), contact.getPhone()))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void tryContactGenerator() {
+        int size = 3 * ContactGenerator.CHUNK_SIZE + 17;
+        List<Contact> contacts = new ContactGenerator(42).generate(size);
+        Assert.isTrue(contacts.size() == size, "failed to generate contacts");
+        Assert.isTrue(ContactRuleSet.defaults().validateAll(contacts).isEmpty(), "generated invalid contacts");
+        Assert.isTrue(contacts.stream().map(Contact::getUUID).collect(Collectors.toSet()).size() == size,
+                "generated duplicated unique identifiers");
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            List<Contact> streamed = new ArrayList<>();
+            new ContactGenerator(42, pool).generate((long) size, streamed::add);
+            Assert.isTrue(describe(streamed).equals(describe(contacts)), "same seed generated other contacts");
+        } finally {
+            pool.shutdown();
+        }
+        Assert.isTrue(!new HashSet<>(describe(new ContactGenerator(43).generate(size))).containsAll(describe(contacts)),
+                "other seed generated the same contacts");
+        Assert.isTrue(new ContactGenerator(42).generate(0).isEmpty(), "generated contacts for an empty request");
+    }
 }
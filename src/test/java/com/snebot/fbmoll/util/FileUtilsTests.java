@@ -5,9 +5,18 @@ import com.snebot.fbmoll.data.ContactBook;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
 
+import javax.xml.bind.Marshaller;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @SpringBootTest
 public class FileUtilsTests {
@@ -68,4 +77,79 @@ public class FileUtilsTests {
         ContactBook loadedContactBook = fileUtils.unmarshalContent(path, ContactBook.class);
         Assert.isTrue(contactBook.equals(loadedContactBook), "failed to load saved content");
     }
+
+    @Test
+    void tryCachedContext() throws Exception {
+        Assert.isTrue(fileUtils.getContext(ContactBook.class) == fileUtils.getContext(ContactBook.class),
+                "failed to cache JAXB context");
+        Assert.isTrue(fileUtils.getMarshaller(ContactBook.class) == fileUtils.getMarshaller(ContactBook.class) &&
+                        fileUtils.getUnmarshaller(ContactBook.class) == fileUtils.getUnmarshaller(ContactBook.class),
+                "failed to reuse marshallers");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Marshaller other = executor.submit(() -> fileUtils.getMarshaller(ContactBook.class)).get();
+            Assert.isTrue(other != fileUtils.getMarshaller(ContactBook.class), "marshallers are shared between threads");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void tryWriteAtomically() throws Exception {
+        String path = fileUtils.getUserFile(String.format("atomic-test-%d.txt", System.nanoTime()));
+        File file = new File(path);
+        try {
+            fileUtils.writeAtomically(path, out -> out.write("first".getBytes()));
+            try {
+                fileUtils.writeAtomically(path, out -> {
+                    out.write("second".getBytes());
+                    throw new IllegalStateException("interrupted");
+                });
+                Assert.isTrue(false, "failed writer did not fail");
+            } catch (java.io.IOException e) {
+                Assert.isTrue("first".equals(new String(java.nio.file.Files.readAllBytes(file.toPath()))),
+                        "failed write replaced the file");
+            }
+            String[] temporary = file.getParentFile().list((dir, name) -> name.startsWith(file.getName() + ".") && name.endsWith(".tmp"));
+            Assert.isTrue(temporary != null && temporary.length == 0, "temporary file left behind");
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void tryCompression() throws Exception {
+        String path = fileUtils.getUserFile(String.format("compression-test-%d.txt", System.nanoTime()));
+        File file = new File(path);
+        byte[] content = String.join("\n", Collections.nCopies(1000, "<contact>repeated content</contact>")).getBytes();
+        try {
+            for (Compression compression : Compression.values()) {
+                fileUtils.writeAtomically(path, compression, 9, out -> out.write(content));
+                Assert.isTrue(fileUtils.detectCompression(path) == compression, "failed to detect compression");
+                Assert.isTrue(compression == Compression.NONE || file.length() < content.length / 10, "content was not compressed");
+                byte[] read = fileUtils.readFile(path, in -> StreamUtils.copyToByteArray(in));
+                Assert.isTrue(Arrays.equals(content, read), "failed to read compressed content");
+                // A reader stopping early still gets the checksum verified.
+                Assert.isTrue(fileUtils.readFile(path, InputStream::read) == '<', "failed to read first byte");
+                if (compression == Compression.NONE) continue;
+
+                byte[] bytes = Files.readAllBytes(file.toPath());
+                Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 2));
+                try {
+                    fileUtils.readFile(path, InputStream::read);
+                    Assert.isTrue(false, "failed to detect truncated file");
+                } catch (IOException ignored) {
+                }
+                bytes[bytes.length - 3] ^= 0xFF;
+                Files.write(file.toPath(), bytes);
+                try {
+                    fileUtils.readFile(path, in -> StreamUtils.copyToByteArray(in));
+                    Assert.isTrue(false, "failed to detect corrupt file");
+                } catch (IOException ignored) {
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
 }